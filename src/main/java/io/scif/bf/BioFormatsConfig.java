@@ -0,0 +1,480 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf;
+
+import io.scif.config.SCIFIOConfig;
+import io.scif.img.Range;
+
+import java.util.Arrays;
+
+/**
+ * Reads and writes {@link BioFormatsFormat} specific options in a
+ * {@link SCIFIOConfig}. The options are stored as ordinary entries of the
+ * configuration map, so they survive copying the configuration and are
+ * ignored by other formats.
+ */
+public final class BioFormatsConfig {
+
+	// -- Constants --
+
+	/** Key of the compact metadata option. */
+	public static final String COMPACT_METADATA = "bioformats.compactMetadata";
+
+	/** Key of the reader reuse option. */
+	public static final String REUSE_READERS = "bioformats.reuseReaders";
+
+	/** Key of the dataset index option. */
+	public static final String INDEX_DATASETS = "bioformats.indexDatasets";
+
+	/** Key of the handle sharing option. */
+	public static final String SHARE_HANDLES = "bioformats.shareHandles";
+
+	/** Key of the file handle pooling option. */
+	public static final String POOL_FILE_HANDLES = "bioformats.poolFileHandles";
+
+	/** Key of the range fetch option. */
+	public static final String RANGE_FETCH = "bioformats.rangeFetch";
+
+	/** Key of the writer tile width option. */
+	public static final String WRITER_TILE_WIDTH = "bioformats.writerTileWidth";
+
+	/** Key of the writer tile height option. */
+	public static final String WRITER_TILE_HEIGHT =
+		"bioformats.writerTileHeight";
+
+	/** Key of the tile cache size option. */
+	public static final String TILE_CACHE_SIZE = "bioformats.tileCacheSize";
+
+	/** Key of the disk tile cache option. */
+	public static final String DISK_TILE_CACHE = "bioformats.diskTileCache";
+
+	/** Key of the parallel detection option. */
+	public static final String PARALLEL_DETECTION =
+		"bioformats.parallelDetection";
+
+	/** Key of the parse timeout option. */
+	public static final String PARSE_TIMEOUT = "bioformats.parseTimeout";
+
+	/** Key of the plane read timeout option. */
+	public static final String READ_TIMEOUT = "bioformats.readTimeout";
+
+	/** Key of the series subset option. */
+	public static final String SERIES_SUBSET = "bioformats.seriesSubset";
+
+	// -- Constructor --
+
+	private BioFormatsConfig() {
+		// NB: prevent instantiation of utility class.
+	}
+
+	// -- Utility methods --
+
+	/**
+	 * Sets whether datasets are parsed into a
+	 * {@link io.scif.bf.ome.CompactMetadataStore} rather than a full OME-XML
+	 * model. The full model is then only built on demand, by
+	 * {@link BioFormatsFormat.Metadata#getOMEXMLMetadata()}.
+	 *
+	 * @return the given configuration, for chaining
+	 */
+	public static SCIFIOConfig setCompactMetadata(final SCIFIOConfig config,
+		final boolean compact)
+	{
+		config.put(COMPACT_METADATA, compact);
+		return config;
+	}
+
+	/**
+	 * @return true if datasets should be parsed into a compact metadata store.
+	 *         Defaults to false.
+	 */
+	public static boolean isCompactMetadata(final SCIFIOConfig config) {
+		return getBoolean(config, COMPACT_METADATA, false);
+	}
+
+	/**
+	 * Sets whether Bio-Formats readers are reused across datasets. When
+	 * enabled, the reader selected for a dataset is kept by the
+	 * {@link BioFormatsFormat} once its metadata is closed, and is tried first
+	 * for the next dataset parsed in reuse mode. If it accepts that dataset, it
+	 * is initialized again with {@code setId}, skipping the instantiation of a
+	 * new {@link loci.formats.ImageReader} and detection across all reader
+	 * classes.
+	 * <p>
+	 * NB: an idle reader which accepts the dataset is used even if a reader of
+	 * higher priority would also accept it, so enable this for runs of files of
+	 * the same format.
+	 * </p>
+	 *
+	 * @return the given configuration, for chaining
+	 */
+	public static SCIFIOConfig setReuseReaders(final SCIFIOConfig config,
+		final boolean reuse)
+	{
+		config.put(REUSE_READERS, reuse);
+		return config;
+	}
+
+	/**
+	 * @return true if Bio-Formats readers should be reused across datasets.
+	 *         Defaults to false.
+	 */
+	public static boolean isReuseReaders(final SCIFIOConfig config) {
+		return getBoolean(config, REUSE_READERS, false);
+	}
+
+	/**
+	 * Sets whether multi-file datasets opened with file grouping are recorded
+	 * in the {@link BioFormatsFormat#getDatasetIndex() dataset index}. When
+	 * enabled, opening any file of a dataset which is still valid in the index
+	 * opens the dataset from its original file, with the reader class which
+	 * opened it before, without detecting the format again. The readers' scans
+	 * of the dataset's directories are served from the Bio-Formats directory
+	 * listing cache, which is switched on for the whole JVM, and cleared when
+	 * an indexed directory changes.
+	 * <p>
+	 * Only applies to files, when {@link SCIFIOConfig#groupableIsGroupFiles()}
+	 * is set.
+	 * </p>
+	 *
+	 * @return the given configuration, for chaining
+	 */
+	public static SCIFIOConfig setIndexDatasets(final SCIFIOConfig config,
+		final boolean index)
+	{
+		config.put(INDEX_DATASETS, index);
+		return config;
+	}
+
+	/**
+	 * @return true if multi-file datasets should be recorded in and opened
+	 *         through the dataset index. Defaults to false.
+	 */
+	public static boolean isIndexDatasets(final SCIFIOConfig config) {
+		return getBoolean(config, INDEX_DATASETS, false);
+	}
+
+	/**
+	 * Sets whether the checker and the parser read sources through the
+	 * {@link io.scif.bf.wrapper.SharedDataHandleService}. When enabled, the
+	 * checker holds one shared handle per location open across all reader
+	 * trials, and the parser shares the handle it is given, so that every
+	 * adapter Bio-Formats opens on it reads through that one handle.
+	 *
+	 * @return the given configuration, for chaining
+	 */
+	public static SCIFIOConfig setShareHandles(final SCIFIOConfig config,
+		final boolean share)
+	{
+		config.put(SHARE_HANDLES, share);
+		return config;
+	}
+
+	/**
+	 * @return true if sources should be read through shared handles. Defaults
+	 *         to false.
+	 */
+	public static boolean isShareHandles(final SCIFIOConfig config) {
+		return getBoolean(config, SHARE_HANDLES, false);
+	}
+
+	/**
+	 * Sets whether the files of a dataset are read through the bounded handle
+	 * pool of the {@link io.scif.bf.wrapper.SharedDataHandleService}, rather
+	 * than opened by Bio-Formats itself. When enabled, the dataset's file and,
+	 * once parsed, all its used files are mapped to pooled handles, so datasets
+	 * with many files do not each hold a descriptor per file.
+	 * <p>
+	 * NB: Bio-Formats keeps id mappings per thread, so only reads on the thread
+	 * which parsed the dataset go through the pool.
+	 * </p>
+	 *
+	 * @return the given configuration, for chaining
+	 */
+	public static SCIFIOConfig setPoolFileHandles(final SCIFIOConfig config,
+		final boolean pool)
+	{
+		config.put(POOL_FILE_HANDLES, pool);
+		return config;
+	}
+
+	/**
+	 * @return true if the files of a dataset should be read through the handle
+	 *         pool. Defaults to false.
+	 */
+	public static boolean isPoolFileHandles(final SCIFIOConfig config) {
+		return getBoolean(config, POOL_FILE_HANDLES, false);
+	}
+
+	/**
+	 * Sets whether sources other than files are read through a
+	 * {@link io.scif.bf.wrapper.RangeFetchDataHandle}, which caches blocks and
+	 * fetches missing ones in coalesced, parallel range requests. Enable this
+	 * for high-latency sources such as object stores or HTTP.
+	 *
+	 * @return the given configuration, for chaining
+	 */
+	public static SCIFIOConfig setRangeFetch(final SCIFIOConfig config,
+		final boolean fetch)
+	{
+		config.put(RANGE_FETCH, fetch);
+		return config;
+	}
+
+	/**
+	 * @return true if sources other than files should be read through a range
+	 *         fetching block cache. Defaults to false.
+	 */
+	public static boolean isRangeFetch(final SCIFIOConfig config) {
+		return getBoolean(config, RANGE_FETCH, false);
+	}
+
+	/**
+	 * Sets the tile size of {@link BioFormatsWriterFormat.Writer}s. Tiles
+	 * passed to the writer must then align to this grid, or cover whole planes.
+	 * A size of 0 keeps the whole plane width or height. TIFF writers round
+	 * sizes up to multiples of 16, and untiled TIFF planes are compressed in
+	 * strips.
+	 *
+	 * @return the given configuration, for chaining
+	 */
+	public static SCIFIOConfig setWriterTileSize(final SCIFIOConfig config,
+		final int width, final int height)
+	{
+		config.put(WRITER_TILE_WIDTH, width);
+		config.put(WRITER_TILE_HEIGHT, height);
+		return config;
+	}
+
+	/**
+	 * @return the tile width of Bio-Formats writers. Defaults to 0, the whole
+	 *         plane width.
+	 */
+	public static int getWriterTileWidth(final SCIFIOConfig config) {
+		return getInt(config, WRITER_TILE_WIDTH, 0);
+	}
+
+	/**
+	 * @return the tile height of Bio-Formats writers. Defaults to 0, the whole
+	 *         plane height.
+	 */
+	public static int getWriterTileHeight(final SCIFIOConfig config) {
+		return getInt(config, WRITER_TILE_HEIGHT, 0);
+	}
+
+	/**
+	 * Sets the size of the {@link io.scif.bf.cache.CompressedTileCache} of a
+	 * dataset. Decoded regions are then held compressed in memory, up to this
+	 * many bytes, and reads of the same region are served from the cache. A
+	 * size of 0 disables the cache.
+	 *
+	 * @return the given configuration, for chaining
+	 */
+	public static SCIFIOConfig setTileCacheSize(final SCIFIOConfig config,
+		final long bytes)
+	{
+		config.put(TILE_CACHE_SIZE, bytes);
+		return config;
+	}
+
+	/**
+	 * @return the number of bytes a dataset may hold in its compressed tile
+	 *         cache. Defaults to 0, no cache.
+	 */
+	public static long getTileCacheSize(final SCIFIOConfig config) {
+		return getLong(config, TILE_CACHE_SIZE, 0);
+	}
+
+	/**
+	 * Sets whether decoded tiles of a dataset are kept in the disk cache of the
+	 * {@link io.scif.bf.cache.TileCacheService}, if it has one. Only applies to
+	 * files, whose identity can be checked when they are opened again.
+	 *
+	 * @return the given configuration, for chaining
+	 */
+	public static SCIFIOConfig setDiskTileCache(final SCIFIOConfig config,
+		final boolean cache)
+	{
+		config.put(DISK_TILE_CACHE, cache);
+		return config;
+	}
+
+	/**
+	 * @return true if decoded tiles should be kept in the disk cache, if one
+	 *         is configured. Defaults to true.
+	 */
+	public static boolean isDiskTileCache(final SCIFIOConfig config) {
+		return getBoolean(config, DISK_TILE_CACHE, true);
+	}
+
+	/**
+	 * Sets whether {@link BioFormatsFormat.Checker}s try the Bio-Formats
+	 * readers concurrently. When enabled, the header of the location is read
+	 * once, and the readers which cannot decide by name alone check it on a
+	 * shared pool. The reader chosen is still the first in priority order which
+	 * accepts the location.
+	 * <p>
+	 * Only applies when the checker may open the location.
+	 * </p>
+	 *
+	 * @return the given configuration, for chaining
+	 */
+	public static SCIFIOConfig setParallelDetection(final SCIFIOConfig config,
+		final boolean parallel)
+	{
+		config.put(PARALLEL_DETECTION, parallel);
+		return config;
+	}
+
+	/**
+	 * @return true if Bio-Formats readers should be tried concurrently.
+	 *         Defaults to false.
+	 */
+	public static boolean isParallelDetection(final SCIFIOConfig config) {
+		return getBoolean(config, PARALLEL_DETECTION, false);
+	}
+
+	/**
+	 * Sets the time limit for Bio-Formats to parse a dataset. A reader still
+	 * parsing when it passes fails at its next read through a
+	 * {@link io.scif.bf.wrapper.DataHandleAdapter}, with a
+	 * {@link io.scif.bf.wrapper.DeadlineExceededException}. Files are then
+	 * read through such adapters too. A limit of 0 means none.
+	 *
+	 * @see io.scif.bf.wrapper.Deadline
+	 * @return the given configuration, for chaining
+	 */
+	public static SCIFIOConfig setParseTimeout(final SCIFIOConfig config,
+		final long millis)
+	{
+		config.put(PARSE_TIMEOUT, millis);
+		return config;
+	}
+
+	/**
+	 * @return the time limit for parsing a dataset, in milliseconds. Defaults
+	 *         to 0, no limit.
+	 */
+	public static long getParseTimeout(final SCIFIOConfig config) {
+		return getLong(config, PARSE_TIMEOUT, 0);
+	}
+
+	/**
+	 * Sets the time limit for Bio-Formats to decode each region read from a
+	 * dataset, enforced as by {@link #setParseTimeout}. It is kept by the
+	 * dataset's metadata when parsed. A limit of 0 means none.
+	 *
+	 * @return the given configuration, for chaining
+	 */
+	public static SCIFIOConfig setReadTimeout(final SCIFIOConfig config,
+		final long millis)
+	{
+		config.put(READ_TIMEOUT, millis);
+		return config;
+	}
+
+	/**
+	 * @return the time limit for decoding a region, in milliseconds. Defaults
+	 *         to 0, no limit.
+	 */
+	public static long getReadTimeout(final SCIFIOConfig config) {
+		return getLong(config, READ_TIMEOUT, 0);
+	}
+
+	/**
+	 * Sets whether only the images selected by
+	 * {@link SCIFIOConfig#imgOpenerGetRange()}, for example with
+	 * {@link SCIFIOConfig#imgOpenerSetIndex(int)}, are fully converted when a
+	 * dataset is parsed. The other images keep their dimensions, so every image
+	 * index stays valid and readable, but lack calibrations and color tables.
+	 * A {@link io.scif.bf.ome.CompactMetadataStore} also discards their fields
+	 * while Bio-Formats parses the dataset.
+	 * <p>
+	 * Ignored if {@link SCIFIOConfig#imgOpenerIsOpenAllImages()} is set.
+	 * </p>
+	 *
+	 * @see BioFormatsFormat.Metadata#isImageSelected
+	 * @return the given configuration, for chaining
+	 */
+	public static SCIFIOConfig setSeriesSubset(final SCIFIOConfig config,
+		final boolean subset)
+	{
+		config.put(SERIES_SUBSET, subset);
+		return config;
+	}
+
+	/**
+	 * @return true if only the images selected by the image opener range
+	 *         should be fully converted. Defaults to false.
+	 */
+	public static boolean isSeriesSubset(final SCIFIOConfig config) {
+		return getBoolean(config, SERIES_SUBSET, false);
+	}
+
+	/**
+	 * @return the sorted, distinct image indices to convert fully, or null if
+	 *         all images should be
+	 * @see #setSeriesSubset
+	 */
+	public static int[] getSelectedImages(final SCIFIOConfig config) {
+		if (!isSeriesSubset(config) || config.imgOpenerIsOpenAllImages()) {
+			return null;
+		}
+		final Range range = config.imgOpenerGetRange();
+		if (range == null || range.isEmpty()) return null;
+		return Arrays.stream(range.stream().mapToLong(Long::longValue).filter(
+			i -> i >= 0 && i <= Integer.MAX_VALUE).toArray()).mapToInt(
+				i -> (int) i).sorted().distinct().toArray();
+	}
+
+	// -- Helper methods --
+
+	private static boolean getBoolean(final SCIFIOConfig config,
+		final String key, final boolean defaultValue)
+	{
+		final Object value = config == null ? null : config.get(key);
+		return value instanceof Boolean ? (Boolean) value : defaultValue;
+	}
+
+	private static int getInt(final SCIFIOConfig config, final String key,
+		final int defaultValue)
+	{
+		final Object value = config == null ? null : config.get(key);
+		return value instanceof Integer ? (Integer) value : defaultValue;
+	}
+
+	private static long getLong(final SCIFIOConfig config, final String key,
+		final long defaultValue)
+	{
+		final Object value = config == null ? null : config.get(key);
+		return value instanceof Number ? ((Number) value).longValue()
+			: defaultValue;
+	}
+}
@@ -36,28 +36,64 @@ import io.scif.AbstractParser;
 import io.scif.ByteArrayPlane;
 import io.scif.ByteArrayReader;
 import io.scif.DefaultImageMetadata;
-import io.scif.DefaultMetaTable;
 import io.scif.Format;
 import io.scif.FormatException;
 import io.scif.HasColorTable;
 import io.scif.HasFormat;
 import io.scif.ImageMetadata;
 import io.scif.MetaTable;
+import io.scif.MetadataLevel;
+import io.scif.bf.cache.CompressedTileCache;
+import io.scif.bf.cache.DiskTileCache;
+import io.scif.bf.cache.TileCacheService;
+import io.scif.bf.cache.TileKey;
+import io.scif.bf.memory.BioFormatsMemoryService;
+import io.scif.bf.memory.MemoryConsumer;
+import io.scif.bf.metrics.BioFormatsMetricsService;
+import io.scif.bf.metrics.HandleStatistics;
+import io.scif.bf.metrics.Stage;
+import io.scif.bf.ome.CompactMetadataStore;
+import io.scif.bf.trace.AccessTracer;
+import io.scif.bf.util.PixelBuffers;
 import io.scif.bf.wrapper.DataHandleAdapter;
+import io.scif.bf.wrapper.Deadline;
+import io.scif.bf.wrapper.DeadlineExceededException;
+import io.scif.bf.wrapper.HeaderDataHandle;
+import io.scif.bf.wrapper.RangeFetchDataHandle;
+import io.scif.bf.wrapper.SharedDataHandleService;
 import io.scif.config.SCIFIOConfig;
 import io.scif.ome.services.OMEXMLService;
 import io.scif.util.FormatTools;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 import net.imagej.axis.Axes;
 import net.imagej.axis.AxisType;
 import net.imagej.axis.CalibratedAxis;
+import net.imglib2.FinalInterval;
 import net.imglib2.Interval;
 import net.imglib2.display.ColorTable;
 import net.imglib2.display.ColorTable16;
@@ -74,10 +110,16 @@ import org.scijava.plugin.Plugin;
 import org.scijava.util.LongArray;
 
 import loci.formats.ClassList;
+import loci.formats.CoreMetadata;
+import loci.formats.FormatReader;
 import loci.formats.IFormatReader;
 import loci.formats.ImageReader;
+import loci.formats.MetadataTools;
+import loci.formats.in.DynamicMetadataOptions;
+import loci.formats.meta.DummyMetadata;
 import loci.formats.meta.MetadataRetrieve;
 import loci.formats.meta.MetadataStore;
+import loci.formats.ome.OMEXMLMetadata;
 import loci.formats.ome.OMEXMLMetadataImpl;
 import ome.units.quantity.Length;
 import ome.xml.model.primitives.Color;
@@ -117,6 +159,18 @@ public class BioFormatsFormat extends AbstractFormat {
 		"loci.formats.in.TiffJAIReader", "loci.formats.in.TiffReader",
 		"loci.formats.in.TileJPEGReader", "loci.formats.in.ZipReader" };
 
+	/**
+	 * Minimum number of series before {@link Metadata#populateImageMetadata()}
+	 * converts series in parallel on the common fork-join pool.
+	 */
+	public static final int PARALLEL_CONVERSION_THRESHOLD = 64;
+
+	/** Maximum number of closed readers kept for reuse. */
+	public static final int MAX_IDLE_READERS = 16;
+
+	/** Axis type of non-RGB channels, when Axes.CHANNEL is used for RGB. */
+	static final AxisType CHANNELS_PLANAR = Axes.get("Channels-planar");
+
 	// -- Fields --
 
 	/**
@@ -129,6 +183,18 @@ public class BioFormatsFormat extends AbstractFormat {
 
 	private int cachedReaderHash;
 
+	/** Multi-file datasets opened with file grouping. */
+	private final DatasetIndex datasetIndex = new DatasetIndex();
+
+	/** Closed readers kept for reuse, most recently released first. */
+	private final Deque<IFormatReader> idleReaders = new ArrayDeque<>();
+
+	/** Threads fetching ranges for range fetching handles. */
+	private ExecutorService fetchPool;
+
+	/** Threads trying readers for parallel detection. */
+	private ExecutorService detectPool;
+
 	// -- Constructors --
 
 	/**
@@ -160,11 +226,43 @@ public class BioFormatsFormat extends AbstractFormat {
 		return cachedReader;
 	}
 
+	/**
+	 * Gets the index of multi-file datasets opened by this format.
+	 *
+	 * @see BioFormatsConfig#setIndexDatasets
+	 */
+	public DatasetIndex getDatasetIndex() {
+		return datasetIndex;
+	}
+
+	/**
+	 * Discards all closed readers kept for reuse.
+	 *
+	 * @see BioFormatsConfig#setReuseReaders
+	 */
+	public void clearIdleReaders() {
+		synchronized (idleReaders) {
+			idleReaders.clear();
+		}
+	}
+
 	/** Adds the given reader class to this format's supported reader list. */
 	public void addReader(final Class<IFormatReader> readerClass) {
 		readerClasses.addClass(readerClass);
 	}
 
+	// -- Utility methods --
+
+	/** @return a factory of daemon threads named with the given prefix. */
+	public static ThreadFactory daemonThreads(final String prefix) {
+		final AtomicInteger count = new AtomicInteger();
+		return r -> {
+			final Thread t = new Thread(r, prefix + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+	}
+
 	// -- Format API Methods --
 
 	@Override
@@ -182,18 +280,100 @@ public class BioFormatsFormat extends AbstractFormat {
 	// -- Nested Classes --
 
 	public static class Metadata extends AbstractMetadata implements
-		HasColorTable
+		HasColorTable, MemoryConsumer
 	{
 
+		// -- Constants --
+
+		/** Estimated footprint of an open reader. */
+		private static final long READER_BYTES = 1 << 20;
+
+		/** Estimated footprint of the converted metadata of one image. */
+		private static final long IMAGE_BYTES = 2 << 10;
+
+		/** Estimated footprint of one image of a full OME-XML model. */
+		private static final long OME_IMAGE_BYTES = 16 << 10;
+
+		/** Estimated footprint of one image of a compact metadata store. */
+		private static final long COMPACT_IMAGE_BYTES = 256;
+
+		/** Estimated footprint of one metadata table entry. */
+		private static final long TABLE_ENTRY_BYTES = 160;
+
 		// -- Fields --
 
 		@Parameter
 		private OMEXMLService omexmlService;
 
+		@Parameter(required = false)
+		private BioFormatsMetricsService metrics;
+
+		@Parameter(required = false)
+		private BioFormatsMemoryService memory;
+
+		@Parameter(required = false)
+		private DataHandleService handles;
+
 		private IFormatReader reader;
 
+		/** Guards the reader against being parked while in use. */
+		private final ReentrantLock readerLock = new ReentrantLock();
+
+		/** The id to reopen the reader with, if it has been parked. */
+		private volatile String parkedId;
+
+		private volatile long lastAccess = System.nanoTime();
+
+		/** Range fetching handle the reader reads through, if any. */
+		private RangeFetchDataHandle rangeFetch;
+
+		/** Compressed cache of decoded regions, or null if disabled. */
+		private volatile CompressedTileCache tileCache;
+
+		/** Tiles of this dataset in the disk cache, or null if not cached. */
+		private volatile DiskTileCache.Dataset diskTiles;
+
+		/** Time limit for decoding a region, in milliseconds, or 0. */
+		private volatile long readTimeout;
+
+		/** Deadlines of the operations in progress on this dataset. */
+		private final Set<Deadline> deadlines = ConcurrentHashMap.newKeySet();
+
+		/** Adapters this dataset's files are mapped to, by id. */
+		private final Map<String, DataHandleAdapter> mappedFiles =
+			new HashMap<>();
+
+		/**
+		 * Adapters the reader's files were mapped to when parsed, by id. Id
+		 * mappings are per thread, so they are mapped again on reopening.
+		 */
+		private final Map<String, DataHandleAdapter> idMappings =
+			new HashMap<>();
+
+		/** Whether the reader can be parked and reopened, decided when parsed. */
+		private volatile boolean reopenable;
+
 		private MetadataStore metadataStore;
 
+		/** Full OME-XML model, built on demand for compact metadata stores. */
+		private OMEXMLMetadata omexmlMetadata;
+
+		private MetadataLevel metadataLevel = MetadataLevel.ALL;
+
+		private boolean reuseReader;
+
+		/**
+		 * The reader selected by the {@link ImageReader} when parsing, handed
+		 * back for reuse on close. Closing the image reader deselects it.
+		 */
+		private IFormatReader selectedReader;
+
+		/** Number of pyramid resolutions of each image. */
+		private int[] resolutionCounts;
+
+		/** Sorted indices of the fully converted images, or null if all. */
+		private int[] selectedImages;
+
 		private String formatName;
 
 		private final Map<String, ColorTable> colorTables16 = new WeakHashMap<>();
@@ -207,14 +387,190 @@ public class BioFormatsFormat extends AbstractFormat {
 
 		// -- Getters and Setters --
 
+		/**
+		 * Gets the Bio-Formats reader, reopening it first if it was parked by the
+		 * {@link BioFormatsMemoryService}. The reader may be parked again at any
+		 * time after this call, unless it is used within
+		 * {@link #lockReader()}/{@link #unlockReader()}.
+		 *
+		 * @throws UncheckedIOException if a parked reader cannot be reopened
+		 */
 		public IFormatReader getReader() {
+			if (parkedId == null) return reader;
+			try {
+				lockReader();
+			}
+			catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			unlockReader();
+			return reader;
+		}
+
+		/**
+		 * Locks the Bio-Formats reader against being parked, reopening it first
+		 * if it was parked. Must be paired with {@link #unlockReader()}.
+		 *
+		 * @return the open reader
+		 */
+		public IFormatReader lockReader() throws IOException {
+			// NB: make room before reopening, without holding the lock, so that
+			// concurrent enforcement cannot deadlock.
+			if (parkedId != null && memory != null) memory.enforce();
+			readerLock.lock();
+			try {
+				final String id = parkedId;
+				if (id != null) {
+					remapFiles();
+					// the OME store and metadata tables were already converted
+					reader.setMetadataStore(new DummyMetadata());
+					reader.setId(id);
+					parkedId = null;
+				}
+			}
+			catch (final loci.formats.FormatException | IOException e) {
+				readerLock.unlock();
+				throw e instanceof IOException ? (IOException) e : new IOException(e);
+			}
+			lastAccess = System.nanoTime();
 			return reader;
 		}
 
+		/** Releases a lock taken by {@link #lockReader()}. */
+		public void unlockReader() {
+			readerLock.unlock();
+		}
+
 		public void setReader(final IFormatReader reader) {
 			this.reader = reader;
+			selectedReader = null;
 			formatName = null;
 			metadataStore = null;
+			omexmlMetadata = null;
+		}
+
+		/**
+		 * @return the level of metadata the Bio-Formats reader was asked to parse.
+		 *         Metadata parsed at a level below {@link MetadataLevel#ALL} may
+		 *         lack entries such as overlays and original metadata.
+		 */
+		public MetadataLevel getMetadataLevel() {
+			return metadataLevel;
+		}
+
+		public void setMetadataLevel(final MetadataLevel metadataLevel) {
+			this.metadataLevel = metadataLevel;
+		}
+
+		/**
+		 * Gets the number of pyramid resolutions of the given image. Bio-Formats
+		 * flattens pyramids, so the lower resolutions of image {@code i} are the
+		 * images {@code i + 1} to {@code i + getResolutionCount(i) - 1}, in
+		 * decreasing size.
+		 *
+		 * @return the number of resolutions, including the full one
+		 */
+		public int getResolutionCount(final int imageIndex) {
+			return resolutionCounts == null || imageIndex >= resolutionCounts.length
+				? 1 : resolutionCounts[imageIndex];
+		}
+
+		/**
+		 * @return the compressed cache of decoded regions of this dataset, or
+		 *         null if it has none
+		 * @see BioFormatsConfig#setTileCacheSize
+		 */
+		public CompressedTileCache getTileCache() {
+			return tileCache;
+		}
+
+		/**
+		 * Sets the compressed cache of decoded regions of this dataset. It must
+		 * only hold regions of this dataset.
+		 */
+		public void setTileCache(final CompressedTileCache tileCache) {
+			this.tileCache = tileCache;
+		}
+
+		/**
+		 * @return the tiles of this dataset in the disk cache, or null if they
+		 *         are not cached on disk
+		 * @see BioFormatsConfig#setDiskTileCache
+		 */
+		public DiskTileCache.Dataset getDiskTiles() {
+			return diskTiles;
+		}
+
+		public void setDiskTiles(final DiskTileCache.Dataset diskTiles) {
+			this.diskTiles = diskTiles;
+		}
+
+		/**
+		 * Gets whether the given image is fully converted. Images outside the
+		 * subset selected when parsing have their dimensions, but no
+		 * calibrations or color tables.
+		 *
+		 * @see BioFormatsConfig#setSeriesSubset
+		 */
+		public boolean isImageSelected(final int imageIndex) {
+			final int[] selected = selectedImages;
+			return selected == null || Arrays.binarySearch(selected,
+				imageIndex) >= 0;
+		}
+
+		/**
+		 * Sets the images to convert fully.
+		 *
+		 * @param selectedImages Sorted image indices, or null for all images.
+		 */
+		public void setSelectedImages(final int[] selectedImages) {
+			this.selectedImages = selectedImages == null ? null : selectedImages
+				.clone();
+		}
+
+		/**
+		 * @return the time limit for decoding a region, in milliseconds, or 0 if
+		 *         there is none
+		 * @see BioFormatsConfig#setReadTimeout
+		 */
+		public long getReadTimeout() {
+			return readTimeout;
+		}
+
+		public void setReadTimeout(final long readTimeout) {
+			this.readTimeout = readTimeout;
+		}
+
+		/**
+		 * Cancels the parsing and region reads in progress on this dataset. Each
+		 * fails with a {@link DeadlineExceededException} at its next read
+		 * through a {@link DataHandleAdapter}, so files are only affected if
+		 * they are read through adapters: with a timeout set, or pooled file
+		 * handles.
+		 */
+		public void cancel() {
+			for (final Deadline deadline : deadlines) {
+				deadline.cancel();
+			}
+		}
+
+		/**
+		 * @return true if the reader is handed back to the format for reuse when
+		 *         this metadata is closed.
+		 */
+		public boolean isReuseReader() {
+			return reuseReader;
+		}
+
+		/**
+		 * Sets whether the reader is handed back to the format for reuse when
+		 * this metadata is closed. The reader must not be used by this metadata
+		 * afterwards.
+		 *
+		 * @see BioFormatsConfig#setReuseReaders
+		 */
+		public void setReuseReader(final boolean reuseReader) {
+			this.reuseReader = reuseReader;
 		}
 
 		// -- Metadata API Methods --
@@ -227,21 +583,86 @@ public class BioFormatsFormat extends AbstractFormat {
 			return metadataStore;
 		}
 
+		/**
+		 * Gets the full OME-XML model of this dataset. If the dataset was parsed
+		 * into a {@link CompactMetadataStore}, the model is built on first use:
+		 * by parsing the dataset again if it is a file, or otherwise from the core
+		 * metadata of the reader and the fields kept by the compact store.
+		 *
+		 * @see BioFormatsConfig#setCompactMetadata
+		 */
+		public OMEXMLMetadata getOMEXMLMetadata() {
+			final MetadataStore store = getMetadataStore();
+			if (store instanceof OMEXMLMetadata) return (OMEXMLMetadata) store;
+			if (omexmlMetadata == null && store instanceof CompactMetadataStore) {
+				omexmlMetadata = createOMEXMLMetadata((CompactMetadataStore) store);
+			}
+			return omexmlMetadata;
+		}
+
 		@Override
 		public void populateImageMetadata() {
-			for (int s = 0; s < reader.getSeriesCount(); s++) {
-				add(convertMetadata(reader, s));
+			final long start = start(metrics);
+			final List<CoreMetadata> core = seriesCoreMetadata(reader);
+			final MetadataStore store = reader.getMetadataStore();
+			final MetadataRetrieve retrieve = store instanceof MetadataRetrieve
+				? (MetadataRetrieve) store : null;
+			final ImageMetadata[] converted = new ImageMetadata[core.size()];
+			resolutionCounts = new int[core.size()];
+			for (int s = 0; s < resolutionCounts.length; s++) {
+				resolutionCounts[s] = Math.max(1, core.get(s).resolutionCount);
+			}
+			// NB: images outside the selected subset skip the OME store
+			final IntConsumer convert = s -> converted[s] = convertMetadata(core
+				.get(s), isImageSelected(s) ? retrieve : null, s);
+			// NB: conversion only reads the snapshot and the store, so large
+			// datasets can be converted in parallel.
+			if (converted.length >= PARALLEL_CONVERSION_THRESHOLD) {
+				IntStream.range(0, converted.length).parallel().forEach(convert);
+			}
+			else {
+				for (int s = 0; s < converted.length; s++) {
+					convert.accept(s);
+				}
 			}
+			for (final ImageMetadata imgMeta : converted) {
+				add(imgMeta);
+			}
+			record(metrics, Stage.CONVERT_METADATA, reader, start, 0, true);
 			formatName = super.getFormatName();
 			formatName += " - Bio-Formats reader used: " + reader.getFormat();
 			// Ensure the metadata store is initialized
 			getMetadataStore();
+			if (memory != null) memory.register(this);
 		}
 
 		@Override
 		public void close(final boolean fileOnly) throws IOException {
+			// The tables may outlive the reader, which can discard or reuse the
+			// metadata they read through to.
+			if (!fileOnly) {
+				if (memory != null) memory.unregister(this);
+				materializeTables();
+			}
 			super.close(fileOnly);
-			if (reader != null) reader.close(fileOnly);
+			parkedId = null;
+			if (reader != null) {
+				reader.close(fileOnly);
+				if (!fileOnly && reuseReader) {
+					if (selectedReader != null) releaseReader(this, selectedReader);
+					selectedReader = null;
+					reader = null;
+				}
+			}
+			if (!fileOnly) {
+				unmapFiles();
+				idMappings.clear();
+				reopenable = false;
+				if (rangeFetch != null) rangeFetch.close();
+				rangeFetch = null;
+				tileCache = null;
+				diskTiles = null;
+			}
 		}
 
 		// -- HasFormat methods --
@@ -254,7 +675,208 @@ public class BioFormatsFormat extends AbstractFormat {
 		// -- HasColorTable methods --
 
 		@Override
-		public ColorTable getColorTable(int imageIndex, final long planeIndex) {
+		public ColorTable getColorTable(final int imageIndex,
+			final long planeIndex)
+		{
+			if (!isImageSelected(imageIndex)) return null;
+			final IFormatReader reader;
+			try {
+				reader = lockReader();
+			}
+			catch (final IOException e) {
+				log().error(e);
+				return null;
+			}
+			try {
+				return getColorTable(reader, imageIndex, planeIndex);
+			}
+			finally {
+				unlockReader();
+			}
+		}
+
+		// -- MemoryConsumer methods --
+
+		@Override
+		public long estimateFootprint() {
+			long bytes = reader == null || parkedId != null ? 0 : READER_BYTES;
+			bytes += tableBytes(getTable());
+			final List<ImageMetadata> images = getAll();
+			final int imageCount = images == null ? 0 : images.size();
+			if (images != null) {
+				for (final ImageMetadata imgMeta : images) {
+					bytes += IMAGE_BYTES + (imgMeta == null ? 0 : tableBytes(imgMeta
+						.getTable()));
+				}
+			}
+			if (metadataStore instanceof CompactMetadataStore) {
+				bytes += imageCount * COMPACT_IMAGE_BYTES;
+			}
+			else if (metadataStore != null) bytes += imageCount * OME_IMAGE_BYTES;
+			if (omexmlMetadata != null) bytes += imageCount * OME_IMAGE_BYTES;
+			bytes += colorTableBytes(colorTables16) + colorTableBytes(colorTables8) +
+				colorTableBytes(colorTableXML);
+			final CompressedTileCache cache = tileCache;
+			if (cache != null) bytes += cache.getSize();
+			return bytes;
+		}
+
+		@Override
+		public long releaseCaches() {
+			final long before = estimateFootprint();
+			colorTables16.clear();
+			colorTables8.clear();
+			colorTableXML.clear();
+			final CompressedTileCache cache = tileCache;
+			if (cache != null) cache.clear();
+			// NB: the full model of a compact store can be rebuilt on demand
+			if (metadataStore instanceof CompactMetadataStore) omexmlMetadata = null;
+			return before - estimateFootprint();
+		}
+
+		@Override
+		public boolean park() {
+			if (!readerLock.tryLock()) return false;
+			try {
+				if (reader == null || parkedId != null) return false;
+				final String id = reader.getCurrentFile();
+				// NB: id mappings are per thread, so this was decided when parsed
+				if (id == null || !reopenable) return false;
+				// NB: the tables stay lazy. Closing drops the reader's references to
+				// its metadata maps without clearing them, and reopening parses into
+				// new ones, so the tables keep the old maps as the only copy.
+				reader.close();
+				parkedId = id;
+				return true;
+			}
+			catch (final IOException e) {
+				log().debug(e);
+				return false;
+			}
+			finally {
+				readerLock.unlock();
+			}
+		}
+
+		@Override
+		public long getLastAccess() {
+			return lastAccess;
+		}
+
+		// -- Helper methods --
+
+		/**
+		 * Maps the given file to a pooled handle, unless it is already mapped.
+		 */
+		private void mapFile(final SharedDataHandleService sharedHandles,
+			final String path) throws IOException
+		{
+			final Map<String, Object> idMap = loci.common.Location.getIdMap();
+			if (idMap.containsKey(path)) return;
+			final DataHandleAdapter adapter = sharedHandles.open(new FileLocation(
+				path));
+			idMap.put(path, adapter);
+			mappedFiles.put(path, adapter);
+		}
+
+		private void mapFile(final DataHandleService handles, final String path)
+			throws IOException
+		{
+			final Map<String, Object> idMap = loci.common.Location.getIdMap();
+			if (idMap.containsKey(path)) return;
+			final DataHandleAdapter adapter = new DataHandleAdapter(handles.create(
+				new FileLocation(path)));
+			idMap.put(path, adapter);
+			mappedFiles.put(path, adapter);
+		}
+
+		/**
+		 * Records the adapters the given files are mapped to on the current
+		 * thread, which must be the parsing thread, to map them again when the
+		 * reader is reopened. The reader is reopenable if each file is unmapped,
+		 * mapped to a shared handle, or mapped by this dataset to a handle which
+		 * can be created again.
+		 */
+		private void recordMappings(final String id, final String[] files) {
+			final Map<String, Object> idMap = loci.common.Location.getIdMap();
+			idMappings.clear();
+			boolean canReopen = recordMapping(idMap, id);
+			for (final String file : files) {
+				canReopen &= recordMapping(idMap, file);
+			}
+			reopenable = canReopen;
+		}
+
+		/** @return false if the given file's mapping cannot be reopened */
+		private boolean recordMapping(final Map<String, Object> idMap,
+			final String file)
+		{
+			final Object mapped = idMap.get(file);
+			if (mapped == null) return true;
+			if (!(mapped instanceof DataHandleAdapter)) return false;
+			final DataHandleAdapter adapter = (DataHandleAdapter) mapped;
+			if (!adapter.isShared() && (handles == null || mappedFiles.get(
+				file) != adapter))
+			{
+				return false;
+			}
+			idMappings.put(file, adapter);
+			return true;
+		}
+
+		/**
+		 * Maps the reader's files on the current thread as when parsed, before
+		 * reopening it. Adapters over unshared handles were closed along with
+		 * the reader, so they are replaced.
+		 */
+		private void remapFiles() throws IOException {
+			final Map<String, Object> idMap = loci.common.Location.getIdMap();
+			for (final Map.Entry<String, DataHandleAdapter> entry : idMappings
+				.entrySet())
+			{
+				DataHandleAdapter adapter = entry.getValue();
+				if (!adapter.isShared()) {
+					adapter = new DataHandleAdapter(handles.create(new FileLocation(
+						entry.getKey())));
+					entry.setValue(adapter);
+					mappedFiles.put(entry.getKey(), adapter);
+				}
+				idMap.put(entry.getKey(), adapter);
+			}
+		}
+
+		private void unmapFiles() throws IOException {
+			final Map<String, Object> idMap = loci.common.Location.getIdMap();
+			for (final Map.Entry<String, DataHandleAdapter> entry : mappedFiles
+				.entrySet())
+			{
+				idMap.remove(entry.getKey(), entry.getValue());
+				entry.getValue().close();
+			}
+			mappedFiles.clear();
+		}
+
+		/**
+		 * Starts a deadline for an operation on this dataset on the current
+		 * thread, which {@link #cancel()} also cancels. Must be paired with
+		 * {@link #exitDeadline}.
+		 */
+		private Deadline enterDeadline(final String operation,
+			final long timeoutMillis)
+		{
+			final Deadline deadline = Deadline.enter(operation, timeoutMillis);
+			deadlines.add(deadline);
+			return deadline;
+		}
+
+		private void exitDeadline(final Deadline deadline) {
+			deadlines.remove(deadline);
+			deadline.close();
+		}
+
+		private ColorTable getColorTable(final IFormatReader reader,
+			int imageIndex, final long planeIndex)
+		{
 			if (imageIndex >= reader.getSeriesCount()) imageIndex = 0;
 
 			final String key = getKey(reader, imageIndex);
@@ -313,6 +935,82 @@ public class BioFormatsFormat extends AbstractFormat {
 			return ct;
 		}
 
+		private static long tableBytes(final Map<String, Object> table) {
+			return table == null ? 0 : table.size() * TABLE_ENTRY_BYTES;
+		}
+
+		private static long colorTableBytes(final Map<?, ColorTable> tables) {
+			long bytes = 0;
+			for (final ColorTable table : tables.values()) {
+				if (table == null) continue;
+				bytes += (long) table.getLength() * table.getComponentCount() *
+					(table instanceof ColorTable16 ? 2 : 1);
+			}
+			return bytes;
+		}
+
+		/**
+		 * Detaches the global and series metadata tables from the reader.
+		 */
+		private void materializeTables() {
+			materialize(getTable());
+			final List<ImageMetadata> images = getAll();
+			if (images == null) return;
+			for (final ImageMetadata imgMeta : images) {
+				if (imgMeta != null) materialize(imgMeta.getTable());
+			}
+		}
+
+		private void materialize(final MetaTable table) {
+			if (table instanceof LazyMetaTable) {
+				((LazyMetaTable) table).materialize();
+			}
+		}
+
+		/**
+		 * Builds a full OME-XML model to stand in for the given compact store.
+		 */
+		private OMEXMLMetadata createOMEXMLMetadata(
+			final CompactMetadataStore compact)
+		{
+			final String id = parkedId != null ? parkedId : reader.getCurrentFile();
+			// NB: mapped handles are shared with the active reader, which would be
+			// closed along with a second reader, so only files are parsed again.
+			if (id != null && !loci.common.Location.getIdMap().containsKey(id)) {
+				final OMEXMLMetadata full = new OMEXMLMetadataImpl();
+				try (final ImageReader fullReader = createImageReader(this)) {
+					fullReader.setMetadataStore(full);
+					fullReader.setOriginalMetadataPopulated(reader
+						.isOriginalMetadataPopulated());
+					fullReader.setMetadataFiltered(reader.isMetadataFiltered());
+					fullReader.setGroupFiles(reader.isGroupFiles());
+					fullReader.setMetadataOptions(reader.getMetadataOptions());
+					fullReader.setId(id);
+					return full;
+				}
+				catch (loci.formats.FormatException | IOException e) {
+					log().warn("Could not parse OME-XML metadata of " + id, e);
+				}
+			}
+			final OMEXMLMetadata full = new OMEXMLMetadataImpl();
+			if (id != null) {
+				try {
+					final IFormatReader r = lockReader();
+					try {
+						MetadataTools.populatePixels(full, r);
+					}
+					finally {
+						unlockReader();
+					}
+				}
+				catch (final IOException e) {
+					log().warn("Could not reopen " + id, e);
+				}
+			}
+			compact.copyTo(full);
+			return full;
+		}
+
 		private String getKey(final IFormatReader r, final int imageIndex) {
 			return "r" + r.hashCode() + "img" + imageIndex;
 		}
@@ -365,6 +1063,11 @@ public class BioFormatsFormat extends AbstractFormat {
 
 	public static class Checker extends AbstractChecker {
 
+		// -- Constants --
+
+		/** Number of leading bytes shared by parallel reader trials. */
+		private static final int HEADER_BLOCK_BYTES = 256 << 10;
+
 		// -- Checker API Methods --
 
 		@Parameter
@@ -373,14 +1076,30 @@ public class BioFormatsFormat extends AbstractFormat {
 		@Parameter
 		LogService log;
 
+		@Parameter(required = false)
+		BioFormatsMetricsService metrics;
+
+		@Parameter(required = false)
+		SharedDataHandleService sharedHandles;
+
 		@Override
 		public boolean isFormat(final Location loc) {
 			if (!realSource(loc)) return false;
-			return getCachedImageReader(this).isThisType(loc.getName());
+			final long start = start(metrics);
+			return detected(start, getCachedImageReader(this).isThisType(loc
+				.getName()));
 		}
 
 		@Override
 		public boolean isFormat(final Location loc, final SCIFIOConfig config) {
+			if (config.checkerIsOpen() && BioFormatsConfig.isParallelDetection(
+				config))
+			{
+				return isFormatParallel(loc);
+			}
+			if (sharedHandles != null && BioFormatsConfig.isShareHandles(config)) {
+				return isSharedFormat(loc, config);
+			}
 			try {
 				DataHandle<Location> handle = handles.create(loc);
 				if (handle == null || !handle.exists() || !realSource(loc)) {
@@ -388,19 +1107,23 @@ public class BioFormatsFormat extends AbstractFormat {
 				}
 				if (loc instanceof FileLocation) {
 					// shortcut for FileLocations
-					return getCachedImageReader(this).isThisType(((FileLocation) loc)
-						.getFile().getAbsolutePath(), config.checkerIsOpen());
+					final long start = start(metrics);
+					return detected(start, getCachedImageReader(this).isThisType(
+						((FileLocation) loc).getFile().getAbsolutePath(), config
+							.checkerIsOpen()));
 				}
-				loci.common.Location.getIdMap().put(loc.getName(),
-					new DataHandleAdapter(handle));
+				final DataHandleAdapter adapter = new DataHandleAdapter(handle);
+				AccessTracer.attach(adapter, loc.getName(), log);
+				loci.common.Location.getIdMap().put(loc.getName(), adapter);
 			}
 			catch (final IOException exc) {
 				log.error("Failed to create handle for location " + loc.toString(),
 					exc);
 				return false;
 			}
-			return getCachedImageReader(this).isThisType(loc.getName(), config
-				.checkerIsOpen());
+			final long start = start(metrics);
+			return detected(start, getCachedImageReader(this).isThisType(loc
+				.getName(), config.checkerIsOpen()));
 		}
 
 		@Override
@@ -409,8 +1132,9 @@ public class BioFormatsFormat extends AbstractFormat {
 		{
 			if (!realSource(handle)) return false;
 			loci.common.Location.getIdMap().put(handle.get().getName(), handle);
-			return getCachedImageReader(this).isThisType(new DataHandleAdapter(
-				handle));
+			final long start = start(metrics);
+			return detected(start, getCachedImageReader(this).isThisType(
+				new DataHandleAdapter(handle)));
 		}
 
 		@Override
@@ -419,23 +1143,104 @@ public class BioFormatsFormat extends AbstractFormat {
 		}
 
 		/**
-		 * @return true iff the given name corresponds to a non-virtual source
+		 * Checks the given location through its shared handle, which is held
+		 * open across all reader trials and left open for the parser while
+		 * mapped.
 		 */
-		private boolean realSource(final Location loc) { // FIXME this is wasteful!
-			try (final DataHandle<Location> handle = handles.create(loc)) {
-				return (handle != null && realSource(handle));
+		private boolean isSharedFormat(final Location loc,
+			final SCIFIOConfig config)
+		{
+			try (final DataHandleAdapter lease = sharedHandles.open(loc)) {
+				if (!lease.exists() || !realSource(lease)) return false;
+				final String id;
+				if (loc instanceof FileLocation) {
+					// shortcut for FileLocations
+					id = ((FileLocation) loc).getFile().getAbsolutePath();
+				}
+				else {
+					final DataHandleAdapter adapter = sharedHandles.open(loc);
+					AccessTracer.attach(adapter, loc.getName(), log);
+					// NB: Bio-Formats closes the mapped adapter after each trial,
+					// which releases its reference but not the lease's.
+					loci.common.Location.getIdMap().put(loc.getName(), adapter);
+					id = loc.getName();
+				}
+				final long start = start(metrics);
+				return detected(start, getCachedImageReader(this).isThisType(id,
+					config.checkerIsOpen()));
 			}
-			catch (final IOException e) {
+			catch (final IOException exc) {
+				log.error("Failed to create handle for location " + loc.toString(),
+					exc);
 				return false;
 			}
 		}
 
 		/**
-		 * @return true iff the given stream is non-virtual (can read at least one
-		 *         position)
+		 * Checks the given location by trying the readers concurrently. The
+		 * header is read once, and shared by the sources of all trials.
 		 */
-		private boolean realSource(final DataHandle<Location> handle)
-			throws IOException
+		private boolean isFormatParallel(final Location loc) {
+			final byte[] header;
+			final long length;
+			try (final DataHandle<Location> handle = handles.create(loc)) {
+				if (handle == null || !handle.exists()) return false;
+				length = handle.length();
+				header = new byte[(int) Math.min(length, HEADER_BLOCK_BYTES)];
+				handle.seek(0);
+				handle.readFully(header);
+			}
+			catch (final IOException exc) {
+				log.error("Failed to create handle for location " + loc.toString(),
+					exc);
+				return false;
+			}
+			// NB: as realSource, without opening the location again
+			if (header.length == 0) return false;
+			final String id = loc instanceof FileLocation ? ((FileLocation) loc)
+				.getFile().getAbsolutePath() : loc.getName();
+			final long start = start(metrics);
+			try {
+				return detected(start, ReaderTrials.firstMatch(getCachedImageReader(
+					this).getReaders(), id, () -> new DataHandleAdapter(
+						new HeaderDataHandle(loc, header, length, () -> handles.create(
+							loc))), detectPool(this)) != null);
+			}
+			catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+
+		/**
+		 * @return true iff the given name corresponds to a non-virtual source
+		 */
+		private boolean realSource(final Location loc) { // FIXME this is wasteful!
+			try (final DataHandle<Location> handle = handles.create(loc)) {
+				return (handle != null && realSource(handle));
+			}
+			catch (final IOException e) {
+				return false;
+			}
+		}
+
+		/**
+		 * @return true iff the given adapter is non-virtual (can read at least
+		 *         one position)
+		 */
+		private boolean realSource(final DataHandleAdapter adapter)
+			throws IOException
+		{
+			adapter.seek(0);
+			return adapter.read() >= 0;
+		}
+
+		/**
+		 * @return true iff the given stream is non-virtual (can read at least one
+		 *         position)
+		 */
+		private boolean realSource(final DataHandle<Location> handle)
+			throws IOException
 		{
 			return FormatTools.validStream(handle, 1, handle.isLittleEndian());
 		}
@@ -445,10 +1250,30 @@ public class BioFormatsFormat extends AbstractFormat {
 			return getCachedImageReader(this).isThisType(block);
 		}
 
+		/** Records a detection attempt and passes its result through. */
+		private boolean detected(final long start, final boolean result) {
+			record(metrics, Stage.DETECTION, result
+				? BioFormatsMetricsService.DETECTED
+				: BioFormatsMetricsService.NOT_DETECTED, start, 0, true);
+			return result;
+		}
+
 	}
 
 	public static class Parser extends AbstractParser<Metadata> {
 
+		@Parameter(required = false)
+		private BioFormatsMetricsService metrics;
+
+		@Parameter(required = false)
+		private SharedDataHandleService sharedHandles;
+
+		@Parameter(required = false)
+		private DataHandleService handles;
+
+		@Parameter(required = false)
+		private TileCacheService tileCaches;
+
 		// -- Parser API Methods --
 
 		@Override
@@ -457,29 +1282,147 @@ public class BioFormatsFormat extends AbstractFormat {
 			FormatException
 		{
 			try {
-				final ImageReader reader = createImageReader(this);
-				meta.setReader(reader);
-
-				final MetadataStore store = new OMEXMLMetadataImpl();
-				reader.setMetadataStore(store);
-				reader.setOriginalMetadataPopulated(config
-					.parserIsSaveOriginalMetadata());
-				reader.setMetadataFiltered(config.parserIsFiltered());
-				reader.setGroupFiles(config.groupableIsGroupFiles());
-
+				HandleStatistics handleStats = null;
+				AccessTracer tracer = null;
+				String id;
 				if (stream.get() instanceof FileLocation) {
 					// short-cut for file-locations
-					reader.setId(((FileLocation) stream.get()).getFile()
-						.getAbsolutePath());
+					id = ((FileLocation) stream.get()).getFile().getAbsolutePath();
 				}
 				else {
 					// fall-back: we try to map the datahandle directly
-					final DataHandleAdapter value = new DataHandleAdapter(stream);
+					DataHandle<Location> source = stream;
+					if (handles != null && BioFormatsConfig.isRangeFetch(config)) {
+						final Location loc = stream.get();
+						if (meta.rangeFetch != null) meta.rangeFetch.close();
+						meta.rangeFetch = new RangeFetchDataHandle(stream, () -> handles
+							.create(loc), fetchPool(this));
+						source = meta.rangeFetch;
+					}
+					final DataHandleAdapter value = sharedHandles == null ||
+						!BioFormatsConfig.isShareHandles(config) ? new DataHandleAdapter(
+							source) : sharedHandles.share(source);
+					tracer = AccessTracer.attach(value, stream.get().getName(),
+						log());
+					if (metrics != null) {
+						handleStats = metrics.createHandleStatistics();
+						value.addListener(handleStats);
+					}
 					loci.common.Location.getIdMap().put(stream.get().getName(), value);
-					reader.setId(stream.get().getName());
+					id = stream.get().getName();
 				}
 
-				meta.setTable(new DefaultMetaTable(reader.getGlobalMetadata()));
+				final boolean reuse = BioFormatsConfig.isReuseReaders(config);
+				final boolean index = config.groupableIsGroupFiles() &&
+					BioFormatsConfig.isIndexDatasets(config) &&
+					stream.get() instanceof FileLocation;
+				IFormatReader selected = null;
+				if (index) {
+					// NB: the reader's directory scans hit the listing cache
+					validateListings(this, id);
+					// A known dataset is opened from its original file by the reader
+					// class which opened it before, skipping detection.
+					final DatasetIndex.Dataset dataset = lookupDataset(this, id);
+					if (dataset != null) {
+						if (reuse) selected = acquireReader(this, dataset.getId());
+						if (selected == null) {
+							selected = createReader(this, dataset.getReaderClass());
+						}
+						if (selected != null) id = dataset.getId();
+					}
+				}
+				if (selected == null && reuse) selected = acquireReader(this, id);
+				final boolean poolFiles = sharedHandles != null && stream
+					.get() instanceof FileLocation && BioFormatsConfig.isPoolFileHandles(
+						config);
+				if (poolFiles) meta.mapFile(sharedHandles, id);
+				// NB: deadlines are checked by adapters, so files must be read
+				// through them
+				final long parseTimeout = BioFormatsConfig.getParseTimeout(config);
+				final long readTimeout = BioFormatsConfig.getReadTimeout(config);
+				final boolean guardFiles = !poolFiles && handles != null && stream
+					.get() instanceof FileLocation && (parseTimeout > 0 ||
+						readTimeout > 0);
+				if (guardFiles) meta.mapFile(handles, id);
+				final IFormatReader reader = selected == null ? createImageReader(
+					this) : selected;
+				meta.setReader(reader);
+				meta.setReuseReader(reuse);
+
+				final int[] images = BioFormatsConfig.getSelectedImages(config);
+				meta.setSelectedImages(images);
+				// NB: Bio-Formats parses all series, but a compact store can at
+				// least drop the fields of the others as they are set
+				final MetadataStore store = BioFormatsConfig.isCompactMetadata(config)
+					? new CompactMetadataStore(images) : new OMEXMLMetadataImpl();
+				reader.setMetadataStore(store);
+				reader.setOriginalMetadataPopulated(config
+					.parserIsSaveOriginalMetadata());
+				reader.setMetadataFiltered(config.parserIsFiltered());
+				reader.setGroupFiles(config.groupableIsGroupFiles());
+				final MetadataLevel level = config.parserGetLevel() == null
+					? MetadataLevel.ALL : config.parserGetLevel();
+				reader.setMetadataOptions(new DynamicMetadataOptions(
+					convertLevel(level)));
+				meta.setMetadataLevel(level);
+
+				meta.setReadTimeout(readTimeout);
+				final Deadline deadline = meta.enterDeadline("Parsing " + id,
+					parseTimeout);
+				final long start = start(metrics);
+				boolean success = false;
+				try {
+					reader.setId(id);
+					// NB: the reader may have swallowed the failed check
+					if (deadline.isTripped()) throw deadline.exceeded();
+					success = true;
+				}
+				catch (final loci.formats.FormatException | IOException
+						| RuntimeException e)
+				{
+					checkDeadline(deadline, e);
+					throw e;
+				}
+				finally {
+					meta.exitDeadline(deadline);
+					if (deadline.isTripped()) {
+						// NB: tag the timeout before closing deselects the reader
+						recordTimeout(metrics, Stage.SET_ID, reader, start);
+						// NB: release what the abandoned parse opened
+						try {
+							reader.close();
+						}
+						catch (final IOException exc) {
+							log().debug(exc);
+						}
+					}
+					else record(metrics, Stage.SET_ID, reader, start, 0, success);
+				}
+				// NB: the selection is lost once the reader is closed or parked
+				if (reuse) meta.selectedReader = unwrap(reader);
+				if (handleStats != null) handleStats.bind(readerClass(reader));
+				if (tracer != null) tracer.bind(readerClass(reader));
+				if (poolFiles || guardFiles && readTimeout > 0) {
+					// NB: multi-file readers open most files after setId, per plane
+					for (final String file : reader.getUsedFiles()) {
+						if (poolFiles) meta.mapFile(sharedHandles, file);
+						else meta.mapFile(handles, file);
+					}
+				}
+				meta.recordMappings(id, reader.getUsedFiles());
+				if (index) indexDataset(this, reader);
+
+				meta.setTable(new LazyMetaTable(reader.getGlobalMetadata()));
+				final long cacheSize = BioFormatsConfig.getTileCacheSize(config);
+				meta.setTileCache(cacheSize > 0 ? new CompressedTileCache(cacheSize)
+					: null);
+				final DiskTileCache diskCache = tileCaches == null ? null : tileCaches
+					.getDiskCache();
+				meta.setDiskTiles(diskCache != null && stream
+					.get() instanceof FileLocation && BioFormatsConfig.isDiskTileCache(
+						config) ? diskCache.dataset(DiskTileCache.datasetKey(readerClass(
+							reader), loci.formats.FormatTools.VERSION, reader.getUsedFiles()))
+						: null);
 			}
 			catch (final loci.formats.FormatException e) {
 				throw new FormatException(e);
@@ -489,6 +1432,303 @@ public class BioFormatsFormat extends AbstractFormat {
 
 	public static class Reader extends ByteArrayReader<Metadata> {
 
+		// -- Fields --
+
+		@Parameter(required = false)
+		private BioFormatsMetricsService metrics;
+
+		/** Scratch buffer reused across typed plane reads. */
+		private byte[] scratch;
+
+		/** All channels of the region last decoded for a channel subset. */
+		private byte[] channelScratch;
+
+		/** Metadata and region of {@link #channelScratch}, or null if invalid. */
+		private Metadata channelMeta;
+
+		private long[] channelKey;
+
+		// -- BioFormatsFormat.Reader API Methods --
+
+		/**
+		 * Reads the requested region of a plane as {@code short} values in native
+		 * byte order. 8-bit pixel types are widened.
+		 *
+		 * @param data Array to fill. A new one is allocated if {@code null} or too
+		 *          small.
+		 * @return The filled array.
+		 */
+		public short[] openPlaneShorts(final int imageIndex,
+			final long planeIndex, final Interval bounds, final short[] data)
+			throws FormatException, IOException
+		{
+			return PixelBuffers.toShorts(readPlane(imageIndex, planeIndex, bounds),
+				getMetadata().get(imageIndex).getPixelType(), data);
+		}
+
+		/**
+		 * Reads the requested region of a plane as {@code int} values in native
+		 * byte order. 8- and 16-bit pixel types are widened.
+		 *
+		 * @param data Array to fill. A new one is allocated if {@code null} or too
+		 *          small.
+		 * @return The filled array.
+		 */
+		public int[] openPlaneInts(final int imageIndex, final long planeIndex,
+			final Interval bounds, final int[] data) throws FormatException,
+			IOException
+		{
+			return PixelBuffers.toInts(readPlane(imageIndex, planeIndex, bounds),
+				getMetadata().get(imageIndex).getPixelType(), data);
+		}
+
+		/**
+		 * Reads the requested region of a plane as {@code float} values, converting
+		 * from any pixel type.
+		 *
+		 * @param data Array to fill. A new one is allocated if {@code null} or too
+		 *          small.
+		 * @return The filled array.
+		 */
+		public float[] openPlaneFloats(final int imageIndex,
+			final long planeIndex, final Interval bounds, final float[] data)
+			throws FormatException, IOException
+		{
+			return PixelBuffers.toFloats(readPlane(imageIndex, planeIndex, bounds),
+				getMetadata().get(imageIndex).getPixelType(), data);
+		}
+
+		/**
+		 * Reads the requested region of a plane as {@code double} values,
+		 * converting from any pixel type.
+		 *
+		 * @param data Array to fill. A new one is allocated if {@code null} or too
+		 *          small.
+		 * @return The filled array.
+		 */
+		public double[] openPlaneDoubles(final int imageIndex,
+			final long planeIndex, final Interval bounds, final double[] data)
+			throws FormatException, IOException
+		{
+			return PixelBuffers.toDoubles(readPlane(imageIndex, planeIndex, bounds),
+				getMetadata().get(imageIndex).getPixelType(), data);
+		}
+
+		/**
+		 * Reads the requested region of a plane into a {@link ByteBuffer} in
+		 * native byte order, so that typed views such as
+		 * {@link ByteBuffer#asShortBuffer()} can be used directly.
+		 *
+		 * @param buffer Buffer to fill, starting at index 0. A new heap buffer is
+		 *          allocated if {@code null} or too small.
+		 * @return The filled buffer, positioned at 0 with its limit at the end of
+		 *         the plane data.
+		 */
+		public ByteBuffer openPlaneBuffer(final int imageIndex,
+			final long planeIndex, final Interval bounds, ByteBuffer buffer)
+			throws FormatException, IOException
+		{
+			final int bpp = FormatTools.getBytesPerPixel(getMetadata().get(
+				imageIndex).getPixelType());
+			final int length = planeLength(imageIndex, bounds);
+			if (buffer == null || buffer.capacity() < length) {
+				buffer = ByteBuffer.allocate(length);
+			}
+			buffer.clear();
+			buffer.limit(length);
+			buffer.order(ByteOrder.nativeOrder());
+
+			final ByteOrder fileOrder = getMetadata().get(imageIndex)
+				.isLittleEndian() ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+			if (buffer.hasArray() && buffer.arrayOffset() == 0 && (bpp == 1 ||
+				fileOrder == ByteOrder.nativeOrder()))
+			{
+				// NB: no swapping needed, so decode straight into the buffer
+				openBytes(imageIndex, planeIndex, buffer.array(), bounds);
+			}
+			else {
+				PixelBuffers.copySwapped(readPlane(imageIndex, planeIndex, bounds),
+					buffer, bpp);
+			}
+			return buffer;
+		}
+
+		/**
+		 * Reads the requested region of a plane in the byte order of the
+		 * underlying file, with its channels in the given layout. If the layout
+		 * differs from that of the image, the channels are rearranged while
+		 * copying out of the decode buffer, so no further copy is needed.
+		 *
+		 * @param buf Array to fill. A new one is allocated if {@code null} or too
+		 *          small.
+		 * @return The filled array.
+		 */
+		public byte[] openPlaneBytes(final int imageIndex, final long planeIndex,
+			final Interval bounds, final ChannelLayout layout, byte[] buf)
+			throws FormatException, IOException
+		{
+			final ImageMetadata imgMeta = getMetadata().get(imageIndex);
+			final int length = planeLength(imageIndex, bounds);
+			if (buf == null || buf.length < length) buf = new byte[length];
+
+			final int cIndex = imgMeta.getAxisIndex(Axes.CHANNEL);
+			final int channels = cIndex >= 0 && cIndex < imgMeta
+				.getPlanarAxisCount() ? (int) bounds.dimension(cIndex) : 1;
+			final ChannelLayout current = cIndex >= 0 && cIndex < imgMeta
+				.getAxisIndex(Axes.X) ? ChannelLayout.INTERLEAVED
+					: ChannelLayout.PLANAR;
+			if (channels == 1 || layout == current) {
+				openBytes(imageIndex, planeIndex, buf, bounds);
+				return buf;
+			}
+
+			if (scratch == null || scratch.length < length) scratch =
+				new byte[length];
+			openBytes(imageIndex, planeIndex, scratch, bounds);
+			final int bpp = FormatTools.getBytesPerPixel(imgMeta.getPixelType());
+			final int pixels = length / (channels * bpp);
+			if (current == ChannelLayout.INTERLEAVED) {
+				PixelBuffers.transpose(scratch, buf, pixels, channels, bpp);
+			}
+			else {
+				PixelBuffers.transpose(scratch, buf, channels, pixels, bpp);
+			}
+			return buf;
+		}
+
+		/**
+		 * Reads the requested region of a plane, downsampled by the given factor
+		 * along X and Y by taking every {@code factor}th pixel, in the byte order
+		 * of the underlying file. The result has the planar axes of the image,
+		 * with X and Y lengths of {@code ceil(length / factor)}.
+		 * <p>
+		 * If the image has a pyramid resolution whose scale divides
+		 * {@code factor} and the region's origin, the smallest such resolution is
+		 * read from instead of the full one. Samples past the edge of a
+		 * resolution whose size was rounded down repeat its last column or row.
+		 * The source is read one tile at a time, so only a tile and the output
+		 * are held in memory.
+		 * </p>
+		 *
+		 * @param bounds Region to read, in full resolution coordinates.
+		 * @param buf Array to fill. A new one is allocated if {@code null} or too
+		 *          small.
+		 * @return The filled array.
+		 */
+		public byte[] openPlaneDownsampled(final int imageIndex,
+			final long planeIndex, final Interval bounds, final int factor,
+			byte[] buf) throws FormatException, IOException
+		{
+			if (factor < 1) {
+				throw new IllegalArgumentException("Invalid factor: " + factor);
+			}
+			final Metadata meta = getMetadata();
+			final ImageMetadata imgMeta = meta.get(imageIndex);
+			final int xIndex = imgMeta.getAxisIndex(Axes.X);
+			final int yIndex = imgMeta.getAxisIndex(Axes.Y);
+			final long sizeX = imgMeta.getAxisLength(xIndex);
+			final long minX = bounds.min(xIndex);
+			final long minY = bounds.min(yIndex);
+
+			// find the smallest resolution whose scale divides the factor, and
+			// where the first sample is a pixel within the resolution
+			int level = imageIndex;
+			int scale = 1;
+			for (int r = 1; r < meta.getResolutionCount(imageIndex); r++) {
+				final ImageMetadata rMeta = meta.get(imageIndex + r);
+				final long levelX = rMeta.getAxisLength(Axes.X);
+				final long levelY = rMeta.getAxisLength(Axes.Y);
+				final int s = (int) Math.round((double) sizeX / levelX);
+				if (s > scale && s <= factor && factor % s == 0 && minX % s == 0 &&
+					minY % s == 0 && minX / s < levelX && minY / s < levelY)
+				{
+					level = imageIndex + r;
+					scale = s;
+				}
+			}
+			final int step = factor / scale;
+
+			final ImageMetadata levelMeta = meta.get(level);
+			final int bpp = FormatTools.getBytesPerPixel(levelMeta.getPixelType());
+			final int cIndex = levelMeta.getAxisIndex(Axes.CHANNEL);
+			final boolean hasChannels = cIndex >= 0 && cIndex < levelMeta
+				.getPlanarAxisCount();
+			final boolean interleaved = hasChannels && cIndex < xIndex;
+			final int channels = hasChannels ? (int) bounds.dimension(cIndex) : 1;
+
+			final int outW = (int) ((bounds.dimension(xIndex) + factor - 1) / factor);
+			final int outH = (int) ((bounds.dimension(yIndex) + factor - 1) / factor);
+			final int length = outW * outH * channels * bpp;
+			if (buf == null || buf.length < length) buf = new byte[length];
+
+			// sampled region of the chosen resolution
+			final long levelX = levelMeta.getAxisLength(xIndex);
+			final long levelY = levelMeta.getAxisLength(yIndex);
+			final long x0 = minX / scale;
+			final long y0 = minY / scale;
+			final long w = Math.min(levelX - x0, (long) (outW - 1) * step + 1);
+			final long h = Math.min(levelY - y0, (long) (outH - 1) * step + 1);
+
+			// tiles are whole multiples of the step, so each starts on a sample
+			final int tileW;
+			final int tileH;
+			final IFormatReader reader = meta.lockReader();
+			try {
+				reader.setSeries(level);
+				tileW = roundUp(Math.max(reader.getOptimalTileWidth(), 1), step);
+				tileH = roundUp(Math.max(reader.getOptimalTileHeight(), 1), step);
+			}
+			finally {
+				meta.unlockReader();
+			}
+			final long[] min = new long[levelMeta.getPlanarAxisCount()];
+			final long[] max = new long[min.length];
+			if (hasChannels) {
+				min[cIndex] = bounds.min(cIndex);
+				max[cIndex] = bounds.max(cIndex);
+			}
+			byte[] tile = null;
+			for (long ty = 0; ty < h; ty += tileH) {
+				final int th = (int) Math.min(tileH, h - ty);
+				for (long tx = 0; tx < w; tx += tileW) {
+					final int tw = (int) Math.min(tileW, w - tx);
+					min[xIndex] = x0 + tx;
+					max[xIndex] = x0 + tx + tw - 1;
+					min[yIndex] = y0 + ty;
+					max[yIndex] = y0 + ty + th - 1;
+					final int tileLength = tw * th * channels * bpp;
+					if (tile == null || tile.length < tileLength) {
+						tile = new byte[tileLength];
+					}
+					openBytes(level, planeIndex, tile, new FinalInterval(min, max));
+
+					final int outX = (int) (tx / step);
+					final int outY = (int) (ty / step);
+					// NB: the last tiles also fill the samples past a rounded down
+					// edge of the resolution, from its last column or row
+					final int endX = tx + tw < w ? outX + tw / step : outW;
+					final int endY = ty + th < h ? outY + th / step : outH;
+					for (int c = 0; c < (interleaved ? 1 : channels); c++) {
+						for (int py = outY; py < endY; py++) {
+							final int j = (int) Math.min((long) py * step - ty, th - 1);
+							for (int px = outX; px < endX; px++) {
+								final int i = (int) Math.min((long) px * step - tx, tw - 1);
+								if (interleaved) {
+									System.arraycopy(tile, (j * tw + i) * channels * bpp, buf,
+										(py * outW + px) * channels * bpp, channels * bpp);
+								}
+								else {
+									System.arraycopy(tile, ((c * th + j) * tw + i) * bpp, buf,
+										((c * outH + py) * outW + px) * bpp, bpp);
+								}
+							}
+						}
+					}
+				}
+			}
+			return buf;
+		}
+
 		// -- Reader API Methods --
 
 		@Override
@@ -496,31 +1736,204 @@ public class BioFormatsFormat extends AbstractFormat {
 			final ByteArrayPlane plane, final Interval bounds,
 			final SCIFIOConfig config) throws FormatException, IOException
 		{
-			final IFormatReader reader = getMetadata().getReader();
-			reader.setSeries(imageIndex);
+			openBytes(imageIndex, planeIndex, plane.getBytes(), bounds);
+			plane.setColorTable(getMetadata().getColorTable(imageIndex, planeIndex));
+			return plane;
+		}
+
+		@Override
+		protected String[] createDomainArray() {
+			return new String[0];
+		}
+
+		// -- Helper methods --
+
+		/**
+		 * Decodes the requested region of a plane into {@code buf}, in the byte
+		 * order of the underlying file. Only the channels within the bounds of a
+		 * planar {@link Axes#CHANNEL} axis are written.
+		 */
+		private void openBytes(final int imageIndex, final long planeIndex,
+			final byte[] buf, final Interval bounds) throws FormatException,
+			IOException
+		{
+			final ImageMetadata imgMeta = getMetadata().get(imageIndex);
+			final int xIndex = imgMeta.getAxisIndex(Axes.X);
+			final int yIndex = imgMeta.getAxisIndex(Axes.Y);
+			final int x = (int) bounds.min(xIndex);
+			final int y = (int) bounds.min(yIndex);
+			final int w = (int) bounds.dimension(xIndex);
+			final int h = (int) bounds.dimension(yIndex);
+
+			final int cIndex = imgMeta.getAxisIndex(Axes.CHANNEL);
+			if (cIndex < 0 || cIndex >= imgMeta.getPlanarAxisCount() ||
+				bounds.dimension(cIndex) == imgMeta.getAxisLength(cIndex))
+			{
+				decode(imageIndex, planeIndex, buf, x, y, w, h);
+				return;
+			}
+
+			// Bio-Formats always decodes all channels of a plane, so decode them
+			// once and copy out the requested ones. Requests for other channels
+			// of the same region are then served without decoding again.
+			final int bpp = FormatTools.getBytesPerPixel(imgMeta.getPixelType());
+			final int sizeC = (int) imgMeta.getAxisLength(cIndex);
+			final int c = (int) bounds.min(cIndex);
+			final int count = (int) bounds.dimension(cIndex);
+			final int pixels = w * h;
+			final long[] key = { imageIndex, planeIndex, x, y, w, h };
+			if (channelMeta != getMetadata() || !Arrays.equals(key, channelKey)) {
+				final int length = sizeC * pixels * bpp;
+				if (channelScratch == null || channelScratch.length < length) {
+					channelScratch = new byte[length];
+				}
+				channelKey = null;
+				decode(imageIndex, planeIndex, channelScratch, x, y, w, h);
+				channelMeta = getMetadata();
+				channelKey = key;
+			}
+
+			if (cIndex < xIndex) {
+				// interleaved: gather the requested channels of each pixel
+				final int stride = sizeC * bpp;
+				final int run = count * bpp;
+				for (int p = 0, src = c * bpp, dest = 0; p < pixels; p++, src +=
+					stride, dest += run)
+				{
+					System.arraycopy(channelScratch, src, buf, dest, run);
+				}
+			}
+			else {
+				// planar: the requested channels are one contiguous block
+				System.arraycopy(channelScratch, c * pixels * bpp, buf, 0, count *
+					pixels * bpp);
+			}
+		}
+
+		/**
+		 * Decodes all channels of the given region of a plane with Bio-Formats,
+		 * or copies them out of the tile caches of the dataset: first the
+		 * compressed one in memory, then the one on disk.
+		 */
+		private void decode(final int imageIndex, final long planeIndex,
+			final byte[] buf, final int x, final int y, final int w, final int h)
+			throws FormatException, IOException
+		{
+			final Metadata meta = getMetadata();
+			final CompressedTileCache cache = meta.getTileCache();
+			final DiskTileCache.Dataset disk = meta.getDiskTiles();
+			final TileKey key = cache == null && disk == null ? null : new TileKey(
+				imageIndex, planeIndex, x, y, w, h);
+			if (cache != null && cache.get(key, buf)) return;
+			final int bpp = FormatTools.getBytesPerPixel(meta.get(imageIndex)
+				.getPixelType());
+			final int length = regionLength(imageIndex, w, h);
+			if (disk != null && disk.get(key, buf)) {
+				if (cache != null) cache.put(key, buf, length, bpp);
+				return;
+			}
+			decodeRegion(imageIndex, planeIndex, buf, x, y, w, h);
+			// NB: compressed after releasing the reader, so other threads can
+			// decode in the meantime
+			if (cache != null) cache.put(key, buf, length, bpp);
+			if (disk != null) {
+				try {
+					disk.put(key, buf, length, bpp);
+				}
+				catch (final IOException e) {
+					log().warn("Cannot cache tile " + key + " on disk", e);
+				}
+			}
+		}
+
+		/**
+		 * Decodes all channels of the given region of a plane with Bio-Formats.
+		 */
+		private void decodeRegion(final int imageIndex, final long planeIndex,
+			final byte[] buf, final int x, final int y, final int w, final int h)
+			throws FormatException, IOException
+		{
+			final Metadata meta = getMetadata();
+			final IFormatReader reader = meta.lockReader();
+			final Deadline deadline = meta.enterDeadline("Reading plane " +
+				planeIndex + " of image " + imageIndex, meta.getReadTimeout());
+			final long start = start(metrics);
+			boolean success = false;
 			try {
-				final Metadata meta = getMetadata();
-				final int xIndex = meta.get(imageIndex).getAxisIndex(Axes.X);
-				final int yIndex = meta.get(imageIndex).getAxisIndex(Axes.Y);
-				final int x = (int) bounds.min(xIndex);
-				final int y = (int) bounds.min(yIndex);
-				final int w = (int) bounds.dimension(xIndex);
-				final int h = (int) bounds.dimension(yIndex);
-				reader.openBytes((int) planeIndex, plane.getBytes(), x, y, w, h);
-
-				plane.setColorTable(getMetadata().getColorTable(imageIndex,
-					planeIndex));
+				reader.setSeries(imageIndex);
+				reader.openBytes((int) planeIndex, buf, x, y, w, h);
+				// NB: the reader may have swallowed the failed check
+				if (deadline.isTripped()) throw deadline.exceeded();
+				success = true;
 			}
 			catch (final loci.formats.FormatException e) {
+				checkDeadline(deadline, e);
 				throw new FormatException(e);
 			}
+			catch (final IOException | RuntimeException e) {
+				checkDeadline(deadline, e);
+				throw e;
+			}
+			finally {
+				meta.exitDeadline(deadline);
+				if (deadline.isTripped()) {
+					recordTimeout(metrics, Stage.OPEN_BYTES, reader, start);
+				}
+				else {
+					record(metrics, Stage.OPEN_BYTES, reader, start, regionLength(
+						imageIndex, w, h), success);
+				}
+				meta.unlockReader();
+			}
+		}
 
-			return plane;
+		/**
+		 * Decodes the requested region of a plane into the scratch buffer, and
+		 * returns a view of it ordered as the underlying file is.
+		 */
+		private ByteBuffer readPlane(final int imageIndex, final long planeIndex,
+			final Interval bounds) throws FormatException, IOException
+		{
+			final int length = planeLength(imageIndex, bounds);
+			if (scratch == null || scratch.length < length) scratch =
+				new byte[length];
+			openBytes(imageIndex, planeIndex, scratch, bounds);
+			return PixelBuffers.wrap(scratch, length, getMetadata().get(imageIndex)
+				.isLittleEndian());
 		}
 
-		@Override
-		protected String[] createDomainArray() {
-			return new String[0];
+		/**
+		 * @return the number of bytes Bio-Formats produces for all channels of
+		 *         the given region.
+		 */
+		private int regionLength(final int imageIndex, final int w, final int h) {
+			final ImageMetadata imgMeta = getMetadata().get(imageIndex);
+			final int cIndex = imgMeta.getAxisIndex(Axes.CHANNEL);
+			final long channels = cIndex >= 0 && cIndex < imgMeta
+				.getPlanarAxisCount() ? imgMeta.getAxisLength(cIndex) : 1;
+			return (int) ((long) w * h * channels * FormatTools.getBytesPerPixel(
+				imgMeta.getPixelType()));
+		}
+
+		/** Rounds {@code value} up to a multiple of {@code step}. */
+		private static int roundUp(final int value, final int step) {
+			return (value + step - 1) / step * step;
+		}
+
+		/**
+		 * @return the number of bytes Bio-Formats produces for the given region.
+		 */
+		private int planeLength(final int imageIndex, final Interval bounds) {
+			final ImageMetadata imgMeta = getMetadata().get(imageIndex);
+			long length = FormatTools.getBytesPerPixel(imgMeta.getPixelType());
+			for (int d = 0; d < bounds.numDimensions(); d++) {
+				length *= bounds.dimension(d);
+			}
+			if (length > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Plane region too large: " +
+					length + " bytes");
+			}
+			return (int) length;
 		}
 
 	}
@@ -556,6 +1969,91 @@ public class BioFormatsFormat extends AbstractFormat {
 		return false;
 	}
 
+	/**
+	 * Takes a closed reader which was already selected for an earlier file and
+	 * which also accepts the given id.
+	 *
+	 * @return the reader, or null if no idle reader accepts the id
+	 */
+	private IFormatReader acquireReader(final String id) {
+		synchronized (idleReaders) {
+			if (idleReaders.isEmpty()) return null;
+			// NB: there may be several idle readers of a class; check each once.
+			final Set<Class<?>> rejected = new HashSet<>();
+			for (final Iterator<IFormatReader> iter = idleReaders.iterator(); iter
+				.hasNext();)
+			{
+				final IFormatReader r = iter.next();
+				if (!rejected.add(r.getClass())) continue;
+				if (r.isThisType(id)) {
+					iter.remove();
+					return r;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Keeps the given closed reader for reuse by {@link #acquireReader}.
+	 */
+	private void releaseReader(final IFormatReader reader) {
+		final IFormatReader r = unwrap(reader);
+		if (r == null) return;
+		synchronized (idleReaders) {
+			if (idleReaders.contains(r)) return;
+			idleReaders.addFirst(r);
+			while (idleReaders.size() > MAX_IDLE_READERS) {
+				idleReaders.removeLast();
+			}
+		}
+	}
+
+	/**
+	 * Creates a reader of the given class, if it is one of this format's reader
+	 * classes.
+	 *
+	 * @return the reader, or null if the class is not known or cannot be
+	 *         instantiated
+	 */
+	private IFormatReader createReader(final String className) {
+		cacheReaderClasses();
+		for (final Class<? extends IFormatReader> c : readerClasses.getClasses()) {
+			if (!c.getName().equals(className)) continue;
+			try {
+				return c.newInstance();
+			}
+			catch (final InstantiationException | IllegalAccessException e) {
+				return null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the daemon threads fetching ranges for the range fetching
+	 *         handles of this format's parsers. Each handle bounds its own
+	 *         parallelism, so the pool grows as needed.
+	 */
+	private synchronized ExecutorService getFetchPool() {
+		if (fetchPool == null) {
+			fetchPool = Executors.newCachedThreadPool(daemonThreads("bf-fetch-"));
+		}
+		return fetchPool;
+	}
+
+	/**
+	 * @return the daemon threads trying readers for the checkers of this
+	 *         format, shared by all concurrent detections.
+	 */
+	private synchronized ExecutorService getDetectPool() {
+		if (detectPool == null) {
+			detectPool = Executors.newFixedThreadPool(Math.max(2, Runtime
+				.getRuntime().availableProcessors()), daemonThreads("bf-detect-"));
+		}
+		return detectPool;
+	}
+
 	/** Returns false if this reader class already exists in SCIFIO. */
 	private boolean convert(final Class<? extends IFormatReader> c) {
 		for (final String s : DO_NOT_CONVERT) {
@@ -574,6 +2072,81 @@ public class BioFormatsFormat extends AbstractFormat {
 		return ((BioFormatsFormat) thing.getFormat()).createImageReader();
 	}
 
+	/**
+	 * As {@link #acquireReader(String)}, on the format of the given component.
+	 */
+	private static IFormatReader acquireReader(final HasFormat thing,
+		final String id)
+	{
+		return ((BioFormatsFormat) thing.getFormat()).acquireReader(id);
+	}
+
+	/**
+	 * Gets the entry of the {@link DatasetIndex} of the given component's format
+	 * for the given file.
+	 */
+	private static DatasetIndex.Dataset lookupDataset(final HasFormat thing,
+		final String id)
+	{
+		return ((BioFormatsFormat) thing.getFormat()).datasetIndex.lookup(id);
+	}
+
+	/**
+	 * Prepares the directory listing cache for opening the given file, through
+	 * the {@link DatasetIndex} of the given component's format.
+	 */
+	private static void validateListings(final HasFormat thing,
+		final String id)
+	{
+		((BioFormatsFormat) thing.getFormat()).datasetIndex.validateListings(id);
+	}
+
+	/**
+	 * Records the dataset of the given reader in the {@link DatasetIndex} of the
+	 * given component's format.
+	 */
+	private static void indexDataset(final HasFormat thing,
+		final IFormatReader reader)
+	{
+		((BioFormatsFormat) thing.getFormat()).datasetIndex.add(reader,
+			readerClass(reader));
+	}
+
+	/**
+	 * As {@link #createReader(String)}, on the format of the given component.
+	 */
+	private static IFormatReader createReader(final HasFormat thing,
+		final String className)
+	{
+		return ((BioFormatsFormat) thing.getFormat()).createReader(className);
+	}
+
+	/**
+	 * @return the pool fetching ranges for the given component's format,
+	 *         creating it if necessary
+	 */
+	private static ExecutorService fetchPool(final HasFormat thing) {
+		return ((BioFormatsFormat) thing.getFormat()).getFetchPool();
+	}
+
+	/**
+	 * @return the pool trying readers for the given component's format,
+	 *         creating it if necessary
+	 */
+	private static ExecutorService detectPool(final HasFormat thing) {
+		return ((BioFormatsFormat) thing.getFormat()).getDetectPool();
+	}
+
+	/**
+	 * As {@link #releaseReader(IFormatReader)}, on the format of the given
+	 * component.
+	 */
+	private static void releaseReader(final HasFormat thing,
+		final IFormatReader reader)
+	{
+		((BioFormatsFormat) thing.getFormat()).releaseReader(reader);
+	}
+
 	/**
 	 * As {@link #createImageReader(HasFormat)} but will use
 	 * {@link #getCachedImageReader()} instead.
@@ -583,72 +2156,242 @@ public class BioFormatsFormat extends AbstractFormat {
 	}
 
 	/**
-	 * Constructs a SCIFIO {@link ImageMetadata} object from the {@code s}th
-	 * series of the given Bio-Formats {@link IFormatReader}.
+	 * @return the Bio-Formats reader doing the work for the given reader,
+	 *         looking through any {@link ImageReader}.
+	 */
+	private static IFormatReader unwrap(final IFormatReader reader) {
+		return reader instanceof ImageReader ? ((ImageReader) reader).getReader()
+			: reader;
+	}
+
+	/**
+	 * @return the class name of the Bio-Formats reader doing the work for the
+	 *         given reader, looking through any {@link ImageReader}.
+	 */
+	private static String readerClass(final IFormatReader reader) {
+		return unwrap(reader).getClass().getName();
+	}
+
+	/**
+	 * As {@link #readerClass}, but returns
+	 * {@link BioFormatsMetricsService#UNKNOWN_READER} for an
+	 * {@link ImageReader} which has not selected a reader, such as one whose
+	 * {@code setId} failed or which was closed, rather than throwing.
+	 */
+	private static String readerTag(final IFormatReader reader) {
+		try {
+			return readerClass(reader);
+		}
+		catch (final IllegalStateException e) {
+			return BioFormatsMetricsService.UNKNOWN_READER;
+		}
+	}
+
+	/**
+	 * Converts a SCIFIO {@link MetadataLevel} to its Bio-Formats equivalent.
+	 */
+	private static loci.formats.in.MetadataLevel convertLevel(
+		final MetadataLevel level)
+	{
+		switch (level) {
+			case MINIMUM:
+				return loci.formats.in.MetadataLevel.MINIMUM;
+			case NO_OVERLAYS:
+				return loci.formats.in.MetadataLevel.NO_OVERLAYS;
+			default:
+				return loci.formats.in.MetadataLevel.ALL;
+		}
+	}
+
+	/**
+	 * Starts timing an operation, if the given metrics service is available.
 	 */
-	private static ImageMetadata convertMetadata(final IFormatReader reader,
-		final int s)
+	private static long start(final BioFormatsMetricsService metrics) {
+		return metrics == null ? 0 : metrics.start();
+	}
+
+	/**
+	 * Records an operation started with {@link #start}, if the given metrics
+	 * service is available.
+	 */
+	private static void record(final BioFormatsMetricsService metrics,
+		final Stage stage, final String tag, final long start, final long bytes,
+		final boolean success)
+	{
+		if (metrics != null) metrics.record(stage, tag, start, bytes, success);
+	}
+
+	/**
+	 * Records an operation of the given reader started with {@link #start},
+	 * tagged with the reader's class, if the given metrics service is
+	 * available.
+	 */
+	private static void record(final BioFormatsMetricsService metrics,
+		final Stage stage, final IFormatReader reader, final long start,
+		final long bytes, final boolean success)
+	{
+		if (metrics != null) {
+			metrics.record(stage, readerTag(reader), start, bytes, success);
+		}
+	}
+
+	/**
+	 * Records an operation of the given reader started with {@link #start}
+	 * which was abandoned at its deadline, if the given metrics service is
+	 * available.
+	 */
+	private static void recordTimeout(final BioFormatsMetricsService metrics,
+		final Stage stage, final IFormatReader reader, final long start)
+	{
+		if (metrics != null) metrics.recordTimeout(stage, readerTag(reader), start);
+	}
+
+	/**
+	 * Reports the failure of an operation whose deadline was hit as a
+	 * {@link DeadlineExceededException}, which readers may have wrapped or
+	 * replaced with an exception of their own.
+	 */
+	private static void checkDeadline(final Deadline deadline,
+		final Exception e) throws DeadlineExceededException
+	{
+		if (deadline.isTripped() && !(e instanceof DeadlineExceededException)) {
+			final DeadlineExceededException exc = deadline.exceeded();
+			exc.initCause(e);
+			throw exc;
+		}
+	}
+
+	/**
+	 * Gets a {@link CoreMetadata} snapshot of each series of the given reader.
+	 * Where the reader is a plain {@link FormatReader}, its core metadata list
+	 * is used directly, without changing the active series. Otherwise each
+	 * series is read through the reader's getters and the active series is
+	 * restored afterwards.
+	 */
+	private static List<CoreMetadata> seriesCoreMetadata(
+		final IFormatReader reader)
+	{
+		final int seriesCount = reader.getSeriesCount();
+		final IFormatReader r = unwrap(reader);
+		final List<CoreMetadata> list = r instanceof FormatReader ? reader
+			.getCoreMetadataList() : null;
+		final List<CoreMetadata> result = new ArrayList<>(seriesCount);
+		if (list != null) {
+			for (int s = 0; s < seriesCount; s++) {
+				final int index = reader.seriesToCoreIndex(s);
+				if (index < 0 || index >= list.size() || list.get(index) == null) {
+					result.clear();
+					break;
+				}
+				result.add(list.get(index));
+			}
+			if (result.size() == seriesCount) return result;
+		}
+
+		final int oldSeries = reader.getSeries();
+		for (int s = 0; s < seriesCount; s++) {
+			reader.setSeries(s);
+			final CoreMetadata core = new CoreMetadata();
+			core.sizeX = reader.getSizeX();
+			core.sizeY = reader.getSizeY();
+			core.sizeZ = reader.getSizeZ();
+			core.sizeC = reader.getSizeC();
+			core.sizeT = reader.getSizeT();
+			core.thumbSizeX = reader.getThumbSizeX();
+			core.thumbSizeY = reader.getThumbSizeY();
+			core.pixelType = reader.getPixelType();
+			core.bitsPerPixel = reader.getBitsPerPixel();
+			core.imageCount = reader.getImageCount();
+			core.dimensionOrder = reader.getDimensionOrder();
+			core.orderCertain = reader.isOrderCertain();
+			core.rgb = reader.isRGB();
+			core.littleEndian = reader.isLittleEndian();
+			core.interleaved = reader.isInterleaved();
+			core.indexed = reader.isIndexed();
+			core.falseColor = reader.isFalseColor();
+			core.metadataComplete = reader.isMetadataComplete();
+			core.seriesMetadata = reader.getSeriesMetadata();
+			core.thumbnail = reader.isThumbnailSeries();
+			result.add(core);
+		}
+		reader.setSeries(oldSeries);
+		return result;
+	}
+
+	/**
+	 * Constructs a SCIFIO {@link ImageMetadata} object from the core metadata
+	 * and OME metadata of the {@code s}th series of a Bio-Formats dataset. Does
+	 * not modify either argument, so may be called concurrently for different
+	 * series.
+	 */
+	private static ImageMetadata convertMetadata(final CoreMetadata core,
+		final MetadataRetrieve store, final int s)
 	{
 		final ImageMetadata imgMeta = new DefaultImageMetadata();
-		reader.setSeries(s);
 
-		final OMEXMLMetadataImpl store = (OMEXMLMetadataImpl) reader
-			.getMetadataStore();
 		final ArrayList<CalibratedAxis> axes = new ArrayList<>();
 		final LongArray axisLengths = new LongArray();
 		imgMeta.setPlanarAxisCount(2);
 		// parse interleaved channel dimensions
-		parseChannelDimensions(reader, imgMeta, DesiredChannels.INTERLEAVED, axes,
+		parseChannelDimensions(core, imgMeta, DesiredChannels.INTERLEAVED, axes,
 			axisLengths);
 		// parse standard dimensions in dimensional order
-		final String dimOrder = reader.getDimensionOrder().toUpperCase();
+		final String dimOrder = core.dimensionOrder.toUpperCase();
 		CalibratedAxis axis = null;
 		// CTR HACK: Recover gracefully when StageLabel element is missing.
 		// This avoids a problem with the OMEXMLMetadataImpl implementation,
 		// which currently does not check for null on the StageLabel object.
 		Length stageLabelX = null, stageLabelY = null, stageLabelZ = null;
-		try {
-			stageLabelX = store.getStageLabelX(s);
-			stageLabelY = store.getStageLabelY(s);
-			stageLabelZ = store.getStageLabelZ(s);
-		}
-		catch (final NullPointerException exc) {
-			// ignore
+		if (store != null) {
+			try {
+				stageLabelX = store.getStageLabelX(s);
+				stageLabelY = store.getStageLabelY(s);
+				stageLabelZ = store.getStageLabelZ(s);
+			}
+			catch (final NullPointerException exc) {
+				// ignore
+			}
 		}
 		for (int i = 0; i < dimOrder.length(); i++) {
 			switch (dimOrder.charAt(i)) {
 				case 'X':
 					axis = FormatTools.createAxis(Axes.X);
 					axes.add(axis);
-					axisLengths.add((long) reader.getSizeX());
-					calibrate(store.getPixelsPhysicalSizeX(s), axis, stageLabelX);
+					axisLengths.add((long) core.sizeX);
+					if (store != null) {
+						calibrate(store.getPixelsPhysicalSizeX(s), axis, stageLabelX);
+					}
 					break;
 				case 'Y':
 					axis = FormatTools.createAxis(Axes.Y);
 					axes.add(axis);
-					axisLengths.add((long) reader.getSizeY());
-					calibrate(store.getPixelsPhysicalSizeY(s), axis, stageLabelY);
+					axisLengths.add((long) core.sizeY);
+					if (store != null) {
+						calibrate(store.getPixelsPhysicalSizeY(s), axis, stageLabelY);
+					}
 					// Ensure non-interleaved RGB channels are parsed after the Y axis
-					parseChannelDimensions(reader, imgMeta, DesiredChannels.PLANAR, axes,
+					parseChannelDimensions(core, imgMeta, DesiredChannels.PLANAR, axes,
 						axisLengths);
 					break;
 				case 'Z':
 					axis = FormatTools.createAxis(Axes.Z);
-					if (reader.getSizeZ() > 1) {
+					if (core.sizeZ > 1) {
 						axes.add(axis);
-						axisLengths.add((long) reader.getSizeZ());
-						calibrate(store.getPixelsPhysicalSizeZ(s), axis, stageLabelZ);
+						axisLengths.add((long) core.sizeZ);
+						if (store != null) {
+							calibrate(store.getPixelsPhysicalSizeZ(s), axis, stageLabelZ);
+						}
 					}
 					break;
 				case 'C':
 					// parse non-planar channel dimensions
-					parseChannelDimensions(reader, imgMeta, DesiredChannels.NONPLANAR,
+					parseChannelDimensions(core, imgMeta, DesiredChannels.NONPLANAR,
 						axes, axisLengths);
 					break;
 				case 'T':
-					if (reader.getSizeT() > 1) {
+					if (core.sizeT > 1) {
 						axes.add(FormatTools.createAxis(Axes.TIME));
-						axisLengths.add((long) reader.getSizeT());
+						axisLengths.add((long) core.sizeT);
 					}
 					break;
 			}
@@ -657,27 +2400,76 @@ public class BioFormatsFormat extends AbstractFormat {
 		imgMeta.setAxes(axes.toArray(new CalibratedAxis[axes.size()]));
 		imgMeta.setAxisLengths(axisLengths.copyArray());
 
-		imgMeta.setThumbSizeX(reader.getThumbSizeX());
-		imgMeta.setThumbSizeY(reader.getThumbSizeY());
-		imgMeta.setPixelType(reader.getPixelType());
+		imgMeta.setThumbSizeX(thumbSizeX(core));
+		imgMeta.setThumbSizeY(thumbSizeY(core));
+		imgMeta.setPixelType(core.pixelType);
 
-		final int bpp = reader.getBitsPerPixel();
-		final int bitsPerPixel = bpp == 0 ? FormatTools.getBitsPerPixel(reader
-			.getPixelType()) : bpp;
+		final int bpp = core.bitsPerPixel;
+		final int bitsPerPixel = bpp == 0 ? FormatTools.getBitsPerPixel(
+			core.pixelType) : bpp;
 		imgMeta.setBitsPerPixel(bitsPerPixel);
-		imgMeta.setOrderCertain(reader.isOrderCertain());
-		imgMeta.setLittleEndian(reader.isLittleEndian());
-		imgMeta.setFalseColor(reader.isFalseColor());
-		imgMeta.setMetadataComplete(reader.isMetadataComplete());
+		imgMeta.setOrderCertain(core.orderCertain);
+		imgMeta.setLittleEndian(core.littleEndian);
+		imgMeta.setFalseColor(core.falseColor);
+		imgMeta.setMetadataComplete(core.metadataComplete);
 
-		final MetaTable table = new DefaultMetaTable(reader.getSeriesMetadata());
+		final MetaTable table = new LazyMetaTable(core.seriesMetadata);
 
 		imgMeta.setTable(table);
-		imgMeta.setThumbnail(reader.isThumbnailSeries());
+		imgMeta.setThumbnail(core.thumbnail);
 
 		return imgMeta;
 	}
 
+	/**
+	 * As {@link IFormatReader#getEffectiveSizeC()}, computed from the given core
+	 * metadata.
+	 */
+	private static int effectiveSizeC(final CoreMetadata core) {
+		final int sizeZT = core.sizeZ * core.sizeT;
+		return sizeZT == 0 ? 0 : core.imageCount / sizeZT;
+	}
+
+	/**
+	 * As {@link IFormatReader#getRGBChannelCount()}, computed from the given
+	 * core metadata.
+	 */
+	private static int rgbChannelCount(final CoreMetadata core) {
+		final int effSizeC = effectiveSizeC(core);
+		return effSizeC == 0 ? 0 : core.sizeC / effSizeC;
+	}
+
+	/**
+	 * As {@link IFormatReader#getThumbSizeX()}, computed from the given core
+	 * metadata.
+	 */
+	private static int thumbSizeX(final CoreMetadata core) {
+		if (core.thumbSizeX != 0) return core.thumbSizeX;
+		return thumbSize(core.sizeX, core.sizeY);
+	}
+
+	/**
+	 * As {@link IFormatReader#getThumbSizeY()}, computed from the given core
+	 * metadata.
+	 */
+	private static int thumbSizeY(final CoreMetadata core) {
+		if (core.thumbSizeY != 0) return core.thumbSizeY;
+		return thumbSize(core.sizeY, core.sizeX);
+	}
+
+	/**
+	 * Gets the default thumbnail length along an axis of length {@code size},
+	 * given the length {@code other} of the perpendicular axis.
+	 */
+	private static int thumbSize(final int size, final int other) {
+		final int max = FormatReader.THUMBNAIL_DIMENSION;
+		int thumbSize = 0;
+		if (size < max && other < max) thumbSize = size;
+		else if (size > other) thumbSize = max;
+		else if (other > 0) thumbSize = size * max / other;
+		return thumbSize == 0 ? 1 : thumbSize;
+	}
+
 	/**
 	 * Calibrates the given axis if the physical pixel size is non-null
 	 *
@@ -704,7 +2496,7 @@ public class BioFormatsFormat extends AbstractFormat {
 	 * mutually exclusive with each other). The third is a non-planar Channel
 	 * axis.
 	 */
-	private static void parseChannelDimensions(final IFormatReader reader,
+	private static void parseChannelDimensions(final CoreMetadata core,
 		final ImageMetadata meta, final DesiredChannels query,
 		final ArrayList<CalibratedAxis> axisTypes, final LongArray axisLengths)
 	{
@@ -714,13 +2506,12 @@ public class BioFormatsFormat extends AbstractFormat {
 		if (query == DesiredChannels.INTERLEAVED ||
 			query == DesiredChannels.PLANAR)
 		{
-			if (reader.isInterleaved() != (query == DesiredChannels.INTERLEAVED))
-				return;
+			if (core.interleaved != (query == DesiredChannels.INTERLEAVED)) return;
 			long length = 1;
-			if (reader.getRGBChannelCount() > 1) {
-				length = reader.getRGBChannelCount();
+			if (rgbChannelCount(core) > 1) {
+				length = rgbChannelCount(core);
 			}
-			else if (reader.isIndexed() && reader.getEffectiveSizeC() == 1) {
+			else if (core.indexed && effectiveSizeC(core) == 1) {
 				// If effectiveSizeC and RGBChannelCount are both 1, we stick the
 				// indexed Channel axis as a planar axis.
 				meta.setIndexed(true);
@@ -736,18 +2527,18 @@ public class BioFormatsFormat extends AbstractFormat {
 			axisLengths.add(length);
 		}
 		else if (query == DesiredChannels.NONPLANAR) {
-			if (reader.getEffectiveSizeC() > 1) {
-				meta.setIndexed(reader.isIndexed());
+			if (effectiveSizeC(core) > 1) {
+				meta.setIndexed(core.indexed);
 				AxisType type = null;
-				if (reader.getRGBChannelCount() > 1) {
+				if (rgbChannelCount(core) > 1) {
 					// Axes.CHANNEL was already used for RGB channels
-					type = Axes.get("Channels-planar");
+					type = CHANNELS_PLANAR;
 				}
 				else {
 					type = Axes.CHANNEL;
 				}
 				axisTypes.add(FormatTools.createAxis(type));
-				axisLengths.add((long) reader.getEffectiveSizeC());
+				axisLengths.add((long) effectiveSizeC(core));
 			}
 		}
 	}
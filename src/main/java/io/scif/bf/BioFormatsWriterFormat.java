@@ -0,0 +1,507 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf;
+
+import io.scif.AbstractChecker;
+import io.scif.AbstractFormat;
+import io.scif.AbstractWriter;
+import io.scif.Format;
+import io.scif.FormatException;
+import io.scif.HasFormat;
+import io.scif.ImageMetadata;
+import io.scif.Metadata;
+import io.scif.Plane;
+import io.scif.config.SCIFIOConfig;
+import io.scif.services.FormatService;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import loci.formats.FormatTools;
+import loci.formats.IFormatWriter;
+import loci.formats.ImageWriter;
+import loci.formats.MetadataTools;
+import loci.formats.meta.MetadataRetrieve;
+import loci.formats.ome.OMEXMLMetadataImpl;
+import loci.formats.out.OMETiffWriter;
+import loci.formats.out.TiffWriter;
+
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.axis.CalibratedAxis;
+import net.imglib2.Interval;
+
+import org.scijava.Priority;
+import org.scijava.io.handle.DataHandle;
+import org.scijava.io.location.FileLocation;
+import org.scijava.io.location.Location;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+/**
+ * Writes the formats Bio-Formats can write, through its {@link ImageWriter}.
+ * <p>
+ * This format only writes; {@link BioFormatsFormat} reads. It claims only the
+ * suffixes of Bio-Formats writers, at a low priority, so SCIFIO's own writers
+ * are preferred for the suffixes they also write. Its metadata is that of
+ * {@link BioFormatsFormat}, so datasets parsed by Bio-Formats are written
+ * with their full OME model.
+ * </p>
+ */
+@Plugin(type = Format.class, name = "Bio-Formats Writer Format",
+	priority = Priority.LOW)
+public class BioFormatsWriterFormat extends AbstractFormat {
+
+	// -- Fields --
+
+	@Parameter
+	private FormatService formatService;
+
+	/** Threads writing the queued tiles of this format's writers. */
+	private ExecutorService writerPool;
+
+	// -- Format API Methods --
+
+	@Override
+	protected String[] makeSuffixArray() {
+		return new ImageWriter().getSuffixes();
+	}
+
+	/**
+	 * Creates a {@link BioFormatsFormat.Metadata}, belonging to
+	 * {@link BioFormatsFormat}. NB: this format does not declare it as its
+	 * metadata class, so that metadata is still mapped to the reading format.
+	 */
+	@Override
+	public Metadata createMetadata() throws FormatException {
+		final BioFormatsFormat format = formatService.getFormatFromClass(
+			BioFormatsFormat.class);
+		if (format == null) {
+			throw new FormatException("The Bio-Formats format is not available");
+		}
+		return format.createMetadata();
+	}
+
+	// -- Nested Classes --
+
+	/** Never identifies a dataset; {@link BioFormatsFormat} reads them. */
+	public static class Checker extends AbstractChecker {
+
+		// -- Checker API Methods --
+
+		@Override
+		public boolean suffixSufficient() {
+			return false;
+		}
+
+		@Override
+		public boolean isFormat(final DataHandle<Location> handle) {
+			return false;
+		}
+	}
+
+	/**
+	 * Writes datasets in the format Bio-Formats selects by the destination's
+	 * suffix. Tiles may be written in any order and from any number of threads.
+	 * They are buffered and written in sequence on a pool shared by all writers
+	 * of this format, so callers do not wait on compression and I/O.
+	 * <p>
+	 * TIFF and OME-TIFF files are written by a {@link TiffTileWriter}: each
+	 * tile, or each strip of an untiled plane, is compressed on the pool in
+	 * parallel, and only the compressed data is written in sequence. OME-TIFF
+	 * pyramids are written as SubIFDs. Other formats, and TIFF planes holding
+	 * axes other than X, Y and interleaved channels, are written with a
+	 * Bio-Formats {@link ImageWriter}, which compresses the tiles of one file
+	 * one at a time.
+	 * </p>
+	 * <p>
+	 * Tiles must align to the grid set with
+	 * {@link BioFormatsConfig#setWriterTileSize}, or cover whole planes. TIFF
+	 * tile sizes are rounded up to multiples of 16. Only files can be written.
+	 * </p>
+	 */
+	public static class Writer extends AbstractWriter<BioFormatsFormat.Metadata> {
+
+		// -- Constants --
+
+		/** Bytes of buffered tiles beyond which callers wait for writes. */
+		private static final long MAX_PENDING_BYTES = 256L << 20;
+
+		/** Bytes of pixels per strip of untiled TIFF planes. */
+		private static final long STRIP_BYTES = 256L << 10;
+
+		// -- Fields --
+
+		private IFormatWriter writer;
+
+		/** Writer of TIFF destinations, used instead of {@link #writer}. */
+		private TiffTileWriter tiff;
+
+		private OrderedTileWriter tiles;
+
+		/** Width and height of the tile grid of each image. */
+		private int[] tileWidths, tileHeights;
+
+		/**
+		 * Width and height of the units in which each image is compressed and
+		 * sequenced: its tiles, or the strips of untiled TIFF planes.
+		 */
+		private int[] chunkWidths, chunkHeights;
+
+		/** Sequence number of the first tile or strip of each image. */
+		private long[] firstTiles;
+
+		// -- Writer API Methods --
+
+		@Override
+		public void setDest(final DataHandle<Location> out, final int imageIndex,
+			final SCIFIOConfig config) throws FormatException, IOException
+		{
+			super.setDest(out, imageIndex, config);
+			if (!(out.get() instanceof FileLocation)) {
+				throw new FormatException("Bio-Formats can only write files: " + out
+					.get());
+			}
+			close(writer, tiff, tiles);
+			writer = null;
+			tiff = null;
+			tiles = null;
+			final BioFormatsFormat.Metadata meta = getMetadata();
+			final String path = ((FileLocation) out.get()).getFile()
+				.getAbsolutePath();
+			final String compression = config.writerGetCompression();
+			int tileWidth = BioFormatsConfig.getWriterTileWidth(config);
+			int tileHeight = BioFormatsConfig.getWriterTileHeight(config);
+			final ImageWriter w = new ImageWriter();
+			try {
+				final IFormatWriter format = w.getWriter(path);
+				if (format instanceof TiffWriter && TiffTileWriter.canWrite(meta)) {
+					final boolean tiled = tileWidth > 0 || tileHeight > 0;
+					layoutTiles(meta, tileWidth, tileHeight, true);
+					tiff = new TiffTileWriter(path, meta,
+						format instanceof OMETiffWriter ? createRetrieve(meta) : null,
+						compression, tiled, chunkWidths, chunkHeights, firstTiles);
+					tiles = new OrderedTileWriter(tiff::write, tiff::encode,
+						writerPool(this), firstTiles[firstTiles.length - 1],
+						MAX_PENDING_BYTES);
+					return;
+				}
+				w.setMetadataRetrieve(createRetrieve(meta));
+				w.setInterleaved(meta.get(0).getInterleavedAxisCount() > 0);
+				if (compression != null) w.setCompression(compression);
+				// NB: tiles are always handed over in order
+				w.setWriteSequentially(true);
+				w.setId(path);
+				if (tileWidth > 0) tileWidth = w.setTileSizeX(tileWidth);
+				if (tileHeight > 0) tileHeight = w.setTileSizeY(tileHeight);
+				layoutTiles(meta, tileWidth, tileHeight, false);
+			}
+			catch (final loci.formats.FormatException e) {
+				w.close();
+				throw new FormatException(e);
+			}
+			writer = w;
+			tiles = new OrderedTileWriter(this::writeTile, writerPool(this),
+				firstTiles[firstTiles.length - 1], MAX_PENDING_BYTES);
+		}
+
+		@Override
+		public void writePlane(final int imageIndex, final long planeIndex,
+			final Plane plane, final Interval bounds) throws FormatException,
+			IOException
+		{
+			if (tiles == null) {
+				throw new FormatException("No destination set");
+			}
+			final ImageMetadata imgMeta = getMetadata().get(imageIndex);
+			if (planeIndex < 0 || planeIndex >= imgMeta.getPlaneCount()) {
+				throw new FormatException("Invalid plane index: " + planeIndex);
+			}
+			final int xIndex = imgMeta.getAxisIndex(Axes.X);
+			final int yIndex = imgMeta.getAxisIndex(Axes.Y);
+			final int x = (int) bounds.min(xIndex);
+			final int y = (int) bounds.min(yIndex);
+			final int w = (int) bounds.dimension(xIndex);
+			final int h = (int) bounds.dimension(yIndex);
+			final int sizeX = (int) imgMeta.getAxisLength(Axes.X);
+			final int sizeY = (int) imgMeta.getAxisLength(Axes.Y);
+			final int tileWidth = tileWidths[imageIndex];
+			final int tileHeight = tileHeights[imageIndex];
+			final int chunkWidth = chunkWidths[imageIndex];
+			final int chunkHeight = chunkHeights[imageIndex];
+			final int cols = (sizeX + chunkWidth - 1) / chunkWidth;
+			final int chunksPerPlane = cols * ((sizeY + chunkHeight - 1) /
+				chunkHeight);
+			final long base = firstTiles[imageIndex] + planeIndex * chunksPerPlane;
+
+			final boolean wholePlane = x == 0 && y == 0 && w == sizeX && h == sizeY;
+			if (!wholePlane && (x % tileWidth != 0 || y % tileHeight != 0 ||
+				w != Math.min(tileWidth, sizeX - x) || h != Math.min(tileHeight,
+					sizeY - y)))
+			{
+				throw new FormatException("Tile " + x + "," + y + " " + w + "x" + h +
+					" does not align to the " + tileWidth + "x" + tileHeight +
+					" tile grid");
+			}
+
+			// NB: the caller may reuse the plane once this method returns
+			long length = (long) w * h * FormatTools.getBytesPerPixel(imgMeta
+				.getPixelType());
+			for (int d = 0; d < bounds.numDimensions(); d++) {
+				if (d != xIndex && d != yIndex) length *= bounds.dimension(d);
+			}
+			if (tiff == null) {
+				final long first = wholePlane ? base : base + (y / chunkHeight) *
+					cols + x / chunkWidth;
+				final long last = wholePlane ? base + chunksPerPlane - 1 : first;
+				final byte[] data = Arrays.copyOf(plane.getBytes(), (int) length);
+				tiles.submit(new OrderedTileWriter.Tile(first, last, imageIndex,
+					planeIndex, x, y, w, h, data));
+				return;
+			}
+
+			// split the region into its TIFF tiles or strips, which are
+			// compressed separately
+			final byte[] bytes = plane.getBytes();
+			final int pixelBytes = (int) (length / w / h);
+			for (int cy = y; cy < y + h; cy += chunkHeight) {
+				for (int cx = x; cx < x + w; cx += chunkWidth) {
+					final int cw = Math.min(chunkWidth, sizeX - cx);
+					final int ch = Math.min(chunkHeight, sizeY - cy);
+					// NB: TIFF tiles at the edges are padded to the full tile size
+					final int rowBytes = (tiff.isTiled() ? chunkWidth : cw) * pixelBytes;
+					final byte[] data = new byte[rowBytes * (tiff.isTiled()
+						? chunkHeight : ch)];
+					for (int row = 0; row < ch; row++) {
+						System.arraycopy(bytes, ((cy - y + row) * w + cx - x) * pixelBytes,
+							data, row * rowBytes, cw * pixelBytes);
+					}
+					final long sequence = base + (cy / chunkHeight) * cols + cx /
+						chunkWidth;
+					tiles.submit(new OrderedTileWriter.Tile(sequence, sequence,
+						imageIndex, planeIndex, cx, cy, cw, ch, data));
+				}
+			}
+		}
+
+		@Override
+		public boolean canDoStacks() {
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			final IFormatWriter w = writer;
+			final TiffTileWriter tw = tiff;
+			final OrderedTileWriter t = tiles;
+			writer = null;
+			tiff = null;
+			tiles = null;
+			try {
+				close(w, tw, t);
+			}
+			finally {
+				super.close();
+			}
+		}
+
+		// -- AbstractWriter API Methods --
+
+		@Override
+		protected String[] makeCompressionTypes() {
+			final Set<String> types = new LinkedHashSet<>();
+			for (final IFormatWriter w : new ImageWriter().getWriters()) {
+				final String[] writerTypes = w.getCompressionTypes();
+				if (writerTypes != null) types.addAll(Arrays.asList(writerTypes));
+			}
+			return types.toArray(new String[types.size()]);
+		}
+
+		// -- Helper methods --
+
+		/** Writes one tile; called in sequence by the tile writer. */
+		private void writeTile(final OrderedTileWriter.Tile tile)
+			throws loci.formats.FormatException, IOException
+		{
+			if (writer.getSeries() != tile.imageIndex) {
+				writer.setSeries(tile.imageIndex);
+			}
+			writer.saveBytes((int) tile.planeIndex, tile.data, tile.x, tile.y,
+				tile.w, tile.h);
+		}
+
+		/**
+		 * Computes the tile grid, the tiles or strips, and the first sequence
+		 * number of each image.
+		 *
+		 * @param tiff Whether the images are written by a {@link TiffTileWriter}.
+		 */
+		private void layoutTiles(final BioFormatsFormat.Metadata meta,
+			final int tileWidth, final int tileHeight, final boolean tiff)
+		{
+			final int imageCount = meta.getImageCount();
+			tileWidths = new int[imageCount];
+			tileHeights = new int[imageCount];
+			chunkWidths = new int[imageCount];
+			chunkHeights = new int[imageCount];
+			firstTiles = new long[imageCount + 1];
+			for (int i = 0; i < imageCount; i++) {
+				final ImageMetadata imgMeta = meta.get(i);
+				final int sizeX = (int) imgMeta.getAxisLength(Axes.X);
+				final int sizeY = (int) imgMeta.getAxisLength(Axes.Y);
+				if (tiff && (tileWidth > 0 || tileHeight > 0)) {
+					// NB: TIFF tiles are multiples of 16 pixels, padded at the edges
+					tileWidths[i] = roundTile(tileWidth > 0 ? tileWidth : sizeX);
+					tileHeights[i] = roundTile(tileHeight > 0 ? tileHeight : sizeY);
+				}
+				else {
+					tileWidths[i] = tileWidth > 0 ? Math.min(tileWidth, sizeX) : sizeX;
+					tileHeights[i] = tileHeight > 0 ? Math.min(tileHeight, sizeY)
+						: sizeY;
+				}
+				chunkWidths[i] = tileWidths[i];
+				chunkHeights[i] = tileHeights[i];
+				if (tiff && tileWidth <= 0 && tileHeight <= 0) {
+					// strips of whole rows, a multiple of 16 as JPEG requires
+					final long rowBytes = imgMeta.getPlaneSize() / sizeY;
+					chunkHeights[i] = Math.min(sizeY, roundTile((int) Math.max(1,
+						STRIP_BYTES / rowBytes)));
+				}
+				final long chunksPerPlane = (long) ((sizeX + chunkWidths[i] - 1) /
+					chunkWidths[i]) * ((sizeY + chunkHeights[i] - 1) / chunkHeights[i]);
+				firstTiles[i + 1] = firstTiles[i] + imgMeta.getPlaneCount() *
+					chunksPerPlane;
+			}
+		}
+
+		/** @return the given TIFF tile size, rounded up to a multiple of 16 */
+		private static int roundTile(final int size) {
+			return (size + 15) / 16 * 16;
+		}
+
+		/**
+		 * Builds the OME metadata to write. Datasets parsed by Bio-Formats keep
+		 * their full model; others are described from their image metadata.
+		 */
+		private MetadataRetrieve createRetrieve(
+			final BioFormatsFormat.Metadata meta) throws FormatException
+		{
+			if (meta.getReader() != null) return meta.getOMEXMLMetadata();
+			final OMEXMLMetadataImpl store = new OMEXMLMetadataImpl();
+			for (int i = 0; i < meta.getImageCount(); i++) {
+				final ImageMetadata imgMeta = meta.get(i);
+				final int channelIndex = imgMeta.getAxisIndex(Axes.CHANNEL);
+				final int samples = channelIndex >= 0 && channelIndex < imgMeta
+					.getPlanarAxisCount() ? (int) imgMeta.getAxisLength(Axes.CHANNEL)
+						: 1;
+				final int sizeC = (int) (Math.max(1, imgMeta.getAxisLength(
+					Axes.CHANNEL)) * Math.max(1, imgMeta.getAxisLength(
+						BioFormatsFormat.CHANNELS_PLANAR)));
+				MetadataTools.populateMetadata(store, i, imgMeta.getName(), imgMeta
+					.isLittleEndian(), dimensionOrder(imgMeta), FormatTools
+						.getPixelTypeString(imgMeta.getPixelType()), (int) imgMeta
+							.getAxisLength(Axes.X), (int) imgMeta.getAxisLength(Axes.Y),
+					(int) Math.max(1, imgMeta.getAxisLength(Axes.Z)), sizeC, (int) Math
+						.max(1, imgMeta.getAxisLength(Axes.TIME)), samples);
+			}
+			return store;
+		}
+
+		/**
+		 * @return the Bio-Formats dimension order of the non-planar axes of the
+		 *         given image
+		 */
+		private static String dimensionOrder(final ImageMetadata imgMeta)
+			throws FormatException
+		{
+			final StringBuilder order = new StringBuilder("XY");
+			for (final CalibratedAxis axis : imgMeta.getAxesNonPlanar()) {
+				final AxisType type = axis.type();
+				final char dim = type == Axes.Z ? 'Z' : type == Axes.TIME ? 'T'
+					: type == Axes.CHANNEL || type == BioFormatsFormat.CHANNELS_PLANAR
+						? 'C' : 0;
+				if (dim == 0) {
+					if (imgMeta.getAxisLength(type) == 1) continue;
+					throw new FormatException("Bio-Formats cannot write axis " + type);
+				}
+				if (order.indexOf(String.valueOf(dim)) < 0) order.append(dim);
+			}
+			for (final char dim : "ZCT".toCharArray()) {
+				if (order.indexOf(String.valueOf(dim)) < 0) order.append(dim);
+			}
+			return order.toString();
+		}
+
+		/**
+		 * Writes out the queued tiles, then closes whichever of the Bio-Formats
+		 * and TIFF writers is open. The IFDs of a TIFF are only written once all
+		 * its tiles were.
+		 */
+		private static void close(final IFormatWriter w,
+			final TiffTileWriter tw, final OrderedTileWriter t) throws IOException
+		{
+			try {
+				if (t != null) t.finish();
+				if (tw != null) tw.finish();
+			}
+			finally {
+				if (w != null) w.close();
+				if (tw != null) tw.close();
+			}
+		}
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * @return the daemon threads writing the queued tiles of this format's
+	 *         writers, one per processor
+	 */
+	private synchronized ExecutorService getWriterPool() {
+		if (writerPool == null) {
+			writerPool = Executors.newFixedThreadPool(Runtime.getRuntime()
+				.availableProcessors(), BioFormatsFormat.daemonThreads(
+					"bf-writer-"));
+		}
+		return writerPool;
+	}
+
+	/**
+	 * @return the pool writing the tiles of the given component's format,
+	 *         creating it if necessary
+	 */
+	private static ExecutorService writerPool(final HasFormat thing) {
+		return ((BioFormatsWriterFormat) thing.getFormat()).getWriterPool();
+	}
+}
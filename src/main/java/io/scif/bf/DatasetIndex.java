@@ -0,0 +1,270 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import loci.common.Location;
+import loci.formats.IFormatReader;
+
+/**
+ * Remembers the files making up multi-file datasets, as reported by
+ * {@link IFormatReader#getUsedFiles()}, along with the reader class which
+ * opened them.
+ * <p>
+ * Entries are validated against the modification times of the directories
+ * containing the dataset's files: adding, removing or renaming a file in any
+ * of them invalidates the entry. Checking an entry therefore costs one
+ * {@code stat} per directory instead of a directory listing.
+ * </p>
+ * <p>
+ * The directory scans of the readers themselves are served from the
+ * Bio-Formats directory listing cache, which the index switches on when it
+ * is first {@link #validateListings used}. That cache is only bounded by
+ * time, so the index also records the modification time of each directory
+ * whose listing may be cached, and clears the cache as soon as one of them
+ * changes.
+ * </p>
+ */
+public class DatasetIndex {
+
+	// -- Constants --
+
+	/** Default maximum number of datasets remembered. */
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	// -- Fields --
+
+	private final int capacity;
+
+	/** Datasets by canonical id, least recently used first. */
+	private final LinkedHashMap<String, Dataset> datasets;
+
+	/** Datasets by the absolute path of each of their files. */
+	private final Map<String, Dataset> members = new HashMap<>();
+
+	/**
+	 * Modification times of the directories whose listings Bio-Formats may
+	 * have cached, by path.
+	 */
+	private final Map<String, Long> listings = new HashMap<>();
+
+	/** Whether the Bio-Formats directory listing cache was switched on. */
+	private boolean cachingListings;
+
+	// -- Constructors --
+
+	public DatasetIndex() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public DatasetIndex(final int capacity) {
+		this.capacity = capacity;
+		datasets = new LinkedHashMap<>(16, 0.75f, true);
+	}
+
+	// -- DatasetIndex API Methods --
+
+	/**
+	 * Records the dataset the given reader is currently initialized on. Does
+	 * nothing if the reader has no current file.
+	 */
+	public void add(final IFormatReader reader, final String readerClass) {
+		final String id = reader.getCurrentFile();
+		final String[] usedFiles = reader.getUsedFiles();
+		if (id == null || usedFiles == null) return;
+
+		final String[] files = new String[usedFiles.length];
+		final Map<String, Long> directories = new HashMap<>();
+		for (int i = 0; i < usedFiles.length; i++) {
+			final File file = new File(usedFiles[i]).getAbsoluteFile();
+			files[i] = file.getPath();
+			final File dir = file.getParentFile();
+			if (dir != null && !directories.containsKey(dir.getPath())) {
+				directories.put(dir.getPath(), dir.lastModified());
+			}
+		}
+		final Dataset dataset = new Dataset(new File(id).getAbsolutePath(),
+			readerClass, files, directories);
+
+		synchronized (this) {
+			remove(dataset.id);
+			datasets.put(dataset.id, dataset);
+			members.put(dataset.id, dataset);
+			for (final String file : files) {
+				members.put(file, dataset);
+			}
+			while (datasets.size() > capacity) {
+				remove(datasets.keySet().iterator().next());
+			}
+			if (cachingListings) listings.putAll(directories);
+		}
+	}
+
+	/**
+	 * Prepares the Bio-Formats directory listing cache for a reader opening
+	 * the given file: switches the cache on, and clears it if the file's
+	 * directory, or a directory of its indexed dataset, changed since it may
+	 * have been listed.
+	 */
+	public void validateListings(final String path) {
+		final File file = new File(path).getAbsoluteFile();
+		final Map<String, Long> directories = new HashMap<>();
+		final Dataset dataset;
+		synchronized (this) {
+			dataset = members.get(file.getPath());
+		}
+		if (dataset != null) {
+			for (final String dir : dataset.directories.keySet()) {
+				directories.put(dir, new File(dir).lastModified());
+			}
+		}
+		final File parent = file.getParentFile();
+		if (parent != null) directories.put(parent.getPath(), parent
+			.lastModified());
+
+		synchronized (this) {
+			if (!cachingListings) {
+				Location.cacheDirectoryListings(true);
+				cachingListings = true;
+			}
+			boolean stale = listings.size() + directories.size() > capacity;
+			for (final Map.Entry<String, Long> entry : directories.entrySet()) {
+				final Long listed = listings.get(entry.getKey());
+				if (listed != null && !listed.equals(entry.getValue())) stale = true;
+			}
+			if (stale) {
+				Location.clearDirectoryListingsCache();
+				listings.clear();
+			}
+			listings.putAll(directories);
+		}
+	}
+
+	/**
+	 * Gets the dataset containing the given file, if known and still valid.
+	 * Invalid entries are dropped.
+	 *
+	 * @return the dataset, or null if unknown or invalidated
+	 */
+	public Dataset lookup(final String path) {
+		final String key = new File(path).getAbsolutePath();
+		final Dataset dataset;
+		synchronized (this) {
+			dataset = members.get(key);
+			if (dataset == null) return null;
+			// NB: refresh the access order.
+			datasets.get(dataset.id);
+		}
+		if (dataset.isValid()) return dataset;
+		synchronized (this) {
+			if (datasets.get(dataset.id) == dataset) remove(dataset.id);
+		}
+		return null;
+	}
+
+	/** Forgets all datasets, and clears the directory listing cache. */
+	public synchronized void clear() {
+		datasets.clear();
+		members.clear();
+		if (!listings.isEmpty()) Location.clearDirectoryListingsCache();
+		listings.clear();
+	}
+
+	/** @return the number of datasets remembered. */
+	public synchronized int size() {
+		return datasets.size();
+	}
+
+	// -- Helper methods --
+
+	private void remove(final String id) {
+		final Dataset dataset = datasets.remove(id);
+		if (dataset == null) return;
+		members.remove(dataset.id, dataset);
+		for (final String file : dataset.files) {
+			members.remove(file, dataset);
+		}
+	}
+
+	// -- Helper classes --
+
+	/** A multi-file dataset recorded in the index. */
+	public static final class Dataset {
+
+		private final String id;
+
+		private final String readerClass;
+
+		private final String[] files;
+
+		private final Map<String, Long> directories;
+
+		private Dataset(final String id, final String readerClass,
+			final String[] files, final Map<String, Long> directories)
+		{
+			this.id = id;
+			this.readerClass = readerClass;
+			this.files = files;
+			this.directories = Collections.unmodifiableMap(directories);
+		}
+
+		/** @return the absolute path of the file the dataset was opened from. */
+		public String getId() {
+			return id;
+		}
+
+		/** @return the class name of the reader which opened the dataset. */
+		public String getReaderClass() {
+			return readerClass;
+		}
+
+		/** @return the absolute paths of all files of the dataset. */
+		public String[] getFiles() {
+			return files.clone();
+		}
+
+		/**
+		 * @return true if no directory containing the dataset's files has been
+		 *         modified since the dataset was recorded.
+		 */
+		public boolean isValid() {
+			for (final Map.Entry<String, Long> entry : directories.entrySet()) {
+				final long modified = new File(entry.getKey()).lastModified();
+				if (modified == 0 || modified != entry.getValue()) return false;
+			}
+			return true;
+		}
+	}
+}
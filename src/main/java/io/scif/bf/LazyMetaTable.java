@@ -0,0 +1,208 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf;
+
+import io.scif.DefaultMetaTable;
+import io.scif.MetaTable;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link MetaTable} which reads through to a metadata map owned by a
+ * Bio-Formats reader, such as its global or series metadata
+ * {@link java.util.Hashtable}, instead of copying it.
+ * <p>
+ * The view is read-only with respect to the source: the first modification
+ * of the table, or a call to {@link #materialize()}, copies the source into
+ * a {@link DefaultMetaTable} which backs the table from then on. The source
+ * is never modified.
+ * </p>
+ */
+public class LazyMetaTable extends AbstractMap<String, Object> implements
+	MetaTable
+{
+
+	// -- Fields --
+
+	private final Map<String, Object> source;
+
+	private volatile MetaTable copy;
+
+	// -- Constructor --
+
+	/**
+	 * Creates a view of the given map. A null source is treated as an empty
+	 * map.
+	 */
+	public LazyMetaTable(final Map<String, Object> source) {
+		this.source = source == null ? Collections.<String, Object> emptyMap()
+			: source;
+	}
+
+	// -- LazyMetaTable API Methods --
+
+	/**
+	 * Copies the source map, if not already done, so this table no longer
+	 * depends on it. Call before the owner of the source may modify or discard
+	 * it, e.g. when its reader is closed.
+	 *
+	 * @return the table now backing this view
+	 */
+	public synchronized MetaTable materialize() {
+		if (copy == null) copy = new DefaultMetaTable(source);
+		return copy;
+	}
+
+	/** @return true if this table has copied its source. */
+	public boolean isMaterialized() {
+		return copy != null;
+	}
+
+	// -- MetaTable API Methods --
+
+	@Override
+	public void putList(final String key, final Object value) {
+		materialize().putList(key, value);
+	}
+
+	// -- Map API Methods --
+
+	@Override
+	public int size() {
+		return backing().size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return backing().isEmpty();
+	}
+
+	@Override
+	public boolean containsKey(final Object key) {
+		return key != null && backing().containsKey(key);
+	}
+
+	@Override
+	public boolean containsValue(final Object value) {
+		return value != null && backing().containsValue(value);
+	}
+
+	@Override
+	public Object get(final Object key) {
+		return key == null ? null : backing().get(key);
+	}
+
+	@Override
+	public Object put(final String key, final Object value) {
+		return materialize().put(key, value);
+	}
+
+	@Override
+	public Object remove(final Object key) {
+		if (!containsKey(key)) return null;
+		return materialize().remove(key);
+	}
+
+	@Override
+	public void putAll(final Map<? extends String, ? extends Object> m) {
+		materialize().putAll(m);
+	}
+
+	@Override
+	public void clear() {
+		materialize().clear();
+	}
+
+	@Override
+	public Set<Entry<String, Object>> entrySet() {
+		return new EntrySet();
+	}
+
+	// -- Helper methods --
+
+	private Map<String, Object> backing() {
+		final MetaTable table = copy;
+		return table == null ? source : table;
+	}
+
+	// -- Helper classes --
+
+	/**
+	 * Entry set over the current backing map. Entries read from the source are
+	 * immutable; removing through the iterator materializes the table first.
+	 */
+	private class EntrySet extends AbstractSet<Entry<String, Object>> {
+
+		@Override
+		public int size() {
+			return LazyMetaTable.this.size();
+		}
+
+		@Override
+		public void clear() {
+			LazyMetaTable.this.clear();
+		}
+
+		@Override
+		public Iterator<Entry<String, Object>> iterator() {
+			if (isMaterialized()) return copy.entrySet().iterator();
+			final Iterator<Entry<String, Object>> iter = source.entrySet()
+				.iterator();
+			return new Iterator<Entry<String, Object>>() {
+
+				private Entry<String, Object> last;
+
+				@Override
+				public boolean hasNext() {
+					return iter.hasNext();
+				}
+
+				@Override
+				public Entry<String, Object> next() {
+					last = iter.next();
+					return new SimpleImmutableEntry<>(last);
+				}
+
+				@Override
+				public void remove() {
+					if (last == null) throw new IllegalStateException();
+					// NB: the source is untouched, so iteration over it can continue.
+					materialize().remove(last.getKey());
+					last = null;
+				}
+			};
+		}
+	}
+}
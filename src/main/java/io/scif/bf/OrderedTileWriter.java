@@ -0,0 +1,285 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Accepts tiles in any order from any number of threads, and hands them to a
+ * {@link TileSink} strictly in sequence, one at a time, on an
+ * {@link Executor}. If a {@link TileEncoder} is given, tiles are first
+ * encoded in parallel on the same executor, and only their encoded data is
+ * written in sequence. Callers only wait for writes when the buffered tiles
+ * exceed a bound while the encodes or writes are progressing.
+ */
+final class OrderedTileWriter {
+
+	// -- Fields --
+
+	private final TileSink sink;
+
+	/** Encodes each tile before it is written, or null to write as given. */
+	private final TileEncoder encoder;
+
+	private final Executor executor;
+
+	/** Total number of sequence numbers to be written. */
+	private final long total;
+
+	private final long maxPendingBytes;
+
+	/** Tiles awaiting their turn, by first sequence number. */
+	private final TreeMap<Long, Tile> pending = new TreeMap<>();
+
+	/** First sequence numbers of the tiles being encoded. */
+	private final Set<Long> encoding = new HashSet<>();
+
+	private long pendingBytes;
+
+	/** The next sequence number to write. */
+	private long next;
+
+	private boolean draining;
+
+	private Exception failure;
+
+	// -- Constructors --
+
+	OrderedTileWriter(final TileSink sink, final Executor executor,
+		final long total, final long maxPendingBytes)
+	{
+		this(sink, null, executor, total, maxPendingBytes);
+	}
+
+	OrderedTileWriter(final TileSink sink, final TileEncoder encoder,
+		final Executor executor, final long total, final long maxPendingBytes)
+	{
+		this.sink = sink;
+		this.encoder = encoder;
+		this.executor = executor;
+		this.total = total;
+		this.maxPendingBytes = maxPendingBytes;
+	}
+
+	// -- OrderedTileWriter methods --
+
+	/**
+	 * Queues the given tile, which covers its sequence numbers from
+	 * {@link Tile#first} up to {@link Tile#last}.
+	 *
+	 * @throws IOException if an earlier write failed, or the tile's sequence
+	 *           numbers were already submitted
+	 */
+	synchronized void submit(final Tile tile) throws IOException {
+		checkFailure();
+		if (tile.first < next || pending.containsKey(tile.first) || encoding
+			.contains(tile.first))
+		{
+			throw new IOException("Tile " + tile.first + " was already submitted");
+		}
+		// NB: only wait while encodes or writes progress, so that a caller which
+		// has yet to submit the next tile in sequence cannot block itself.
+		while ((draining || !encoding.isEmpty()) &&
+			pendingBytes > maxPendingBytes && failure == null)
+		{
+			try {
+				wait();
+			}
+			catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while queueing tile", e);
+			}
+		}
+		checkFailure();
+		pendingBytes += tile.data.length;
+		if (encoder == null) {
+			queue(tile);
+			return;
+		}
+		encoding.add(tile.first);
+		executor.execute(() -> encode(tile));
+	}
+
+	/**
+	 * Waits for all queued tiles to be written.
+	 *
+	 * @throws IOException if a write failed, or any sequence number was never
+	 *           submitted
+	 */
+	synchronized void finish() throws IOException {
+		while (draining || !encoding.isEmpty()) {
+			try {
+				wait();
+			}
+			catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while writing tiles", e);
+			}
+		}
+		checkFailure();
+		if (next < total) {
+			throw new IOException((total - next) + " of " + total +
+				" tiles were not written, starting at tile " + next);
+		}
+	}
+
+	// -- Helper methods --
+
+	/** Encodes the given tile, then queues it for writing. */
+	private void encode(final Tile tile) {
+		Tile encoded = null;
+		Exception error = null;
+		try {
+			encoded = encoder.encode(tile);
+		}
+		catch (final Exception e) {
+			error = e;
+		}
+		synchronized (this) {
+			encoding.remove(tile.first);
+			if (error != null) fail(error);
+			else if (failure == null) {
+				pendingBytes += encoded.data.length - tile.data.length;
+				queue(encoded);
+			}
+			notifyAll();
+		}
+	}
+
+	/** Adds a tile to the pending tiles, and starts writing if it is next. */
+	private void queue(final Tile tile) {
+		pending.put(tile.first, tile);
+		if (!draining && tile.first == next) {
+			draining = true;
+			executor.execute(this::drain);
+		}
+	}
+
+	/** Records the first failure, and drops the tiles awaiting writing. */
+	private void fail(final Exception e) {
+		if (failure == null) failure = e;
+		pending.clear();
+		pendingBytes = 0;
+	}
+
+	private void drain() {
+		while (true) {
+			final Tile tile;
+			synchronized (this) {
+				tile = pending.get(next);
+				if (tile == null || failure != null) {
+					draining = false;
+					notifyAll();
+					return;
+				}
+			}
+			try {
+				sink.write(tile);
+			}
+			catch (final Exception e) {
+				synchronized (this) {
+					fail(e);
+					draining = false;
+					notifyAll();
+				}
+				return;
+			}
+			synchronized (this) {
+				if (pending.remove(next) != null) pendingBytes -= tile.data.length;
+				next = tile.last + 1;
+				notifyAll();
+			}
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		if (failure == null) return;
+		if (failure instanceof IOException) {
+			throw new IOException(failure.getMessage(), failure);
+		}
+		throw new IOException(failure);
+	}
+
+	// -- Helper classes --
+
+	/** Writes one tile to the destination. */
+	interface TileSink {
+
+		void write(Tile tile) throws Exception;
+	}
+
+	/**
+	 * Encodes one tile. Called concurrently, so implementations must be
+	 * thread-safe.
+	 */
+	interface TileEncoder {
+
+		/**
+		 * @return a tile with the same sequence numbers and region, holding the
+		 *         encoded data
+		 */
+		Tile encode(Tile tile) throws Exception;
+	}
+
+	/** A region of one plane, covering a range of sequence numbers. */
+	static final class Tile {
+
+		final long first;
+
+		final long last;
+
+		final int imageIndex;
+
+		final long planeIndex;
+
+		final int x, y, w, h;
+
+		final byte[] data;
+
+		Tile(final long first, final long last, final int imageIndex,
+			final long planeIndex, final int x, final int y, final int w,
+			final int h, final byte[] data)
+		{
+			this.first = first;
+			this.last = last;
+			this.imageIndex = imageIndex;
+			this.planeIndex = planeIndex;
+			this.x = x;
+			this.y = y;
+			this.w = w;
+			this.h = h;
+			this.data = data;
+		}
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import loci.common.IRandomAccess;
+import loci.formats.IFormatReader;
+
+/**
+ * Tries Bio-Formats readers on a dataset concurrently, and picks the one
+ * {@link loci.formats.ImageReader} would: the first, in priority order, which
+ * accepts it.
+ * <p>
+ * Readers are first asked in order whether the name alone identifies the
+ * dataset, which needs no I/O. Only readers of higher priority than the first
+ * one accepting the name then check the contents, each on a pool thread with
+ * its own source mapped to the dataset's id. Bio-Formats keeps id mappings
+ * per thread, so the trials do not see each other's sources.
+ * </p>
+ */
+final class ReaderTrials {
+
+	// -- Constructor --
+
+	private ReaderTrials() {
+		// NB: prevent instantiation of utility class.
+	}
+
+	// -- Utility methods --
+
+	/**
+	 * @param sources Creates a fresh source of the dataset for each trial.
+	 * @return the first of the given readers which accepts the dataset, or
+	 *         null if none does
+	 */
+	static IFormatReader firstMatch(final IFormatReader[] readers,
+		final String id, final Callable<IRandomAccess> sources,
+		final ExecutorService executor) throws InterruptedException
+	{
+		int byName = readers.length;
+		for (int i = 0; i < readers.length; i++) {
+			if (readers[i].isThisType(id, false)) {
+				byName = i;
+				break;
+			}
+		}
+
+		final List<Future<Boolean>> trials = new ArrayList<>(byName);
+		for (int i = 0; i < byName; i++) {
+			final IFormatReader reader = readers[i];
+			trials.add(executor.submit(() -> trial(reader, id, sources)));
+		}
+		try {
+			// NB: a reader only wins once all readers before it have declined
+			for (int i = 0; i < trials.size(); i++) {
+				try {
+					if (trials.get(i).get()) return readers[i];
+				}
+				catch (final ExecutionException e) {
+					// NB: Bio-Formats treats failed checks as rejections
+				}
+			}
+		}
+		finally {
+			for (final Future<Boolean> trial : trials) {
+				trial.cancel(false);
+			}
+		}
+		return byName < readers.length ? readers[byName] : null;
+	}
+
+	// -- Helper methods --
+
+	private static boolean trial(final IFormatReader reader, final String id,
+		final Callable<IRandomAccess> sources) throws Exception
+	{
+		final IRandomAccess source = sources.call();
+		loci.common.Location.getIdMap().put(id, source);
+		try {
+			return reader.isThisType(id, true);
+		}
+		finally {
+			loci.common.Location.getIdMap().remove(id);
+			source.close();
+		}
+	}
+}
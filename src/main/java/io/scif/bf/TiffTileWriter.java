@@ -0,0 +1,414 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf;
+
+import io.scif.ImageMetadata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import loci.common.RandomAccessOutputStream;
+import loci.formats.FormatException;
+import loci.formats.FormatTools;
+import loci.formats.codec.CodecOptions;
+import loci.formats.meta.MetadataRetrieve;
+import loci.formats.ome.OMEXMLMetadata;
+import loci.formats.ome.OMEXMLMetadataImpl;
+import loci.formats.out.TiffWriter;
+import loci.formats.tiff.IFD;
+import loci.formats.tiff.PhotoInterp;
+import loci.formats.tiff.TiffCompression;
+import loci.formats.tiff.TiffSaver;
+import ome.xml.meta.MetadataConverter;
+import ome.xml.model.BinData;
+import ome.xml.model.Image;
+import ome.xml.model.OME;
+import ome.xml.model.Pixels;
+import ome.xml.model.TiffData;
+import ome.xml.model.primitives.NonNegativeInteger;
+
+import net.imagej.axis.Axes;
+
+/**
+ * Writes a TIFF or OME-TIFF file from tiles compressed in parallel.
+ * <p>
+ * Bio-Formats compresses inside {@code saveBytes}, so its writers compress
+ * the tiles of a file one at a time. Here each tile, or each strip of an
+ * untiled plane, is compressed with {@link TiffCompression} by
+ * {@link #encode}, which may be called from any number of threads. The
+ * compressed data is appended in sequence by {@link #write}, and
+ * {@link #finish} then writes the IFDs locating it with a {@link TiffSaver}.
+ * </p>
+ * <p>
+ * In an OME-TIFF, the lower resolutions of each pyramid (see
+ * {@link BioFormatsFormat.Metadata#getResolutionCount}) are written as
+ * SubIFDs of the full resolution planes, as Bio-Formats reads them.
+ * Otherwise, they are written as images of their own.
+ * </p>
+ */
+final class TiffTileWriter implements Closeable {
+
+	// -- Constants --
+
+	/**
+	 * Bytes of pixels beyond which a BigTIFF is written, leaving room for the
+	 * IFDs and for data which does not compress.
+	 */
+	private static final long BIG_TIFF_BYTES = 0xF0000000L;
+
+	// -- Fields --
+
+	private final BioFormatsFormat.Metadata meta;
+
+	/** OME model written to the first IFD, or null for a plain TIFF. */
+	private final OMEXMLMetadata omeMeta;
+
+	private final TiffCompression compression;
+
+	/** Whether the planes are tiled, rather than stored in strips. */
+	private final boolean tiled;
+
+	/** Width and height of the tiles or strips of each image. */
+	private final int[] chunkWidths, chunkHeights;
+
+	/** Sequence number of the first tile or strip of each image. */
+	private final long[] firstChunks;
+
+	/** Whether each image is a lower resolution, written as a SubIFD. */
+	private final boolean[] levels;
+
+	/** Tags shared by the planes of each image. */
+	private final IFD[] templates;
+
+	/** Offset and length of each compressed tile or strip. */
+	private final long[] offsets, byteCounts;
+
+	private final boolean bigTiff;
+
+	private final RandomAccessOutputStream out;
+
+	private final TiffSaver saver;
+
+	// -- Constructors --
+
+	/**
+	 * Creates the file and writes its header.
+	 *
+	 * @param retrieve OME model to write, or null for a plain TIFF.
+	 * @param compression Name of the compression, as for {@link TiffWriter}, or
+	 *          null for none.
+	 * @param firstChunks Sequence number of the first tile or strip of each
+	 *          image, followed by the total number.
+	 */
+	TiffTileWriter(final String path, final BioFormatsFormat.Metadata meta,
+		final MetadataRetrieve retrieve, final String compression,
+		final boolean tiled, final int[] chunkWidths, final int[] chunkHeights,
+		final long[] firstChunks) throws FormatException, IOException
+	{
+		final int imageCount = meta.getImageCount();
+		final long total = firstChunks[imageCount];
+		if (total > Integer.MAX_VALUE) {
+			throw new FormatException("Too many tiles to write: " + total);
+		}
+		this.meta = meta;
+		this.compression = compression(compression);
+		this.tiled = tiled;
+		this.chunkWidths = chunkWidths;
+		this.chunkHeights = chunkHeights;
+		this.firstChunks = firstChunks;
+		levels = new boolean[imageCount];
+		if (retrieve != null) {
+			omeMeta = new OMEXMLMetadataImpl();
+			MetadataConverter.convertMetadata(retrieve, omeMeta);
+			for (int i = 0; i < imageCount; i += meta.getResolutionCount(i)) {
+				for (int r = 1; r < meta.getResolutionCount(i); r++) {
+					if (meta.get(i + r).getPlaneCount() != meta.get(i).getPlaneCount()) {
+						throw new FormatException("Resolution " + r + " of image " + i +
+							" has a different number of planes");
+					}
+					levels[i + r] = true;
+				}
+			}
+		}
+		else omeMeta = null;
+		offsets = new long[(int) total];
+		byteCounts = new long[(int) total];
+
+		final String lower = path.toLowerCase();
+		bigTiff = lower.endsWith(".btf") || lower.endsWith(".tf2") || lower
+			.endsWith(".tf8") || pixelBytes(meta) > BIG_TIFF_BYTES;
+		final boolean littleEndian = meta.get(0).isLittleEndian();
+		templates = new IFD[imageCount];
+		for (int i = 0; i < imageCount; i++) {
+			templates[i] = template(i, littleEndian);
+		}
+
+		out = new RandomAccessOutputStream(path);
+		saver = new TiffSaver(out, path);
+		saver.setLittleEndian(littleEndian);
+		saver.setBigTiff(bigTiff);
+		saver.writeHeader();
+	}
+
+	// -- TiffTileWriter methods --
+
+	/**
+	 * Whether the images of the given metadata can be written: their planes
+	 * hold X and Y, and at most interleaved channels, and all images have the
+	 * same byte order.
+	 */
+	static boolean canWrite(final BioFormatsFormat.Metadata meta) {
+		final boolean littleEndian = meta.get(0).isLittleEndian();
+		for (int i = 0; i < meta.getImageCount(); i++) {
+			final ImageMetadata imgMeta = meta.get(i);
+			final int interleaved = imgMeta.getInterleavedAxisCount();
+			if (imgMeta.isLittleEndian() != littleEndian || imgMeta
+				.getPixelType() == FormatTools.BIT || interleaved > 1 || imgMeta
+					.getPlanarAxisCount() != interleaved + 2 || imgMeta.getAxisIndex(
+						Axes.X) != interleaved || imgMeta.getAxisIndex(
+							Axes.Y) != interleaved + 1 || interleaved == 1 && imgMeta
+								.getAxisIndex(Axes.CHANNEL) != 0)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Whether the planes are tiled, so that edge tiles are padded. */
+	boolean isTiled() {
+		return tiled;
+	}
+
+	/**
+	 * Compresses one tile or strip. Tiles must be padded to the full tile
+	 * size. Thread-safe.
+	 */
+	OrderedTileWriter.Tile encode(final OrderedTileWriter.Tile tile)
+		throws FormatException
+	{
+		final CodecOptions options = compression.getCompressionCodecOptions(
+			templates[tile.imageIndex]);
+		options.width = tiled ? chunkWidths[tile.imageIndex] : tile.w;
+		options.height = tiled ? chunkHeights[tile.imageIndex] : tile.h;
+		return new OrderedTileWriter.Tile(tile.first, tile.last, tile.imageIndex,
+			tile.planeIndex, tile.x, tile.y, tile.w, tile.h, compression.compress(
+				tile.data, options));
+	}
+
+	/** Appends one compressed tile or strip; called in sequence. */
+	void write(final OrderedTileWriter.Tile tile) throws IOException {
+		offsets[(int) tile.first] = out.getFilePointer();
+		byteCounts[(int) tile.first] = tile.data.length;
+		out.write(tile.data);
+	}
+
+	/**
+	 * Writes the IFDs of all planes, once all tiles have been written, and
+	 * points the header at the first.
+	 */
+	void finish() throws IOException {
+		try {
+			final String xml = omeMeta == null ? null : omeXML();
+			// NB: IFDs are written last to first, so that each IFD can point to
+			// the one after it
+			long next = 0;
+			for (int i = meta.getImageCount() - 1; i >= 0; i--) {
+				if (levels[i]) continue;
+				final int resolutions = omeMeta == null ? 1 : meta
+					.getResolutionCount(i);
+				for (long p = meta.get(i).getPlaneCount() - 1; p >= 0; p--) {
+					final IFD ifd = planeIFD(i, p);
+					if (resolutions > 1) {
+						final long[] subIFDs = new long[resolutions - 1];
+						for (int r = 1; r < resolutions; r++) {
+							subIFDs[r - 1] = writeIFD(planeIFD(i + r, p), 0);
+						}
+						ifd.putIFDValue(IFD.SUB_IFD, subIFDs);
+					}
+					if (i == 0 && p == 0 && xml != null) {
+						ifd.putIFDValue(IFD.IMAGE_DESCRIPTION, xml);
+					}
+					next = writeIFD(ifd, next);
+				}
+			}
+			out.seek(bigTiff ? 8 : 4);
+			if (bigTiff) out.writeLong(next);
+			else out.writeInt((int) next);
+		}
+		catch (final FormatException e) {
+			throw new IOException(e);
+		}
+	}
+
+	// -- Closeable API methods --
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+	// -- Helper methods --
+
+	/** @return the tags shared by all planes of the given image */
+	private IFD template(final int imageIndex, final boolean littleEndian) {
+		final ImageMetadata imgMeta = meta.get(imageIndex);
+		final int pixelType = imgMeta.getPixelType();
+		final int samples = imgMeta.getInterleavedAxisCount() > 0 ? (int) imgMeta
+			.getAxisLength(Axes.CHANNEL) : 1;
+		final int[] bits = new int[samples];
+		Arrays.fill(bits, 8 * FormatTools.getBytesPerPixel(pixelType));
+		final int[] sampleFormat = new int[samples];
+		Arrays.fill(sampleFormat, FormatTools.isFloatingPoint(pixelType) ? 3
+			: FormatTools.isSigned(pixelType) ? 2 : 1);
+
+		final IFD ifd = new IFD();
+		ifd.put(IFD.LITTLE_ENDIAN, littleEndian);
+		ifd.put(IFD.BIG_TIFF, bigTiff);
+		if (levels[imageIndex]) ifd.putIFDValue(IFD.NEW_SUBFILE_TYPE, 1L);
+		ifd.putIFDValue(IFD.IMAGE_WIDTH, imgMeta.getAxisLength(Axes.X));
+		ifd.putIFDValue(IFD.IMAGE_LENGTH, imgMeta.getAxisLength(Axes.Y));
+		ifd.putIFDValue(IFD.BITS_PER_SAMPLE, bits);
+		ifd.putIFDValue(IFD.COMPRESSION, compression.getCode());
+		ifd.putIFDValue(IFD.PHOTOMETRIC_INTERPRETATION, samples == 1
+			? PhotoInterp.BLACK_IS_ZERO.getCode() : PhotoInterp.RGB.getCode());
+		ifd.putIFDValue(IFD.SAMPLES_PER_PIXEL, samples);
+		ifd.putIFDValue(IFD.PLANAR_CONFIGURATION, 1);
+		ifd.putIFDValue(IFD.SAMPLE_FORMAT, sampleFormat);
+		if (tiled) {
+			ifd.putIFDValue(IFD.TILE_WIDTH, (long) chunkWidths[imageIndex]);
+			ifd.putIFDValue(IFD.TILE_LENGTH, (long) chunkHeights[imageIndex]);
+		}
+		else {
+			ifd.putIFDValue(IFD.ROWS_PER_STRIP, new long[] {
+				chunkHeights[imageIndex] });
+		}
+		return ifd;
+	}
+
+	/** @return the IFD of the given plane, locating its tiles or strips */
+	private IFD planeIFD(final int imageIndex, final long planeIndex) {
+		final long chunks = (firstChunks[imageIndex + 1] -
+			firstChunks[imageIndex]) / meta.get(imageIndex).getPlaneCount();
+		final int from = (int) (firstChunks[imageIndex] + planeIndex * chunks);
+		final int to = (int) (from + chunks);
+		final IFD ifd = new IFD(templates[imageIndex]);
+		ifd.putIFDValue(tiled ? IFD.TILE_OFFSETS : IFD.STRIP_OFFSETS, Arrays
+			.copyOfRange(offsets, from, to));
+		ifd.putIFDValue(tiled ? IFD.TILE_BYTE_COUNTS : IFD.STRIP_BYTE_COUNTS,
+			Arrays.copyOfRange(byteCounts, from, to));
+		return ifd;
+	}
+
+	/**
+	 * Writes an IFD at the end of the file, on a word boundary.
+	 *
+	 * @return the offset of the IFD
+	 */
+	private long writeIFD(final IFD ifd, final long next) throws FormatException,
+		IOException
+	{
+		long offset = out.length();
+		out.seek(offset);
+		if (offset % 2 != 0) {
+			out.write(0);
+			offset++;
+		}
+		saver.writeIFD(ifd, next);
+		return offset;
+	}
+
+	/**
+	 * @return the OME-XML of the full resolution images, with a
+	 *         {@code TiffData} mapping the IFDs of each to its planes
+	 */
+	private String omeXML() throws FormatException {
+		final OME root = (OME) omeMeta.getRoot();
+		final List<Image> images = root.copyImageList();
+		if (images.size() != meta.getImageCount()) {
+			throw new FormatException("The OME model describes " + images.size() +
+				" images rather than " + meta.getImageCount());
+		}
+		int ifd = 0;
+		for (int i = 0; i < images.size(); i++) {
+			// NB: the model of a parsed dataset describes its own pixel data
+			final Pixels pixels = images.get(i).getPixels();
+			for (final TiffData tiffData : pixels.copyTiffDataList()) {
+				pixels.removeTiffData(tiffData);
+			}
+			for (final BinData binData : pixels.copyBinDataList()) {
+				pixels.removeBinData(binData);
+			}
+			pixels.setMetadataOnly(null);
+			if (levels[i]) continue;
+			final int planeCount = (int) meta.get(i).getPlaneCount();
+			omeMeta.setTiffDataIFD(new NonNegativeInteger(ifd), i, 0);
+			omeMeta.setTiffDataPlaneCount(new NonNegativeInteger(planeCount), i, 0);
+			ifd += planeCount;
+		}
+		for (int i = images.size() - 1; i >= 0; i--) {
+			if (levels[i]) root.removeImage(images.get(i));
+		}
+		return omeMeta.dumpXML();
+	}
+
+	/** @return the TIFF compression with the given name */
+	private static TiffCompression compression(final String name)
+		throws FormatException
+	{
+		if (name == null || name.equals(TiffWriter.COMPRESSION_UNCOMPRESSED)) {
+			return TiffCompression.UNCOMPRESSED;
+		}
+		if (name.equals(TiffWriter.COMPRESSION_LZW)) return TiffCompression.LZW;
+		if (name.equals(TiffWriter.COMPRESSION_JPEG)) return TiffCompression.JPEG;
+		if (name.equals(TiffWriter.COMPRESSION_J2K)) {
+			return TiffCompression.JPEG_2000;
+		}
+		if (name.equals(TiffWriter.COMPRESSION_J2K_LOSSY)) {
+			return TiffCompression.JPEG_2000_LOSSY;
+		}
+		if (name.equals(TiffWriter.COMPRESSION_ZLIB)) {
+			return TiffCompression.DEFLATE;
+		}
+		throw new FormatException("Unsupported TIFF compression: " + name);
+	}
+
+	/** @return the total bytes of pixels of all images */
+	private static long pixelBytes(final BioFormatsFormat.Metadata meta) {
+		long bytes = 0;
+		for (int i = 0; i < meta.getImageCount(); i++) {
+			final ImageMetadata imgMeta = meta.get(i);
+			bytes += imgMeta.getPlaneCount() * imgMeta.getPlaneSize();
+		}
+		return bytes;
+	}
+}
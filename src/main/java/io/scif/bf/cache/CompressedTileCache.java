@@ -0,0 +1,260 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.cache;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+
+/**
+ * A least recently used cache of decoded tiles, which holds them compressed
+ * and is bounded by their compressed size. Tiles are byte shuffled by sample
+ * width before compression, grouping the similar high and low bytes of
+ * neighbouring samples, and then deflated at the fastest level. Tiles which do
+ * not shrink are kept as they are.
+ * <p>
+ * Compression runs on the thread storing a tile and decompression on the
+ * thread reading it, outside of any lock, so concurrent readers only contend
+ * for the bookkeeping.
+ * </p>
+ */
+public class CompressedTileCache {
+
+	// -- Constants --
+
+	/** Estimated footprint of a cache entry, besides its data. */
+	private static final long ENTRY_BYTES = 96;
+
+	// -- Fields --
+
+	private final long maxSize;
+
+	private final Map<TileKey, Entry> entries = new LinkedHashMap<>(16, 0.75f,
+		true);
+
+	/** Footprint of all entries, in bytes. */
+	private long size;
+
+	/** Decoded length of all entries, in bytes. */
+	private long rawSize;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder evictions = new LongAdder();
+
+	// -- Constructor --
+
+	/**
+	 * @param maxSize Maximum number of bytes the compressed tiles may occupy.
+	 */
+	public CompressedTileCache(final long maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("Invalid cache size: " + maxSize);
+		}
+		this.maxSize = maxSize;
+	}
+
+	// -- CompressedTileCache API Methods --
+
+	/**
+	 * Copies the decoded tile of the given key into {@code dest}, if cached.
+	 *
+	 * @return true if the tile was cached
+	 */
+	public boolean get(final TileKey key, final byte[] dest) {
+		final Entry entry;
+		synchronized (this) {
+			entry = entries.get(key);
+		}
+		if (entry == null || dest.length < entry.length) {
+			misses.increment();
+			return false;
+		}
+		try {
+			entry.decompress(dest);
+		}
+		catch (final DataFormatException e) {
+			// NB: a corrupt entry is simply decoded again
+			remove(key, entry);
+			misses.increment();
+			return false;
+		}
+		hits.increment();
+		return true;
+	}
+
+	/**
+	 * Compresses and stores the first {@code length} bytes of {@code src} as
+	 * the decoded tile of the given key, evicting the least recently used tiles
+	 * as needed.
+	 *
+	 * @param sampleBytes Width of one sample, by which the tile is shuffled.
+	 */
+	public void put(final TileKey key, final byte[] src, final int length,
+		final int sampleBytes)
+	{
+		final Entry entry = Entry.compress(src, length, sampleBytes);
+		final long footprint = entry.footprint();
+		if (footprint > maxSize) return;
+		synchronized (this) {
+			final Entry previous = entries.put(key, entry);
+			if (previous != null) subtract(previous);
+			size += footprint;
+			rawSize += length;
+			final Iterator<Entry> it = entries.values().iterator();
+			while (size > maxSize && it.hasNext()) {
+				final Entry eldest = it.next();
+				it.remove();
+				subtract(eldest);
+				evictions.increment();
+			}
+		}
+	}
+
+	/** Discards all tiles. */
+	public synchronized void clear() {
+		entries.clear();
+		size = 0;
+		rawSize = 0;
+	}
+
+	/** @return the maximum number of bytes the compressed tiles may occupy. */
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	/** @return the number of bytes the compressed tiles occupy. */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/** @return the number of bytes the cached tiles take up decoded. */
+	public synchronized long getRawSize() {
+		return rawSize;
+	}
+
+	/** @return the number of cached tiles. */
+	public synchronized int getCount() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the decoded size of the cached tiles divided by their footprint,
+	 *         i.e. how many times more tiles fit than if they were held decoded.
+	 *         1 if the cache is empty.
+	 */
+	public synchronized double getCompressionRatio() {
+		return size == 0 ? 1 : (double) rawSize / size;
+	}
+
+	/** @return the number of lookups which found their tile. */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/** @return the number of lookups which did not find their tile. */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/** @return the number of tiles evicted to make room for others. */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	// -- Object methods --
+
+	@Override
+	public String toString() {
+		return String.format(
+			"%d tiles, %d of %d bytes (%.2fx), %d hits, %d misses, %d evictions",
+			getCount(), getSize(), maxSize, getCompressionRatio(), getHits(),
+			getMisses(), getEvictions());
+	}
+
+	// -- Helper methods --
+
+	private synchronized void remove(final TileKey key, final Entry entry) {
+		if (entries.remove(key, entry)) subtract(entry);
+	}
+
+	private void subtract(final Entry entry) {
+		size -= entry.footprint();
+		rawSize -= entry.length;
+	}
+
+	// -- Helper classes --
+
+	/** A cached tile, deflated or as it was decoded. */
+	private static final class Entry {
+
+		private final byte[] data;
+
+		/** Decoded length of the tile. */
+		private final int length;
+
+		/** Sample width the tile is shuffled by, or 0 if it is not deflated. */
+		private final int sampleBytes;
+
+		private Entry(final byte[] data, final int length,
+			final int sampleBytes)
+		{
+			this.data = data;
+			this.length = length;
+			this.sampleBytes = sampleBytes;
+		}
+
+		private static Entry compress(final byte[] src, final int length,
+			final int sampleBytes)
+		{
+			final int width = Math.max(sampleBytes, 1);
+			final byte[] data = TileCodec.compress(src, length, width);
+			return data == null ? new Entry(Arrays.copyOf(src, length), length, 0)
+				: new Entry(data, length, width);
+		}
+
+		private void decompress(final byte[] dest) throws DataFormatException {
+			if (sampleBytes == 0) {
+				System.arraycopy(data, 0, dest, 0, length);
+				return;
+			}
+			TileCodec.decompress(data, 0, data.length, dest, length, sampleBytes);
+		}
+
+		private long footprint() {
+			return data.length + ENTRY_BYTES;
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.cache;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+
+/**
+ * Default {@link TileCacheService} implementation.
+ * <p>
+ * Tiles are cached on disk if the {@code scifio.bf.tiles.dir} system property
+ * names a directory. Its size is bounded by the {@code scifio.bf.tiles.size}
+ * system property, in bytes, which defaults to {@value #DEFAULT_MAX_SIZE}.
+ * Tiles are stored compressed unless {@code scifio.bf.tiles.compress} is
+ * {@code false}.
+ * </p>
+ */
+@Plugin(type = Service.class)
+public class DefaultTileCacheService extends AbstractService implements
+	TileCacheService
+{
+
+	// -- Constants --
+
+	/** System property holding the directory of the disk cache. */
+	public static final String DIRECTORY_PROPERTY = "scifio.bf.tiles.dir";
+
+	/** System property holding the bound on the disk cache, in bytes. */
+	public static final String MAX_SIZE_PROPERTY = "scifio.bf.tiles.size";
+
+	/** System property holding whether tiles are stored compressed. */
+	public static final String COMPRESS_PROPERTY = "scifio.bf.tiles.compress";
+
+	/** Default bound on the disk cache, in bytes. */
+	public static final long DEFAULT_MAX_SIZE = 16L << 30;
+
+	// -- Fields --
+
+	private volatile DiskTileCache diskCache;
+
+	// -- Service methods --
+
+	@Override
+	public void initialize() {
+		final String dir = System.getProperty(DIRECTORY_PROPERTY);
+		if (dir == null || dir.isEmpty()) return;
+		final String compress = System.getProperty(COMPRESS_PROPERTY);
+		try {
+			diskCache = new DiskTileCache(Paths.get(dir), Long.getLong(
+				MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE), compress == null || Boolean
+					.parseBoolean(compress));
+		}
+		catch (final IOException | IllegalArgumentException e) {
+			log().error("Cannot open tile cache in " + dir, e);
+		}
+	}
+
+	// -- TileCacheService methods --
+
+	@Override
+	public DiskTileCache getDiskCache() {
+		return diskCache;
+	}
+
+	@Override
+	public void setDiskCache(final DiskTileCache cache) {
+		diskCache = cache;
+	}
+}
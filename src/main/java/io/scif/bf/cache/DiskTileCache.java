@@ -0,0 +1,486 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+
+/**
+ * A least recently used cache of decoded tiles in a local directory, bounded
+ * by the size of its files. It persists across processes: the files found in
+ * the directory when the cache is created are indexed, least recently used
+ * first by their modification time, which is refreshed on each hit.
+ * <p>
+ * Tiles are grouped by {@link Dataset}, identified by a key which changes
+ * whenever any file of the dataset changes, so stale tiles are never read and
+ * age out of the cache. Each tile is written to a temporary file which is then
+ * renamed into place, and carries a checksum. A tile left incomplete by a
+ * crash is thus either absent or detected and discarded when read.
+ * </p>
+ * <p>
+ * NB: several processes may share a directory, but each only bounds the
+ * tiles it has indexed.
+ * </p>
+ */
+public class DiskTileCache {
+
+	// -- Constants --
+
+	private static final String SUFFIX = ".tile";
+
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private static final int MAGIC = 0x53424654;
+
+	/** Magic, decoded length, sample width, payload length and checksum. */
+	private static final int HEADER_BYTES = 20;
+
+	/** Attempts to create a temporary file in a dataset directory. */
+	private static final int CREATE_ATTEMPTS = 5;
+
+	// -- Fields --
+
+	private final Path directory;
+
+	private final long maxSize;
+
+	private final boolean compress;
+
+	/** Sizes of the indexed tile files, least recently used first. */
+	private final Map<Path, Long> files = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long size;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder writes = new LongAdder();
+
+	private final LongAdder evictions = new LongAdder();
+
+	private final LongAdder corrupt = new LongAdder();
+
+	// -- Constructor --
+
+	/**
+	 * Opens the cache in the given directory, creating it if needed. Tiles
+	 * left by earlier processes are indexed, and temporary files left by
+	 * interrupted writes are deleted.
+	 *
+	 * @param maxSize Maximum number of bytes the tile files may occupy.
+	 * @param compress Whether tiles are stored compressed, rather than as they
+	 *          were decoded.
+	 */
+	public DiskTileCache(final Path directory, final long maxSize,
+		final boolean compress) throws IOException
+	{
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("Invalid cache size: " + maxSize);
+		}
+		this.directory = Files.createDirectories(directory);
+		this.maxSize = maxSize;
+		this.compress = compress;
+		scan();
+	}
+
+	// -- DiskTileCache API Methods --
+
+	/**
+	 * Computes the key of a dataset from the reader which decodes it and the
+	 * path, size and modification time of each of its files.
+	 */
+	public static String datasetKey(final String readerClass,
+		final String version, final String... paths)
+	{
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		final StringBuilder sb = new StringBuilder(readerClass).append('\n')
+			.append(version).append('\n');
+		for (final String path : paths) {
+			final File file = new File(path);
+			sb.append(file.getAbsolutePath()).append('\t').append(file.length())
+				.append('\t').append(file.lastModified()).append('\n');
+		}
+		final StringBuilder key = new StringBuilder();
+		for (final byte b : digest.digest(sb.toString().getBytes(
+			StandardCharsets.UTF_8)))
+		{
+			key.append(String.format("%02x", b));
+		}
+		return key.toString();
+	}
+
+	/** @return a view of the tiles of the dataset with the given key. */
+	public Dataset dataset(final String key) {
+		return new Dataset(key);
+	}
+
+	/** @return the directory holding the tiles. */
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/** @return the maximum number of bytes the tile files may occupy. */
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	/** @return whether tiles are stored compressed. */
+	public boolean isCompress() {
+		return compress;
+	}
+
+	/** @return the number of bytes the indexed tile files occupy. */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/** @return the number of indexed tile files. */
+	public synchronized int getCount() {
+		return files.size();
+	}
+
+	/** @return the number of lookups which found their tile. */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/** @return the number of lookups which did not find their tile. */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/** @return the number of tiles written. */
+	public long getWrites() {
+		return writes.sum();
+	}
+
+	/** @return the number of tiles deleted to make room for others. */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/** @return the number of damaged tiles found and discarded. */
+	public long getCorrupt() {
+		return corrupt.sum();
+	}
+
+	// -- Object methods --
+
+	@Override
+	public String toString() {
+		return String.format(
+			"%s: %d tiles, %d of %d bytes, %d hits, %d misses, %d writes, " +
+				"%d evictions, %d corrupt", directory, getCount(), getSize(), maxSize,
+			getHits(), getMisses(), getWrites(), getEvictions(), getCorrupt());
+	}
+
+	// -- Helper methods --
+
+	/** Indexes the tiles in the directory and deletes temporary files. */
+	private void scan() throws IOException {
+		final List<Path> found = new ArrayList<>();
+		final Map<Path, FileTime> times = new LinkedHashMap<>();
+		try (final Stream<Path> paths = Files.walk(directory, 2)) {
+			final Iterator<Path> it = paths.iterator();
+			while (it.hasNext()) {
+				final Path path = it.next();
+				final String name = path.getFileName().toString();
+				if (!Files.isRegularFile(path)) continue;
+				if (name.endsWith(TEMP_SUFFIX)) Files.deleteIfExists(path);
+				else if (name.endsWith(SUFFIX)) {
+					found.add(path);
+					times.put(path, Files.getLastModifiedTime(path));
+				}
+			}
+		}
+		found.sort(Comparator.comparing(times::get));
+		synchronized (this) {
+			for (final Path path : found) {
+				final long length = Files.size(path);
+				files.put(path, length);
+				size += length;
+			}
+			evict();
+		}
+	}
+
+	private boolean get(final Path path, final byte[] dest) {
+		synchronized (this) {
+			if (files.get(path) == null) {
+				misses.increment();
+				return false;
+			}
+		}
+		final byte[] bytes;
+		try {
+			bytes = Files.readAllBytes(path);
+		}
+		catch (final IOException e) {
+			// NB: deleted by another process, or unreadable
+			discard(path);
+			misses.increment();
+			return false;
+		}
+		if (!decode(bytes, dest)) {
+			corrupt.increment();
+			discard(path);
+			misses.increment();
+			return false;
+		}
+		try {
+			Files.setLastModifiedTime(path, FileTime.fromMillis(System
+				.currentTimeMillis()));
+		}
+		catch (final IOException e) {
+			// NB: only affects the eviction order of later processes
+		}
+		hits.increment();
+		return true;
+	}
+
+	private void put(final Path path, final byte[] src, final int length,
+		final int sampleBytes) throws IOException
+	{
+		final byte[] bytes = encode(src, length, sampleBytes);
+		if (bytes.length > maxSize) return;
+		final Path temp = createTempFile(path);
+		try {
+			Files.write(temp, bytes);
+			try {
+				Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch (final AtomicMoveNotSupportedException e) {
+				Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+		writes.increment();
+		synchronized (this) {
+			final Long previous = files.put(path, (long) bytes.length);
+			if (previous != null) size -= previous;
+			size += bytes.length;
+			evict();
+		}
+	}
+
+	/**
+	 * Creates a temporary file beside the given tile file, creating its
+	 * dataset directory if needed.
+	 */
+	private static Path createTempFile(final Path path) throws IOException {
+		for (int attempt = 1;; attempt++) {
+			try {
+				final Path parent = Files.createDirectories(path.getParent());
+				return Files.createTempFile(parent, path.getFileName().toString(),
+					TEMP_SUFFIX);
+			}
+			catch (final NoSuchFileException | FileAlreadyExistsException e) {
+				// NB: the directory was deleted with the last tile of the dataset,
+				// by an eviction or another process, while being created or used
+				if (attempt == CREATE_ATTEMPTS) throw e;
+			}
+		}
+	}
+
+	/** Deletes least recently used tiles until the cache is within bounds. */
+	private synchronized void evict() {
+		final Iterator<Map.Entry<Path, Long>> it = files.entrySet().iterator();
+		while (size > maxSize && it.hasNext()) {
+			final Map.Entry<Path, Long> eldest = it.next();
+			it.remove();
+			size -= eldest.getValue();
+			delete(eldest.getKey());
+			evictions.increment();
+		}
+	}
+
+	/** Removes a tile from the index and deletes its file. */
+	private void discard(final Path path) {
+		synchronized (this) {
+			final Long length = files.remove(path);
+			if (length != null) size -= length;
+		}
+		delete(path);
+	}
+
+	/** Deletes a tile file, and its dataset directory once empty. */
+	private static void delete(final Path path) {
+		try {
+			Files.deleteIfExists(path);
+			Files.deleteIfExists(path.getParent());
+		}
+		catch (final DirectoryNotEmptyException e) {
+			// NB: other tiles of the dataset remain
+		}
+		catch (final IOException e) {
+			// NB: the file is no longer indexed, so at worst it is left over
+		}
+	}
+
+	private byte[] encode(final byte[] src, final int length,
+		final int sampleBytes)
+	{
+		final int width = Math.max(sampleBytes, 1);
+		final byte[] compressed = compress ? TileCodec.compress(src, length,
+			width) : null;
+		final byte[] payload = compressed == null ? src : compressed;
+		final int payloadLength = compressed == null ? length : compressed.length;
+		final CRC32 crc = new CRC32();
+		crc.update(payload, 0, payloadLength);
+		final ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES +
+			payloadLength);
+		buffer.putInt(MAGIC).putInt(length).putInt(compressed == null ? 0 : width)
+			.putInt(payloadLength).putInt((int) crc.getValue());
+		buffer.put(payload, 0, payloadLength);
+		return buffer.array();
+	}
+
+	/** @return true if the tile file was intact and decoded into dest. */
+	private static boolean decode(final byte[] bytes, final byte[] dest) {
+		if (bytes.length < HEADER_BYTES) return false;
+		final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		final int magic = buffer.getInt();
+		final int length = buffer.getInt();
+		final int sampleBytes = buffer.getInt();
+		final int payloadLength = buffer.getInt();
+		final int checksum = buffer.getInt();
+		if (magic != MAGIC || length < 0 || length > dest.length ||
+			payloadLength != bytes.length - HEADER_BYTES)
+		{
+			return false;
+		}
+		final CRC32 crc = new CRC32();
+		crc.update(bytes, HEADER_BYTES, payloadLength);
+		if ((int) crc.getValue() != checksum) return false;
+		if (sampleBytes == 0) {
+			if (payloadLength != length) return false;
+			System.arraycopy(bytes, HEADER_BYTES, dest, 0, length);
+			return true;
+		}
+		try {
+			TileCodec.decompress(bytes, HEADER_BYTES, payloadLength, dest, length,
+				sampleBytes);
+		}
+		catch (final DataFormatException e) {
+			return false;
+		}
+		return true;
+	}
+
+	// -- Helper classes --
+
+	/**
+	 * The tiles of one dataset. A tile is stored per image, which identifies
+	 * the series and resolution, plane and region.
+	 */
+	public final class Dataset {
+
+		private final String key;
+
+		private final Path path;
+
+		private Dataset(final String key) {
+			this.key = key;
+			path = directory.resolve(key);
+		}
+
+		/** @return the key identifying the dataset. */
+		public String getKey() {
+			return key;
+		}
+
+		/** @return the cache holding the tiles. */
+		public DiskTileCache getCache() {
+			return DiskTileCache.this;
+		}
+
+		/**
+		 * Copies the decoded tile of the given key into {@code dest}, if cached
+		 * and intact.
+		 *
+		 * @return true if the tile was read
+		 */
+		public boolean get(final TileKey tile, final byte[] dest) {
+			return DiskTileCache.this.get(resolve(tile), dest);
+		}
+
+		/**
+		 * Stores the first {@code length} bytes of {@code src} as the decoded
+		 * tile of the given key, evicting the least recently used tiles as
+		 * needed.
+		 *
+		 * @param sampleBytes Width of one sample, by which a compressed tile is
+		 *          shuffled.
+		 */
+		public void put(final TileKey tile, final byte[] src, final int length,
+			final int sampleBytes) throws IOException
+		{
+			DiskTileCache.this.put(resolve(tile), src, length, sampleBytes);
+		}
+
+		private Path resolve(final TileKey tile) {
+			return path.resolve(tile.getImageIndex() + "-" + tile.getPlaneIndex() +
+				"-" + tile.getX() + "-" + tile.getY() + "-" + tile.getWidth() + "x" +
+				tile.getHeight() + SUFFIX);
+		}
+	}
+}
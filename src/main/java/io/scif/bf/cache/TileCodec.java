@@ -0,0 +1,148 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.cache;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses decoded tiles: they are byte shuffled by sample width, grouping
+ * the similar high and low bytes of neighbouring samples, and then deflated at
+ * the fastest level.
+ */
+final class TileCodec {
+
+	// -- Constants --
+
+	private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal
+		.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+
+	private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal
+		.withInitial(Inflater::new);
+
+	// -- Constructor --
+
+	private TileCodec() {
+		// NB: prevent instantiation of utility class.
+	}
+
+	// -- Utility methods --
+
+	/**
+	 * Compresses the first {@code length} bytes of {@code src}.
+	 *
+	 * @param sampleBytes Width of one sample, by which the tile is shuffled.
+	 * @return the compressed bytes, or null if they would not be smaller than
+	 *         the tile
+	 */
+	static byte[] compress(final byte[] src, final int length,
+		final int sampleBytes)
+	{
+		byte[] input = src;
+		if (sampleBytes > 1) {
+			input = new byte[length];
+			shuffle(src, input, length, sampleBytes);
+		}
+		final Deflater deflater = DEFLATERS.get();
+		deflater.reset();
+		deflater.setInput(input, 0, length);
+		deflater.finish();
+		// NB: output which would not be smaller than the tile is abandoned
+		final byte[] out = new byte[length];
+		int n = 0;
+		while (!deflater.finished() && n < out.length) {
+			n += deflater.deflate(out, n, out.length - n);
+		}
+		return deflater.finished() ? Arrays.copyOf(out, n) : null;
+	}
+
+	/**
+	 * Decompresses a tile of {@code length} bytes, as compressed by
+	 * {@link #compress}, into {@code dest}.
+	 */
+	static void decompress(final byte[] data, final int offset, final int count,
+		final byte[] dest, final int length, final int sampleBytes)
+		throws DataFormatException
+	{
+		final byte[] output = sampleBytes > 1 ? new byte[length] : dest;
+		final Inflater inflater = INFLATERS.get();
+		inflater.reset();
+		inflater.setInput(data, offset, count);
+		int n = 0;
+		while (n < length) {
+			final int inflated = inflater.inflate(output, n, length - n);
+			if (inflated == 0 && (inflater.finished() || inflater.needsInput() ||
+				inflater.needsDictionary()))
+			{
+				throw new DataFormatException("Truncated tile");
+			}
+			n += inflated;
+		}
+		if (sampleBytes > 1) unshuffle(output, dest, length, sampleBytes);
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Groups byte {@code b} of every sample of {@code src} into the
+	 * {@code b}th run of {@code dest}. Trailing bytes of an incomplete sample
+	 * are copied as they are.
+	 */
+	private static void shuffle(final byte[] src, final byte[] dest,
+		final int length, final int sampleBytes)
+	{
+		final int samples = length / sampleBytes;
+		for (int b = 0; b < sampleBytes; b++) {
+			final int run = b * samples;
+			for (int i = 0, s = b; i < samples; i++, s += sampleBytes) {
+				dest[run + i] = src[s];
+			}
+		}
+		final int tail = samples * sampleBytes;
+		System.arraycopy(src, tail, dest, tail, length - tail);
+	}
+
+	/** Reverses {@link #shuffle}. */
+	private static void unshuffle(final byte[] src, final byte[] dest,
+		final int length, final int sampleBytes)
+	{
+		final int samples = length / sampleBytes;
+		for (int b = 0; b < sampleBytes; b++) {
+			final int run = b * samples;
+			for (int i = 0, s = b; i < samples; i++, s += sampleBytes) {
+				dest[s] = src[run + i];
+			}
+		}
+		final int tail = samples * sampleBytes;
+		System.arraycopy(src, tail, dest, tail, length - tail);
+	}
+}
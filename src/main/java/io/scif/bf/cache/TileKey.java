@@ -0,0 +1,117 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.cache;
+
+/**
+ * Identifies a decoded region of a plane of a dataset.
+ */
+public final class TileKey {
+
+	// -- Fields --
+
+	private final int imageIndex;
+
+	private final long planeIndex;
+
+	private final int x;
+
+	private final int y;
+
+	private final int width;
+
+	private final int height;
+
+	// -- Constructor --
+
+	public TileKey(final int imageIndex, final long planeIndex, final int x,
+		final int y, final int width, final int height)
+	{
+		this.imageIndex = imageIndex;
+		this.planeIndex = planeIndex;
+		this.x = x;
+		this.y = y;
+		this.width = width;
+		this.height = height;
+	}
+
+	// -- TileKey API Methods --
+
+	public int getImageIndex() {
+		return imageIndex;
+	}
+
+	public long getPlaneIndex() {
+		return planeIndex;
+	}
+
+	public int getX() {
+		return x;
+	}
+
+	public int getY() {
+		return y;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	// -- Object methods --
+
+	@Override
+	public boolean equals(final Object o) {
+		if (this == o) return true;
+		if (!(o instanceof TileKey)) return false;
+		final TileKey other = (TileKey) o;
+		return imageIndex == other.imageIndex && planeIndex == other.planeIndex &&
+			x == other.x && y == other.y && width == other.width &&
+			height == other.height;
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = imageIndex;
+		hash = 31 * hash + Long.hashCode(planeIndex);
+		hash = 31 * hash + x;
+		hash = 31 * hash + y;
+		hash = 31 * hash + width;
+		return 31 * hash + height;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d/%d [%d, %d, %dx%d]", imageIndex, planeIndex, x,
+			y, width, height);
+	}
+}
@@ -0,0 +1,323 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.identify;
+
+import io.scif.bf.BioFormatsFormat;
+import io.scif.bf.DatasetIndex;
+import io.scif.bf.wrapper.DataHandleAdapter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.scijava.io.handle.DataHandle;
+import org.scijava.io.handle.DataHandleService;
+import org.scijava.io.location.FileLocation;
+import org.scijava.io.location.Location;
+
+import loci.formats.FormatException;
+import loci.formats.IFormatReader;
+import loci.formats.ImageReader;
+import loci.formats.UnknownFormatException;
+import loci.formats.in.DynamicMetadataOptions;
+import loci.formats.in.MetadataLevel;
+
+/**
+ * Identifies the formats of many locations at once, using the Bio-Formats
+ * readers of a {@link BioFormatsFormat}.
+ * <p>
+ * Locations are identified on a fixed pool of worker threads, each with its
+ * own {@link ImageReader}. At most a few locations per worker are queued at
+ * any time, so arbitrarily long streams of locations can be identified in
+ * bounded memory. Results are handed to a callback as they complete, in no
+ * particular order.
+ * </p>
+ * <p>
+ * When grouping is enabled, files accepted by a multi-file reader are opened
+ * once, at the minimum metadata level, to find the other files of their
+ * dataset, which is recorded in the format's {@link DatasetIndex}. Files of
+ * a known dataset are then reported as members of it without being detected
+ * again. Siblings being identified concurrently with the first file of their
+ * dataset may still be detected individually.
+ * </p>
+ */
+public class BulkIdentifier implements Closeable {
+
+	// -- Constants --
+
+	/** Number of locations queued per worker thread. */
+	private static final int QUEUED_PER_THREAD = 4;
+
+	// -- Fields --
+
+	private final BioFormatsFormat format;
+
+	private final DataHandleService dataHandleService;
+
+	private final int threads;
+
+	private final ExecutorService executor;
+
+	private final ThreadLocal<ImageReader> readers;
+
+	private volatile boolean groupDatasets = true;
+
+	// -- Constructors --
+
+	/**
+	 * Creates an identifier for files only, with one worker per processor.
+	 */
+	public BulkIdentifier(final BioFormatsFormat format) {
+		this(format, null, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates an identifier with the given number of workers.
+	 *
+	 * @param dataHandleService service used to open locations which are not
+	 *          files; may be null, in which case such locations fail
+	 */
+	public BulkIdentifier(final BioFormatsFormat format,
+		final DataHandleService dataHandleService, final int threads)
+	{
+		if (threads < 1) {
+			throw new IllegalArgumentException("Invalid thread count: " + threads);
+		}
+		this.format = format;
+		this.dataHandleService = dataHandleService;
+		this.threads = threads;
+		executor = Executors.newFixedThreadPool(threads, BioFormatsFormat
+			.daemonThreads("bf-identify-"));
+		readers = ThreadLocal.withInitial(() -> {
+			// NB: creating a reader may refresh the format's reader classes.
+			synchronized (format) {
+				return format.createImageReader();
+			}
+		});
+	}
+
+	// -- BulkIdentifier API Methods --
+
+	/** @return true if multi-file datasets are grouped. Defaults to true. */
+	public boolean isGroupDatasets() {
+		return groupDatasets;
+	}
+
+	/** Sets whether multi-file datasets are grouped. */
+	public void setGroupDatasets(final boolean groupDatasets) {
+		this.groupDatasets = groupDatasets;
+	}
+
+	/**
+	 * Identifies all regular files below the given directory.
+	 *
+	 * @param results receives each result as it completes, from the worker
+	 *          threads
+	 * @return the statistics of the run
+	 */
+	public IdentificationStatistics identify(final Path directory,
+		final Consumer<Identification> results) throws IOException
+	{
+		try (final Stream<Path> files = Files.walk(directory)) {
+			return identify(files.filter(Files::isRegularFile).map(
+				p -> (Location) new FileLocation(p.toFile())), results);
+		}
+	}
+
+	/**
+	 * Identifies each of the given locations, returning once all of them have
+	 * been identified or the calling thread is interrupted. Locations which
+	 * fail are reported with their error.
+	 *
+	 * @param results receives each result as it completes, from the worker
+	 *          threads. If it throws, no further locations are queued, and the
+	 *          exception is rethrown once the queued ones finish.
+	 * @return the statistics of the run
+	 * @throws RejectedExecutionException if this identifier was closed
+	 */
+	public IdentificationStatistics identify(final Stream<Location> locations,
+		final Consumer<Identification> results)
+	{
+		final IdentificationStatistics stats = new IdentificationStatistics();
+		final int permits = threads * QUEUED_PER_THREAD;
+		final Semaphore queued = new Semaphore(permits);
+		final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+		try {
+			final Iterator<Location> iter = locations.iterator();
+			while (iter.hasNext() && failure.get() == null) {
+				final Location location = iter.next();
+				queued.acquire();
+				final Runnable task = () -> {
+					try {
+						final Identification result = identify(location);
+						stats.record(result);
+						results.accept(result);
+					}
+					catch (final RuntimeException e) {
+						failure.compareAndSet(null, e);
+					}
+					finally {
+						queued.release();
+					}
+				};
+				try {
+					executor.execute(task);
+				}
+				catch (final RejectedExecutionException e) {
+					queued.release();
+					throw e;
+				}
+			}
+			// wait for the queued locations to finish
+			queued.acquire(permits);
+			queued.release(permits);
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		stats.finish();
+		if (failure.get() != null) throw failure.get();
+		return stats;
+	}
+
+	/**
+	 * Identifies a single location on the calling thread. Any exception of
+	 * the readers is reported as the error of the identification.
+	 */
+	public Identification identify(final Location location) {
+		final long start = System.nanoTime();
+		final DatasetIndex index = format.getDatasetIndex();
+		final String path = location instanceof FileLocation
+			? ((FileLocation) location).getFile().getAbsolutePath() : null;
+
+		if (groupDatasets && path != null) {
+			final DatasetIndex.Dataset dataset = index.lookup(path);
+			if (dataset != null) {
+				return new Identification(location, formatName(dataset
+					.getReaderClass()), dataset.getReaderClass(), dataset.getId(), !path
+						.equals(dataset.getId()), null, System.nanoTime() - start);
+			}
+		}
+
+		DataHandle<Location> handle = null;
+		String id = path;
+		try {
+			if (id == null) {
+				if (dataHandleService == null) {
+					throw new IOException("No DataHandleService for " + location);
+				}
+				handle = dataHandleService.create(location);
+				id = location.getName();
+				loci.common.Location.getIdMap().put(id, new DataHandleAdapter(
+					handle));
+			}
+			final IFormatReader r;
+			try {
+				r = readers.get().getReader(id);
+			}
+			catch (final UnknownFormatException e) {
+				return new Identification(location, null, null, null, false, null,
+					System.nanoTime() - start);
+			}
+			final String readerClass = r.getClass().getName();
+			String dataset = null;
+			if (groupDatasets && path != null && !r.isSingleFile(path)) {
+				dataset = group(r, path, readerClass);
+			}
+			return new Identification(location, r.getFormat(), readerClass,
+				dataset, false, null, System.nanoTime() - start);
+		}
+		catch (final FormatException | IOException | RuntimeException e) {
+			// NB: a reader failing on one location must not stop the others
+			return new Identification(location, null, null, null, false, e, System
+				.nanoTime() - start);
+		}
+		finally {
+			if (handle != null) {
+				loci.common.Location.getIdMap().remove(id);
+				try {
+					handle.close();
+				}
+				catch (final IOException e) {
+					// ignore
+				}
+			}
+		}
+	}
+
+	// -- Closeable API Methods --
+
+	/** Stops the worker threads. */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Opens the dataset of the given file to record its files in the dataset
+	 * index.
+	 *
+	 * @return the absolute path of the file the dataset is opened from
+	 */
+	private String group(final IFormatReader r, final String path,
+		final String readerClass) throws FormatException, IOException
+	{
+		r.setGroupFiles(true);
+		r.setMetadataOptions(new DynamicMetadataOptions(MetadataLevel.MINIMUM));
+		try {
+			r.setId(path);
+			format.getDatasetIndex().add(r, readerClass);
+		}
+		finally {
+			r.close();
+		}
+		final DatasetIndex.Dataset dataset = format.getDatasetIndex().lookup(path);
+		return dataset == null ? null : dataset.getId();
+	}
+
+	/** Gets the format name of one of this format's readers, by class name. */
+	private String formatName(final String readerClass) {
+		for (final IFormatReader r : readers.get().getReaders()) {
+			if (r.getClass().getName().equals(readerClass)) return r.getFormat();
+		}
+		return null;
+	}
+}
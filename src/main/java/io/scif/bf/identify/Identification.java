@@ -0,0 +1,132 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.identify;
+
+import org.scijava.io.location.Location;
+
+/**
+ * The result of identifying the format of a single location.
+ */
+public final class Identification {
+
+	// -- Fields --
+
+	private final Location location;
+
+	private final String format;
+
+	private final String readerClass;
+
+	private final String dataset;
+
+	private final boolean grouped;
+
+	private final Throwable error;
+
+	private final long nanos;
+
+	// -- Constructor --
+
+	Identification(final Location location, final String format,
+		final String readerClass, final String dataset, final boolean grouped,
+		final Throwable error, final long nanos)
+	{
+		this.location = location;
+		this.format = format;
+		this.readerClass = readerClass;
+		this.dataset = dataset;
+		this.grouped = grouped;
+		this.error = error;
+		this.nanos = nanos;
+	}
+
+	// -- Identification API Methods --
+
+	/** @return the identified location. */
+	public Location getLocation() {
+		return location;
+	}
+
+	/** @return true if a reader accepted the location. */
+	public boolean isIdentified() {
+		return readerClass != null;
+	}
+
+	/** @return the name of the format, or null if not identified. */
+	public String getFormat() {
+		return format;
+	}
+
+	/** @return the class name of the accepting reader, or null. */
+	public String getReaderClass() {
+		return readerClass;
+	}
+
+	/**
+	 * @return the absolute path of the file a multi-file dataset containing
+	 *         this location is opened from, or null if the location is not part
+	 *         of a known multi-file dataset.
+	 */
+	public String getDataset() {
+		return dataset;
+	}
+
+	/**
+	 * @return true if the location was recognized as a member of an already
+	 *         known multi-file dataset, without being detected on its own.
+	 */
+	public boolean isGrouped() {
+		return grouped;
+	}
+
+	/** @return the error which stopped identification, or null. */
+	public Throwable getError() {
+		return error;
+	}
+
+	/** @return the time taken to identify the location, in nanoseconds. */
+	public long getNanos() {
+		return nanos;
+	}
+
+	// -- Object API Methods --
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder(location.getURI() == null
+			? location.getName() : location.getURI().toString());
+		sb.append(": ");
+		if (error != null) sb.append("error: ").append(error);
+		else if (format == null) sb.append("unknown");
+		else sb.append(format).append(" (").append(readerClass).append(")");
+		if (dataset != null) sb.append(" in ").append(dataset);
+		return sb.toString();
+	}
+}
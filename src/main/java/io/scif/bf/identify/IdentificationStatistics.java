@@ -0,0 +1,132 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.identify;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts and throughput of a bulk identification run. Safe to read while
+ * the run is in progress.
+ */
+public final class IdentificationStatistics {
+
+	// -- Fields --
+
+	private final long startNanos = System.nanoTime();
+
+	private volatile long endNanos;
+
+	private final LongAdder identified = new LongAdder();
+
+	private final LongAdder unidentified = new LongAdder();
+
+	private final LongAdder grouped = new LongAdder();
+
+	private final LongAdder failed = new LongAdder();
+
+	private final LongAdder nanos = new LongAdder();
+
+	// -- IdentificationStatistics API Methods --
+
+	/** @return the number of locations processed so far. */
+	public long getCount() {
+		return identified.sum() + unidentified.sum() + failed.sum();
+	}
+
+	/** @return the number of locations a reader accepted. */
+	public long getIdentified() {
+		return identified.sum();
+	}
+
+	/** @return the number of locations no reader accepted. */
+	public long getUnidentified() {
+		return unidentified.sum();
+	}
+
+	/**
+	 * @return the number of identified locations recognized as members of a
+	 *         known multi-file dataset.
+	 */
+	public long getGrouped() {
+		return grouped.sum();
+	}
+
+	/** @return the number of locations whose identification failed. */
+	public long getFailed() {
+		return failed.sum();
+	}
+
+	/** @return the wall-clock time of the run so far, in milliseconds. */
+	public long getElapsedMillis() {
+		final long end = endNanos == 0 ? System.nanoTime() : endNanos;
+		return TimeUnit.NANOSECONDS.toMillis(end - startNanos);
+	}
+
+	/** @return the number of locations processed per second of wall time. */
+	public double getThroughput() {
+		final long elapsed = getElapsedMillis();
+		return elapsed == 0 ? 0 : getCount() * 1000.0 / elapsed;
+	}
+
+	/**
+	 * @return the mean time spent identifying a location, summed over all
+	 *         workers, in microseconds.
+	 */
+	public double getMeanMicros() {
+		final long count = getCount();
+		return count == 0 ? 0 : nanos.sum() / 1000.0 / count;
+	}
+
+	// -- Object API Methods --
+
+	@Override
+	public String toString() {
+		return String.format(
+			"%d locations (%d identified, %d grouped, %d unknown, %d failed) " +
+				"in %d ms: %.1f/s, %.1f us each", getCount(), getIdentified(),
+			getGrouped(), getUnidentified(), getFailed(), getElapsedMillis(),
+			getThroughput(), getMeanMicros());
+	}
+
+	// -- Helper methods --
+
+	void record(final Identification result) {
+		if (result.getError() != null) failed.increment();
+		else if (result.isIdentified()) identified.increment();
+		else unidentified.increment();
+		if (result.isGrouped()) grouped.increment();
+		nanos.add(result.getNanos());
+	}
+
+	void finish() {
+		endNanos = System.nanoTime();
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.memory;
+
+import org.scijava.service.SciJavaService;
+
+/**
+ * Keeps the estimated total footprint of the open datasets of the
+ * Bio-Formats compatibility layer within a budget.
+ * <p>
+ * Open {@link io.scif.bf.BioFormatsFormat.Metadata} register themselves as
+ * {@link MemoryConsumer}s. Whenever the budget is exceeded, the least recently
+ * used consumers first release their caches, then are parked: their readers
+ * are closed, and reopened on their next access.
+ * </p>
+ */
+public interface BioFormatsMemoryService extends SciJavaService {
+
+	/** @return the budget in bytes, or 0 if unlimited. */
+	long getBudget();
+
+	/** Sets the budget in bytes; 0 means unlimited. */
+	void setBudget(long bytes);
+
+	/** Starts tracking the given consumer and enforces the budget. */
+	void register(MemoryConsumer consumer);
+
+	/** Stops tracking the given consumer. */
+	void unregister(MemoryConsumer consumer);
+
+	/** @return the summed estimated footprint of all tracked consumers. */
+	long getFootprint();
+
+	/** @return the number of tracked consumers. */
+	int getConsumerCount();
+
+	/**
+	 * Releases caches and parks consumers, least recently used first, until the
+	 * total footprint is within budget or nothing more can be released.
+	 *
+	 * @return the estimated footprint after enforcement
+	 */
+	long enforce();
+}
@@ -0,0 +1,169 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.memory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+
+/**
+ * Default {@link BioFormatsMemoryService} implementation. Consumers are held
+ * weakly, so datasets which are never closed do not leak.
+ * <p>
+ * The initial budget can be set with the {@code scifio.bf.memory.budget}
+ * system property, in bytes with an optional {@code k}, {@code m} or
+ * {@code g} suffix. By default the budget is unlimited.
+ * </p>
+ */
+@Plugin(type = Service.class)
+public class DefaultBioFormatsMemoryService extends AbstractService implements
+	BioFormatsMemoryService
+{
+
+	// -- Constants --
+
+	/** System property holding the initial budget. */
+	public static final String BUDGET_PROPERTY = "scifio.bf.memory.budget";
+
+	// -- Parameters --
+
+	@Parameter
+	private LogService log;
+
+	// -- Fields --
+
+	private final Set<MemoryConsumer> consumers = Collections.newSetFromMap(
+		new WeakHashMap<>());
+
+	private volatile long budget = parseBytes(System.getProperty(
+		BUDGET_PROPERTY));
+
+	// -- BioFormatsMemoryService methods --
+
+	@Override
+	public long getBudget() {
+		return budget;
+	}
+
+	@Override
+	public void setBudget(final long bytes) {
+		budget = Math.max(0, bytes);
+		enforce();
+	}
+
+	@Override
+	public void register(final MemoryConsumer consumer) {
+		synchronized (consumers) {
+			consumers.add(consumer);
+		}
+		enforce();
+	}
+
+	@Override
+	public void unregister(final MemoryConsumer consumer) {
+		synchronized (consumers) {
+			consumers.remove(consumer);
+		}
+	}
+
+	@Override
+	public long getFootprint() {
+		long total = 0;
+		for (final MemoryConsumer consumer : snapshot()) {
+			total += consumer.estimateFootprint();
+		}
+		return total;
+	}
+
+	@Override
+	public int getConsumerCount() {
+		synchronized (consumers) {
+			return consumers.size();
+		}
+	}
+
+	@Override
+	public long enforce() {
+		final long limit = budget;
+		long total = getFootprint();
+		if (limit == 0 || total <= limit) return total;
+
+		final List<MemoryConsumer> lru = snapshot();
+		lru.sort(Comparator.comparingLong(MemoryConsumer::getLastAccess));
+		for (final MemoryConsumer consumer : lru) {
+			if (total <= limit) return total;
+			total -= consumer.releaseCaches();
+		}
+		for (final MemoryConsumer consumer : lru) {
+			if (total <= limit) return total;
+			final long before = consumer.estimateFootprint();
+			if (consumer.park()) total -= before - consumer.estimateFootprint();
+		}
+		if (total > limit) {
+			log.debug("Bio-Formats datasets exceed memory budget: " + total +
+				" > " + limit + " bytes");
+		}
+		return total;
+	}
+
+	// -- Helper methods --
+
+	private List<MemoryConsumer> snapshot() {
+		synchronized (consumers) {
+			return new ArrayList<>(consumers);
+		}
+	}
+
+	/** Parses a byte count with an optional k, m or g suffix. */
+	private static long parseBytes(final String value) {
+		if (value == null || value.trim().isEmpty()) return 0;
+		final String v = value.trim().toLowerCase();
+		final char unit = v.charAt(v.length() - 1);
+		final int shift = unit == 'k' ? 10 : unit == 'm' ? 20 : unit == 'g' ? 30
+			: 0;
+		try {
+			final long number = Long.parseLong(shift == 0 ? v : v.substring(0, v
+				.length() - 1));
+			return Math.max(0, number << shift);
+		}
+		catch (final NumberFormatException e) {
+			return 0;
+		}
+	}
+}
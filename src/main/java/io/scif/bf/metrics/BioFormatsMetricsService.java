@@ -0,0 +1,123 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.metrics;
+
+import java.util.Map;
+
+import org.scijava.service.SciJavaService;
+
+/**
+ * Collects timers, counters and byte totals for the hot paths of the
+ * Bio-Formats compatibility layer, tagged by {@link Stage} and by the
+ * Bio-Formats reader class doing the work.
+ * <p>
+ * Format detection runs before any reader has been chosen, so
+ * {@link Stage#DETECTION} is tagged with {@link #DETECTED} or
+ * {@link #NOT_DETECTED} instead of a reader class. Operations which fail
+ * before an {@link loci.formats.ImageReader} has selected a reader are tagged
+ * with {@link #UNKNOWN_READER}.
+ * </p>
+ */
+public interface BioFormatsMetricsService extends SciJavaService {
+
+	/** Tag for detection calls which recognized their source. */
+	String DETECTED = "(detected)";
+
+	/** Tag for detection calls which did not recognize their source. */
+	String NOT_DETECTED = "(not detected)";
+
+	/** Tag for operations of an {@code ImageReader} with no reader selected. */
+	String UNKNOWN_READER = "(unknown)";
+
+	/** @return true iff statistics are currently being collected. */
+	boolean isEnabled();
+
+	/** Turns collection of statistics on or off. */
+	void setEnabled(boolean enabled);
+
+	/**
+	 * Gets the statistics for the given stage and tag, creating them if
+	 * necessary.
+	 */
+	StageStatistics getStatistics(Stage stage, String tag);
+
+	/**
+	 * @return all statistics collected so far, keyed by
+	 *         {@code <stage>:<tag>}.
+	 */
+	Map<String, StageStatistics> getStatistics();
+
+	/** Discards all statistics collected so far. */
+	void reset();
+
+	/**
+	 * Creates a listener which accumulates the I/O of one
+	 * {@link io.scif.bf.wrapper.DataHandleAdapter} into this service.
+	 */
+	default HandleStatistics createHandleStatistics() {
+		return new HandleStatistics(this);
+	}
+
+	/**
+	 * Starts timing an operation.
+	 *
+	 * @return the value to pass to {@link #record}.
+	 */
+	default long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records the end of an operation started with {@link #start()}.
+	 *
+	 * @param byteCount number of bytes produced by the operation, if known.
+	 * @param success false if the operation ended with an exception.
+	 */
+	default void record(final Stage stage, final String tag, final long start,
+		final long byteCount, final boolean success)
+	{
+		if (!isEnabled()) return;
+		final long elapsed = System.nanoTime() - start;
+		final StageStatistics stats = getStatistics(stage, tag);
+		if (success) stats.record(elapsed, byteCount);
+		else stats.recordError(elapsed);
+	}
+
+	/**
+	 * Records the end of an operation started with {@link #start()}, which was
+	 * abandoned because its deadline passed or it was cancelled.
+	 */
+	default void recordTimeout(final Stage stage, final String tag,
+		final long start)
+	{
+		if (!isEnabled()) return;
+		getStatistics(stage, tag).recordTimeout(System.nanoTime() - start);
+	}
+}
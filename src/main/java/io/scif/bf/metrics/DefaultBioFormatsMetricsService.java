@@ -0,0 +1,158 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+
+/**
+ * Default {@link BioFormatsMetricsService} implementation. Statistics are kept
+ * in memory and published over JMX for as long as the service's context is
+ * alive.
+ * <p>
+ * Collection can be disabled at startup by setting the
+ * {@code scifio.bf.metrics} system property to {@code false}.
+ * </p>
+ */
+@Plugin(type = Service.class)
+public class DefaultBioFormatsMetricsService extends AbstractService implements
+	BioFormatsMetricsService, BioFormatsMetricsMXBean
+{
+
+	// -- Constants --
+
+	/** System property which enables or disables collection at startup. */
+	public static final String ENABLED_PROPERTY = "scifio.bf.metrics";
+
+	// -- Parameters --
+
+	@Parameter
+	private LogService log;
+
+	// -- Fields --
+
+	private final ConcurrentMap<String, StageStatistics> statistics =
+		new ConcurrentHashMap<>();
+
+	private volatile boolean enabled = !"false".equals(System.getProperty(
+		ENABLED_PROPERTY));
+
+	private ObjectName objectName;
+
+	// -- BioFormatsMetricsService methods --
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(final boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	@Override
+	public StageStatistics getStatistics(final Stage stage, final String tag) {
+		return statistics.computeIfAbsent(stage + ":" + tag,
+			k -> new StageStatistics());
+	}
+
+	@Override
+	public Map<String, StageStatistics> getStatistics() {
+		return new TreeMap<>(statistics);
+	}
+
+	@Override
+	public void reset() {
+		statistics.clear();
+	}
+
+	// -- BioFormatsMetricsMXBean methods --
+
+	@Override
+	public Map<String, Long> getMetrics() {
+		final Map<String, Long> metrics = new TreeMap<>();
+		for (final Map.Entry<String, StageStatistics> e : statistics.entrySet()) {
+			final String key = e.getKey();
+			final StageStatistics s = e.getValue();
+			metrics.put(key + ":count", s.getCount());
+			metrics.put(key + ":errors", s.getErrorCount());
+			metrics.put(key + ":timeouts", s.getTimeoutCount());
+			metrics.put(key + ":totalNanos", s.getTotalNanos());
+			metrics.put(key + ":maxNanos", s.getMaxNanos());
+			metrics.put(key + ":bytes", s.getBytes());
+			metrics.put(key + ":seeks", s.getSeeks());
+		}
+		return metrics;
+	}
+
+	// -- Service methods --
+
+	@Override
+	public void initialize() {
+		try {
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			objectName = new ObjectName("io.scif.bf:type=BioFormatsMetrics,context=" +
+				Integer.toHexString(System.identityHashCode(getContext())));
+			server.registerMBean(this, objectName);
+		}
+		catch (final JMException | SecurityException exc) {
+			log.warn("Could not register Bio-Formats metrics with JMX", exc);
+			objectName = null;
+		}
+	}
+
+	// -- Disposable methods --
+
+	@Override
+	public void dispose() {
+		if (objectName == null) return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		}
+		catch (final JMException | SecurityException exc) {
+			log.debug(exc);
+		}
+		objectName = null;
+	}
+}
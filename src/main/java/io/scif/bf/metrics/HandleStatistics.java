@@ -0,0 +1,91 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.metrics;
+
+import io.scif.bf.wrapper.DataHandleListener;
+
+/**
+ * {@link DataHandleListener} which counts the bytes and seeks going through
+ * one {@link io.scif.bf.wrapper.DataHandleAdapter}.
+ * <p>
+ * The Bio-Formats reader class is not known until {@code setId} has selected
+ * one, so I/O is accumulated locally until {@link #bind(String)} attributes it
+ * (and all further I/O) to that reader's {@link Stage#HANDLE_IO} statistics.
+ * </p>
+ */
+public class HandleStatistics implements DataHandleListener {
+
+	// -- Fields --
+
+	private final BioFormatsMetricsService service;
+
+	private final StageStatistics pending = new StageStatistics();
+
+	private volatile StageStatistics target;
+
+	// -- Constructor --
+
+	public HandleStatistics(final BioFormatsMetricsService service) {
+		this.service = service;
+	}
+
+	// -- HandleStatistics methods --
+
+	/**
+	 * Attributes all I/O recorded so far, and from now on, to the given reader
+	 * class.
+	 */
+	public synchronized void bind(final String readerClass) {
+		final StageStatistics stats = service.getStatistics(Stage.HANDLE_IO,
+			readerClass);
+		stats.add(pending);
+		pending.reset();
+		target = stats;
+	}
+
+	// -- DataHandleListener methods --
+
+	@Override
+	public void onSeek(final long from, final long to) {
+		if (from != to && service.isEnabled()) stats().recordSeek();
+	}
+
+	@Override
+	public void onRead(final long offset, final long length) {
+		if (service.isEnabled()) stats().recordRead(length);
+	}
+
+	// -- Helper methods --
+
+	private StageStatistics stats() {
+		final StageStatistics t = target;
+		return t == null ? pending : t;
+	}
+}
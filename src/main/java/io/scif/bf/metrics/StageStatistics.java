@@ -0,0 +1,160 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe timers, counters and byte totals for one {@link Stage} and
+ * Bio-Formats reader class.
+ */
+public class StageStatistics {
+
+	// -- Fields --
+
+	private final LongAdder count = new LongAdder();
+
+	private final LongAdder errors = new LongAdder();
+
+	private final LongAdder timeouts = new LongAdder();
+
+	private final LongAdder nanos = new LongAdder();
+
+	private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+	private final LongAdder bytes = new LongAdder();
+
+	private final LongAdder seeks = new LongAdder();
+
+	// -- StageStatistics methods --
+
+	/** Records one successful operation. */
+	public void record(final long elapsedNanos, final long byteCount) {
+		count.increment();
+		nanos.add(elapsedNanos);
+		maxNanos.accumulate(elapsedNanos);
+		if (byteCount > 0) bytes.add(byteCount);
+	}
+
+	/** Records one failed operation. */
+	public void recordError(final long elapsedNanos) {
+		errors.increment();
+		nanos.add(elapsedNanos);
+		maxNanos.accumulate(elapsedNanos);
+	}
+
+	/**
+	 * Records one operation abandoned because its deadline passed or it was
+	 * cancelled. It also counts as failed.
+	 */
+	public void recordTimeout(final long elapsedNanos) {
+		timeouts.increment();
+		recordError(elapsedNanos);
+	}
+
+	/** Records a read of the given size, without timing information. */
+	public void recordRead(final long byteCount) {
+		count.increment();
+		bytes.add(byteCount);
+	}
+
+	/** Records a seek. */
+	public void recordSeek() {
+		seeks.increment();
+	}
+
+	/** Adds all values of {@code other} to this object. */
+	public void add(final StageStatistics other) {
+		count.add(other.getCount());
+		errors.add(other.getErrorCount());
+		timeouts.add(other.getTimeoutCount());
+		nanos.add(other.getTotalNanos());
+		maxNanos.accumulate(other.getMaxNanos());
+		bytes.add(other.getBytes());
+		seeks.add(other.getSeeks());
+	}
+
+	public void reset() {
+		count.reset();
+		errors.reset();
+		timeouts.reset();
+		nanos.reset();
+		maxNanos.reset();
+		bytes.reset();
+		seeks.reset();
+	}
+
+	/** @return the number of successful operations. */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/** @return the number of failed operations. */
+	public long getErrorCount() {
+		return errors.sum();
+	}
+
+	/**
+	 * @return the number of operations abandoned at their deadline, included
+	 *         in the {@link #getErrorCount() failed} ones.
+	 */
+	public long getTimeoutCount() {
+		return timeouts.sum();
+	}
+
+	/** @return the time spent in all operations, in nanoseconds. */
+	public long getTotalNanos() {
+		return nanos.sum();
+	}
+
+	/** @return the time spent in the slowest operation, in nanoseconds. */
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	/** @return the total number of bytes produced or consumed. */
+	public long getBytes() {
+		return bytes.sum();
+	}
+
+	/** @return the number of seeks. */
+	public long getSeeks() {
+		return seeks.sum();
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+			"count=%d, errors=%d, timeouts=%d, totalNanos=%d, maxNanos=%d, " +
+				"bytes=%d, seeks=%d", getCount(), getErrorCount(), getTimeoutCount(),
+			getTotalNanos(), getMaxNanos(), getBytes(), getSeeks());
+	}
+}
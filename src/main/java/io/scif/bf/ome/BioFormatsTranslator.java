@@ -37,7 +37,6 @@ import io.scif.ome.translators.ToOMETranslator;
 import org.scijava.Priority;
 import org.scijava.plugin.Plugin;
 
-import loci.formats.meta.MetadataStore;
 import loci.formats.ome.OMEXMLMetadata;
 
 /**
@@ -78,10 +77,10 @@ public class BioFormatsTranslator {
 		protected void translateFormatMetadata(final BioFormatsFormat.Metadata source,
 			final OMEMetadata dest)
 		{
-			// Just copy the root over
-			MetadataStore store = source.getMetadataStore();
-			if (store != null && store instanceof ome.xml.meta.OMEXMLMetadata) {
-				dest.setRoot((OMEXMLMetadata) store);
+			// Just copy the root over, building it first for compact stores
+			final OMEXMLMetadata store = source.getOMEXMLMetadata();
+			if (store != null) {
+				dest.setRoot(store);
 			}
 		}
 	}
@@ -0,0 +1,287 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.ome;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import loci.formats.meta.DummyMetadata;
+import loci.formats.meta.MetadataStore;
+import ome.units.quantity.Length;
+import ome.xml.model.primitives.Color;
+import ome.xml.model.primitives.PositiveInteger;
+
+/**
+ * A compact {@link MetadataStore} which keeps only the OME fields needed to
+ * build SCIFIO image metadata and color tables: physical pixel sizes, stage
+ * label positions, and channel counts and colors. All other fields are
+ * discarded.
+ * <p>
+ * Use this store in place of a full OME-XML model when parsing very large
+ * datasets where only the image dimensions and calibrations are needed. It
+ * can further be limited to the fields of some images.
+ * </p>
+ *
+ * @see io.scif.bf.BioFormatsConfig#setCompactMetadata
+ */
+public class CompactMetadataStore extends DummyMetadata {
+
+	// -- Fields --
+
+	private final List<ImageEntry> images = new ArrayList<>();
+
+	/** Sorted indices of the images whose fields are kept, or null if all. */
+	private final int[] kept;
+
+	/** Receives the fields of images which are not kept. */
+	private final ImageEntry discarded = new ImageEntry();
+
+	// -- Constructors --
+
+	public CompactMetadataStore() {
+		this(null);
+	}
+
+	/**
+	 * @param kept Sorted indices of the images whose fields are kept; the
+	 *          fields of all others are discarded. Null keeps all images.
+	 */
+	public CompactMetadataStore(final int[] kept) {
+		this.kept = kept == null ? null : kept.clone();
+	}
+
+	// -- CompactMetadataStore API Methods --
+
+	/**
+	 * Copies all fields held by this store into the given store.
+	 */
+	public void copyTo(final MetadataStore dest) {
+		for (int i = 0; i < images.size(); i++) {
+			final ImageEntry image = images.get(i);
+			if (image == null) continue;
+			if (image.physicalSizeX != null) {
+				dest.setPixelsPhysicalSizeX(image.physicalSizeX, i);
+			}
+			if (image.physicalSizeY != null) {
+				dest.setPixelsPhysicalSizeY(image.physicalSizeY, i);
+			}
+			if (image.physicalSizeZ != null) {
+				dest.setPixelsPhysicalSizeZ(image.physicalSizeZ, i);
+			}
+			if (image.stageLabelX != null) dest.setStageLabelX(image.stageLabelX, i);
+			if (image.stageLabelY != null) dest.setStageLabelY(image.stageLabelY, i);
+			if (image.stageLabelZ != null) dest.setStageLabelZ(image.stageLabelZ, i);
+			for (int c = 0; c < image.channelColors.size(); c++) {
+				final Color color = image.channelColors.get(c);
+				if (color != null) dest.setChannelColor(color, i, c);
+			}
+		}
+	}
+
+	// -- MetadataStore API Methods --
+
+	@Override
+	public void setImageID(final String id, final int imageIndex) {
+		image(imageIndex);
+	}
+
+	@Override
+	public void setImageName(final String name, final int imageIndex) {
+		image(imageIndex);
+	}
+
+	@Override
+	public void setPixelsPhysicalSizeX(final Length physicalSizeX,
+		final int imageIndex)
+	{
+		image(imageIndex).physicalSizeX = physicalSizeX;
+	}
+
+	@Override
+	public void setPixelsPhysicalSizeY(final Length physicalSizeY,
+		final int imageIndex)
+	{
+		image(imageIndex).physicalSizeY = physicalSizeY;
+	}
+
+	@Override
+	public void setPixelsPhysicalSizeZ(final Length physicalSizeZ,
+		final int imageIndex)
+	{
+		image(imageIndex).physicalSizeZ = physicalSizeZ;
+	}
+
+	@Override
+	public void setStageLabelX(final Length x, final int imageIndex) {
+		image(imageIndex).stageLabelX = x;
+	}
+
+	@Override
+	public void setStageLabelY(final Length y, final int imageIndex) {
+		image(imageIndex).stageLabelY = y;
+	}
+
+	@Override
+	public void setStageLabelZ(final Length z, final int imageIndex) {
+		image(imageIndex).stageLabelZ = z;
+	}
+
+	@Override
+	public void setChannelID(final String id, final int imageIndex,
+		final int channelIndex)
+	{
+		image(imageIndex).channel(channelIndex);
+	}
+
+	@Override
+	public void setChannelName(final String name, final int imageIndex,
+		final int channelIndex)
+	{
+		image(imageIndex).channel(channelIndex);
+	}
+
+	@Override
+	public void setChannelSamplesPerPixel(final PositiveInteger samplesPerPixel,
+		final int imageIndex, final int channelIndex)
+	{
+		image(imageIndex).channel(channelIndex);
+	}
+
+	@Override
+	public void setChannelColor(final Color color, final int imageIndex,
+		final int channelIndex)
+	{
+		image(imageIndex).channel(channelIndex);
+		image(imageIndex).channelColors.set(channelIndex, color);
+	}
+
+	// -- MetadataRetrieve API Methods --
+
+	@Override
+	public int getImageCount() {
+		return images.size();
+	}
+
+	@Override
+	public int getChannelCount(final int imageIndex) {
+		final ImageEntry image = get(imageIndex);
+		return image == null ? 0 : image.channelColors.size();
+	}
+
+	@Override
+	public Color getChannelColor(final int imageIndex, final int channelIndex) {
+		final ImageEntry image = get(imageIndex);
+		return image == null || channelIndex >= image.channelColors.size()
+			? null : image.channelColors.get(channelIndex);
+	}
+
+	@Override
+	public Length getPixelsPhysicalSizeX(final int imageIndex) {
+		final ImageEntry image = get(imageIndex);
+		return image == null ? null : image.physicalSizeX;
+	}
+
+	@Override
+	public Length getPixelsPhysicalSizeY(final int imageIndex) {
+		final ImageEntry image = get(imageIndex);
+		return image == null ? null : image.physicalSizeY;
+	}
+
+	@Override
+	public Length getPixelsPhysicalSizeZ(final int imageIndex) {
+		final ImageEntry image = get(imageIndex);
+		return image == null ? null : image.physicalSizeZ;
+	}
+
+	@Override
+	public Length getStageLabelX(final int imageIndex) {
+		final ImageEntry image = get(imageIndex);
+		return image == null ? null : image.stageLabelX;
+	}
+
+	@Override
+	public Length getStageLabelY(final int imageIndex) {
+		final ImageEntry image = get(imageIndex);
+		return image == null ? null : image.stageLabelY;
+	}
+
+	@Override
+	public Length getStageLabelZ(final int imageIndex) {
+		final ImageEntry image = get(imageIndex);
+		return image == null ? null : image.stageLabelZ;
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Gets the entry of the given image, creating it if needed, or a throwaway
+	 * entry if the image is not kept.
+	 */
+	private ImageEntry image(final int imageIndex) {
+		if (kept != null && Arrays.binarySearch(kept, imageIndex) < 0) {
+			return discarded;
+		}
+		while (images.size() <= imageIndex) {
+			images.add(null);
+		}
+		ImageEntry image = images.get(imageIndex);
+		if (image == null) {
+			image = new ImageEntry();
+			images.set(imageIndex, image);
+		}
+		return image;
+	}
+
+	/** Gets the entry of the given image, or null if there is none. */
+	private ImageEntry get(final int imageIndex) {
+		return imageIndex < 0 || imageIndex >= images.size() ? null : images.get(
+			imageIndex);
+	}
+
+	// -- Helper classes --
+
+	/** The fields kept for a single image. */
+	private static class ImageEntry {
+
+		private Length physicalSizeX, physicalSizeY, physicalSizeZ;
+
+		private Length stageLabelX, stageLabelY, stageLabelZ;
+
+		/** Color of each channel; its size is the channel count. */
+		private final List<Color> channelColors = new ArrayList<>(1);
+
+		private void channel(final int channelIndex) {
+			while (channelColors.size() <= channelIndex) {
+				channelColors.add(null);
+			}
+		}
+	}
+}
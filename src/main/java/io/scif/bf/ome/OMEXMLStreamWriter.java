@@ -0,0 +1,470 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.ome;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import loci.formats.ome.OMEXMLMetadata;
+import ome.xml.meta.MetadataRoot;
+import ome.xml.model.OME;
+import ome.xml.model.OMEModelObject;
+
+/**
+ * Writes the OME-XML of a metadata store directly to an output stream, one
+ * top-level element at a time.
+ * <p>
+ * Unlike {@link OMEXMLMetadata#dumpXML()}, the document is never held in
+ * memory as a whole: only the DOM of the element currently being written
+ * exists at any time, so memory use is bounded by the largest single
+ * {@code Image}, {@code Plate} or other top-level element rather than by the
+ * size of the dataset. Each series can also be written as a document of its
+ * own, containing its {@code Image} and the elements it references.
+ * </p>
+ * <p>
+ * The OME model of a {@link io.scif.bf.BioFormatsFormat.Metadata} is available
+ * from its {@code getOMEXMLMetadata()} method.
+ * </p>
+ */
+public class OMEXMLStreamWriter {
+
+	// -- Constants --
+
+	private static final String XSI =
+		"http://www.w3.org/2001/XMLSchema-instance";
+
+	private static final String ENCODING = "UTF-8";
+
+	// -- Fields --
+
+	private final OME root;
+
+	private final XMLOutputFactory outputFactory;
+
+	private final DocumentBuilder documentBuilder;
+
+	// -- Constructors --
+
+	/**
+	 * Creates a writer for the OME model of the given metadata.
+	 *
+	 * @throws IllegalArgumentException if the metadata has no OME model root
+	 */
+	public OMEXMLStreamWriter(final OMEXMLMetadata meta) {
+		final MetadataRoot metadataRoot = meta.getRoot();
+		if (!(metadataRoot instanceof OME)) {
+			throw new IllegalArgumentException("Unsupported metadata root: " +
+				metadataRoot);
+		}
+		root = (OME) metadataRoot;
+		outputFactory = XMLOutputFactory.newInstance();
+		outputFactory.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, true);
+		try {
+			final DocumentBuilderFactory factory = DocumentBuilderFactory
+				.newInstance();
+			factory.setNamespaceAware(true);
+			documentBuilder = factory.newDocumentBuilder();
+		}
+		catch (final ParserConfigurationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// -- OMEXMLStreamWriter API Methods --
+
+	/** @return the number of series which can be written individually. */
+	public int getSeriesCount() {
+		return root.sizeOfImageList();
+	}
+
+	/**
+	 * Writes the complete OME-XML document to the given stream. The stream is
+	 * flushed but not closed.
+	 */
+	public void write(final OutputStream out) throws IOException {
+		try {
+			final XMLStreamWriter xml = start(out);
+			write(xml, root.getRights());
+			write(xml, root.sizeOfProjectList(), root::getProject);
+			write(xml, root.sizeOfDatasetList(), root::getDataset);
+			write(xml, root.sizeOfFolderList(), root::getFolder);
+			write(xml, root.sizeOfExperimentList(), root::getExperiment);
+			write(xml, root.sizeOfPlateList(), root::getPlate);
+			write(xml, root.sizeOfScreenList(), root::getScreen);
+			write(xml, root.sizeOfExperimenterList(), root::getExperimenter);
+			write(xml, root.sizeOfExperimenterGroupList(),
+				root::getExperimenterGroup);
+			write(xml, root.sizeOfInstrumentList(), root::getInstrument);
+			write(xml, root.sizeOfImageList(), root::getImage);
+			write(xml, root.getStructuredAnnotations());
+			write(xml, root.sizeOfROIList(), root::getROI);
+			write(xml, root.getBinaryOnly());
+			end(xml);
+		}
+		catch (final XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Writes an OME-XML document containing only the given series to the given
+	 * stream. The stream is flushed but not closed.
+	 * <p>
+	 * The experiments, experimenters, experimenter groups, instruments,
+	 * annotations and ROIs the series references, directly or through each
+	 * other, are written along with its {@code Image}. References to anything
+	 * else, such as other images, are left out, so the document is valid on
+	 * its own.
+	 * </p>
+	 */
+	public void writeSeries(final int series, final OutputStream out)
+		throws IOException
+	{
+		final Document doc = documentBuilder.newDocument();
+		final Element image = root.getImage(series).asXMLElement(doc);
+
+		// top-level elements which may be referenced, by the IDs within them
+		final Map<String, Element> targets = new HashMap<>();
+		final List<Element> experiments = elements(doc, root
+			.sizeOfExperimentList(), root::getExperiment, targets);
+		final List<Element> experimenters = elements(doc, root
+			.sizeOfExperimenterList(), root::getExperimenter, targets);
+		final List<Element> groups = elements(doc, root
+			.sizeOfExperimenterGroupList(), root::getExperimenterGroup, targets);
+		final List<Element> instruments = elements(doc, root
+			.sizeOfInstrumentList(), root::getInstrument, targets);
+		// NB: ROIs and annotations may be numerous, so their DOMs are only
+		// built once referenced
+		final Map<String, Integer> rois = new HashMap<>();
+		for (int i = 0; i < root.sizeOfROIList(); i++) {
+			rois.put(root.getROI(i).getID(), i);
+		}
+		final Map<Integer, Element> roiElements = new HashMap<>();
+		Element annotations = null;
+
+		// follow the references from the image
+		final Set<Element> included = Collections.newSetFromMap(
+			new IdentityHashMap<>());
+		final Deque<Element> pending = new ArrayDeque<>();
+		included.add(image);
+		pending.add(image);
+		while (!pending.isEmpty()) {
+			for (final Element ref : references(pending.pop())) {
+				final String id = ref.getAttribute("ID");
+				Element target = targets.get(id);
+				if (target == null && rois.containsKey(id)) {
+					final int index = rois.get(id);
+					target = root.getROI(index).asXMLElement(doc);
+					roiElements.put(index, target);
+					rois.remove(id);
+				}
+				if (target == null && annotations == null && localName(ref).equals(
+					"AnnotationRef") && root.getStructuredAnnotations() != null)
+				{
+					annotations = root.getStructuredAnnotations().asXMLElement(doc);
+					for (final Element annotation : children(annotations)) {
+						targets.put(annotation.getAttribute("ID"), annotation);
+					}
+					target = targets.get(id);
+				}
+				if (target != null && included.add(target)) pending.add(target);
+			}
+		}
+
+		// drop the references which do not resolve within the document
+		final Set<String> defined = new HashSet<>();
+		for (final Element element : included) {
+			collectIDs(element, defined);
+		}
+		for (final Element element : included) {
+			for (final Element ref : references(element)) {
+				if (!defined.contains(ref.getAttribute("ID"))) {
+					ref.getParentNode().removeChild(ref);
+				}
+			}
+		}
+		if (annotations != null) {
+			for (final Element annotation : children(annotations)) {
+				if (!included.contains(annotation)) {
+					annotations.removeChild(annotation);
+				}
+			}
+		}
+
+		try {
+			final XMLStreamWriter xml = start(out);
+			write(xml, experiments, included);
+			write(xml, experimenters, included);
+			write(xml, groups, included);
+			write(xml, instruments, included);
+			write(xml, image);
+			if (annotations != null && annotations.hasChildNodes()) {
+				write(xml, annotations);
+			}
+			for (int i = 0; i < root.sizeOfROIList(); i++) {
+				final Element roi = roiElements.get(i);
+				if (roi != null) write(xml, roi);
+			}
+			end(xml);
+		}
+		catch (final XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Writes each series as a separate document, as
+	 * {@link #writeSeries(int, OutputStream)}, to the stream given for it. Each
+	 * stream is closed once its series has been written.
+	 */
+	public void writeSeries(final IntFunction<OutputStream> outputs)
+		throws IOException
+	{
+		for (int s = 0; s < getSeriesCount(); s++) {
+			try (final OutputStream out = outputs.apply(s)) {
+				writeSeries(s, out);
+			}
+		}
+	}
+
+	// -- Helper methods --
+
+	/** Starts a document and writes the opening OME element. */
+	private XMLStreamWriter start(final OutputStream out)
+		throws XMLStreamException
+	{
+		final XMLStreamWriter xml = outputFactory.createXMLStreamWriter(out,
+			ENCODING);
+		xml.writeStartDocument(ENCODING, "1.0");
+		// NB: the writer repairs namespaces, declaring them where first used.
+		xml.writeStartElement("", "OME", OME.NAMESPACE);
+		xml.writeAttribute("xsi", XSI, "schemaLocation", OME.NAMESPACE + " " +
+			OME.NAMESPACE + "/ome.xsd");
+		if (root.getUUID() != null) xml.writeAttribute("UUID", root.getUUID());
+		if (root.getCreator() != null) {
+			xml.writeAttribute("Creator", root.getCreator());
+		}
+		return xml;
+	}
+
+	/** Closes the OME element and the document. */
+	private void end(final XMLStreamWriter xml) throws XMLStreamException {
+		xml.writeEndElement();
+		xml.writeEndDocument();
+		xml.flush();
+		// NB: closing the XMLStreamWriter leaves the output stream open.
+		xml.close();
+	}
+
+	/** Writes the elements {@code 0..count-1} of a top-level list. */
+	private void write(final XMLStreamWriter xml, final int count,
+		final IntFunction<? extends OMEModelObject> elements)
+		throws XMLStreamException
+	{
+		for (int i = 0; i < count; i++) {
+			write(xml, elements.apply(i));
+		}
+	}
+
+	/** Writes those of the given elements which are included. */
+	private void write(final XMLStreamWriter xml, final List<Element> elements,
+		final Set<Element> included) throws XMLStreamException
+	{
+		for (final Element element : elements) {
+			if (included.contains(element)) write(xml, element);
+		}
+	}
+
+	/**
+	 * Builds the DOMs of the elements {@code 0..count-1} of a top-level list,
+	 * mapping each ID within them to the top-level element.
+	 */
+	private static List<Element> elements(final Document doc, final int count,
+		final IntFunction<? extends OMEModelObject> objects,
+		final Map<String, Element> targets)
+	{
+		final List<Element> elements = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			final Element element = objects.apply(i).asXMLElement(doc);
+			final Set<String> ids = new HashSet<>();
+			collectIDs(element, ids);
+			for (final String id : ids) {
+				targets.put(id, element);
+			}
+			elements.add(element);
+		}
+		return elements;
+	}
+
+	/**
+	 * Gets the elements within the given one which refer to an ID: the
+	 * {@code *Ref} elements, and the {@code *Settings} elements referring to
+	 * parts of an instrument.
+	 */
+	private static List<Element> references(final Element element) {
+		final List<Element> refs = new ArrayList<>();
+		collectReferences(element, refs);
+		return refs;
+	}
+
+	private static void collectReferences(final Element element,
+		final List<Element> refs)
+	{
+		if (isReference(element) && element.hasAttribute("ID")) {
+			refs.add(element);
+		}
+		for (final Element child : children(element)) {
+			collectReferences(child, refs);
+		}
+	}
+
+	/** Adds the IDs defined within the given element to the given set. */
+	private static void collectIDs(final Element element,
+		final Set<String> ids)
+	{
+		if (!isReference(element) && element.hasAttribute("ID")) {
+			ids.add(element.getAttribute("ID"));
+		}
+		for (final Element child : children(element)) {
+			collectIDs(child, ids);
+		}
+	}
+
+	private static boolean isReference(final Element element) {
+		final String name = localName(element);
+		return name.endsWith("Ref") || name.endsWith("Settings");
+	}
+
+	/** Gets the child elements of the given element. */
+	private static List<Element> children(final Element element) {
+		final List<Element> children = new ArrayList<>();
+		for (Node child = element.getFirstChild(); child != null; child = child
+			.getNextSibling())
+		{
+			if (child instanceof Element) children.add((Element) child);
+		}
+		return children;
+	}
+
+	/**
+	 * Builds the DOM of a single model object and writes it. The DOM is
+	 * discarded afterwards.
+	 */
+	private void write(final XMLStreamWriter xml, final OMEModelObject object)
+		throws XMLStreamException
+	{
+		if (object == null) return;
+		write(xml, object.asXMLElement(documentBuilder.newDocument()));
+	}
+
+	/** Writes the given DOM node and its descendants. */
+	private void write(final XMLStreamWriter xml, final Node node)
+		throws XMLStreamException
+	{
+		switch (node.getNodeType()) {
+			case Node.ELEMENT_NODE:
+				final Element element = (Element) node;
+				final String prefix = element.getPrefix();
+				final String namespace = element.getNamespaceURI();
+				xml.writeStartElement(prefix == null ? "" : prefix, localName(
+					element), namespace == null ? "" : namespace);
+				final NamedNodeMap attributes = element.getAttributes();
+				for (int i = 0; i < attributes.getLength(); i++) {
+					write(xml, (Attr) attributes.item(i));
+				}
+				for (Node child = element.getFirstChild(); child != null; child =
+					child.getNextSibling())
+				{
+					write(xml, child);
+				}
+				xml.writeEndElement();
+				break;
+			case Node.TEXT_NODE:
+				xml.writeCharacters(node.getNodeValue());
+				break;
+			case Node.CDATA_SECTION_NODE:
+				xml.writeCData(node.getNodeValue());
+				break;
+			case Node.COMMENT_NODE:
+				xml.writeComment(node.getNodeValue());
+				break;
+			default:
+				// NB: no other node types occur in the OME model.
+				break;
+		}
+	}
+
+	/** Writes a single attribute, skipping namespace declarations. */
+	private void write(final XMLStreamWriter xml, final Attr attribute)
+		throws XMLStreamException
+	{
+		final String name = attribute.getName();
+		if (name.equals("xmlns") || name.startsWith("xmlns:")) return;
+		final String namespace = attribute.getNamespaceURI();
+		if (namespace == null) {
+			xml.writeAttribute(localName(attribute), attribute.getValue());
+		}
+		else {
+			final String prefix = attribute.getPrefix();
+			xml.writeAttribute(prefix == null ? "" : prefix, namespace, localName(
+				attribute), attribute.getValue());
+		}
+	}
+
+	/** Gets the local name of a node, whether or not it is namespace aware. */
+	private static String localName(final Node node) {
+		return node.getLocalName() == null ? node.getNodeName() : node
+			.getLocalName();
+	}
+}
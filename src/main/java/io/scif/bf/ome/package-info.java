@@ -28,7 +28,8 @@
  */
 
 /**
- * Contains translators from {@link io.scif.bf.BioFormatsFormat} to OME-XML.
+ * Contains translators from {@link io.scif.bf.BioFormatsFormat} to OME-XML,
+ * and a compact Bio-Formats metadata store.
  * 
  * @author Mark Hiner
  */
@@ -0,0 +1,228 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.trace;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.scijava.util.ByteArray;
+import org.scijava.util.LongArray;
+
+/**
+ * A decoded access log, as written by {@link AccessTracer}. Events are stored
+ * in parallel arrays, with absolute offsets.
+ */
+public class AccessTrace {
+
+	// -- Fields --
+
+	private final String name;
+
+	private final long startMillis;
+
+	/** Class of the reader which read the source, or null if unknown. */
+	private final String readerClass;
+
+	private final byte[] kinds;
+
+	/** Read offset, or seek origin. */
+	private final long[] offsets;
+
+	/** Read length, or seek target. */
+	private final long[] values;
+
+	/** Microseconds since the start of the trace. */
+	private final long[] times;
+
+	// -- Constructors --
+
+	private AccessTrace(final String name, final long startMillis,
+		final String readerClass, final byte[] kinds, final long[] offsets,
+		final long[] values, final long[] times)
+	{
+		this.name = name;
+		this.startMillis = startMillis;
+		this.readerClass = readerClass;
+		this.kinds = kinds;
+		this.offsets = offsets;
+		this.values = values;
+		this.times = times;
+	}
+
+	// -- Static utility methods --
+
+	/** Decodes the trace log in the given file. */
+	public static AccessTrace read(final File file) throws IOException {
+		try (final InputStream in = new BufferedInputStream(new FileInputStream(
+			file), 64 * 1024))
+		{
+			return read(in);
+		}
+	}
+
+	/**
+	 * Decodes a trace log. A log which ends abruptly (e.g., because the process
+	 * died before the tracer was closed) is decoded up to its last complete
+	 * event. Logs of the first version, which cannot name the reader, are
+	 * decoded too.
+	 */
+	public static AccessTrace read(final InputStream stream) throws IOException {
+		final DataInputStream in = new DataInputStream(stream);
+		final byte[] magic = new byte[AccessTracer.MAGIC.length];
+		in.readFully(magic);
+		final int version = magic[magic.length - 1];
+		magic[magic.length - 1] = AccessTracer.MAGIC[magic.length - 1];
+		if (!Arrays.equals(magic, AccessTracer.MAGIC) || version < 1 ||
+			version > AccessTracer.MAGIC[magic.length - 1])
+		{
+			throw new IOException("Not a Bio-Formats access trace");
+		}
+		final String name = in.readUTF();
+		final long startMillis = in.readLong();
+
+		final ByteArray kinds = new ByteArray();
+		final LongArray offsets = new LongArray();
+		final LongArray values = new LongArray();
+		final LongArray times = new LongArray();
+		String readerClass = null;
+		long position = 0, time = 0;
+		try {
+			while (true) {
+				final int kind = in.read();
+				if (kind < 0) break;
+				time += readVarLong(in);
+				if (kind == AccessTracer.BIND) {
+					readerClass = in.readUTF();
+					continue;
+				}
+				if (kind == AccessTracer.READ) {
+					final long offset = position + unzigzag(readVarLong(in));
+					final long length = readVarLong(in);
+					offsets.addValue(offset);
+					values.addValue(length);
+					position = offset + length;
+				}
+				else if (kind == AccessTracer.SEEK) {
+					final long from = position + unzigzag(readVarLong(in));
+					final long to = from + unzigzag(readVarLong(in));
+					offsets.addValue(from);
+					values.addValue(to);
+					position = to;
+				}
+				else if (kind == AccessTracer.CLOSE) {
+					offsets.addValue(position);
+					values.addValue(0);
+				}
+				else throw new IOException("Corrupt trace: unknown event " + kind);
+				kinds.addValue((byte) kind);
+				times.addValue(time);
+			}
+		}
+		catch (final EOFException exc) {
+			// NB: Truncated log; keep the complete events.
+		}
+		return new AccessTrace(name, startMillis, readerClass, kinds.copyArray(),
+			offsets.copyArray(), values.copyArray(), times.copyArray());
+	}
+
+	// -- AccessTrace methods --
+
+	/** @return the name of the traced source. */
+	public String getName() {
+		return name;
+	}
+
+	/** @return the time the trace started, in epoch milliseconds. */
+	public long getStartMillis() {
+		return startMillis;
+	}
+
+	/**
+	 * @return the class of the Bio-Formats reader which read the source, or
+	 *         null if the trace does not name it
+	 */
+	public String getReaderClass() {
+		return readerClass;
+	}
+
+	/** @return the number of events, not counting the reader binding. */
+	public int size() {
+		return kinds.length;
+	}
+
+	/** @return the kind of the given event; see {@link AccessTracer#READ}. */
+	public byte getKind(final int event) {
+		return kinds[event];
+	}
+
+	/** @return the offset of a read, or the origin of a seek. */
+	public long getOffset(final int event) {
+		return offsets[event];
+	}
+
+	/** @return the length of a read. */
+	public long getLength(final int event) {
+		return kinds[event] == AccessTracer.READ ? values[event] : 0;
+	}
+
+	/** @return the target of a seek. */
+	public long getTarget(final int event) {
+		return kinds[event] == AccessTracer.SEEK ? values[event] : offsets[event];
+	}
+
+	/** @return the time of the given event, in microseconds since the start. */
+	public long getTime(final int event) {
+		return times[event];
+	}
+
+	// -- Helper methods --
+
+	private static long unzigzag(final long v) {
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	private static long readVarLong(final DataInputStream in)
+		throws IOException
+	{
+		long v = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			final int b = in.readUnsignedByte();
+			v |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return v;
+		}
+		throw new IOException("Corrupt trace: varint too long");
+	}
+}
@@ -0,0 +1,374 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Offline analysis of access logs written by {@link AccessTracer}.
+ * <p>
+ * For each trace, reports read and seek counts, the re-read ratio (bytes read
+ * divided by distinct bytes read), histograms of read sizes and of the jumps
+ * between consecutive reads, and the cost of serving the trace through an LRU
+ * block cache of various block sizes, from which an ideal block size is
+ * suggested. The block cache costs of all traces read by the same Bio-Formats
+ * reader class are then summed, suggesting an ideal block size per format.
+ * </p>
+ * <p>
+ * Usage:
+ * {@code AccessTraceAnalyzer [--latency-us N] [--bandwidth-mbps N]
+ * [--cache-mb N] <trace file or directory>...}
+ * </p>
+ */
+public class AccessTraceAnalyzer {
+
+	// -- Constants --
+
+	/** Format of traces which do not name their reader. */
+	public static final String UNKNOWN_FORMAT = "(unknown)";
+
+	/** Block sizes tried by {@link #blockCosts}, from 4 KiB to 4 MiB. */
+	public static final int[] BLOCK_SIZES = { 1 << 12, 1 << 13, 1 << 14,
+		1 << 15, 1 << 16, 1 << 17, 1 << 18, 1 << 19, 1 << 20, 1 << 21, 1 << 22 };
+
+	// -- Fields --
+
+	private double latencyMicros = 1000;
+
+	private double bandwidthMBps = 100;
+
+	private long cacheBytes = 64L << 20;
+
+	// -- AccessTraceAnalyzer methods --
+
+	/** Sets the assumed cost of one block fetch, in microseconds. */
+	public void setLatencyMicros(final double latencyMicros) {
+		this.latencyMicros = latencyMicros;
+	}
+
+	/** Sets the assumed transfer rate, in megabytes per second. */
+	public void setBandwidthMBps(final double bandwidthMBps) {
+		this.bandwidthMBps = bandwidthMBps;
+	}
+
+	/** Sets the size of the simulated block cache, in bytes. */
+	public void setCacheBytes(final long cacheBytes) {
+		this.cacheBytes = cacheBytes;
+	}
+
+	/**
+	 * @return the total bytes read divided by the number of distinct bytes
+	 *         read; 1 means nothing was read twice.
+	 */
+	public static double reReadRatio(final AccessTrace trace) {
+		final List<long[]> ranges = new ArrayList<>();
+		long total = 0;
+		for (int i = 0; i < trace.size(); i++) {
+			final long length = trace.getLength(i);
+			if (length <= 0) continue;
+			ranges.add(new long[] { trace.getOffset(i), trace.getOffset(i) +
+				length });
+			total += length;
+		}
+		if (total == 0) return 1;
+		ranges.sort((a, b) -> Long.compare(a[0], b[0]));
+		long distinct = 0, start = -1, end = -1;
+		for (final long[] r : ranges) {
+			if (r[0] > end) {
+				distinct += end - start;
+				start = r[0];
+				end = r[1];
+			}
+			else end = Math.max(end, r[1]);
+		}
+		distinct += end - start;
+		return (double) total / distinct;
+	}
+
+	/**
+	 * Histogram of read sizes. Bucket {@code i} counts reads of length in
+	 * {@code [2^(i-1), 2^i)}; bucket 0 counts empty reads.
+	 */
+	public static long[] readSizeHistogram(final AccessTrace trace) {
+		final long[] histogram = new long[64];
+		for (int i = 0; i < trace.size(); i++) {
+			if (trace.getKind(i) != AccessTracer.READ) continue;
+			histogram[bucket(trace.getLength(i))]++;
+		}
+		return histogram;
+	}
+
+	/**
+	 * Histogram of the distance between the end of each read and the start of
+	 * the next, i.e. the effective seek distance. Index 0 holds backward jumps
+	 * and index 1 forward jumps; bucket {@code i} of each counts distances in
+	 * {@code [2^(i-1), 2^i)}, with bucket 0 of the forward histogram counting
+	 * sequential reads.
+	 */
+	public static long[][] jumpHistogram(final AccessTrace trace) {
+		final long[][] histogram = new long[2][64];
+		long position = -1;
+		for (int i = 0; i < trace.size(); i++) {
+			if (trace.getKind(i) != AccessTracer.READ) continue;
+			final long offset = trace.getOffset(i);
+			if (position >= 0) {
+				final long jump = offset - position;
+				if (jump < 0) histogram[0][bucket(-jump)]++;
+				else histogram[1][bucket(jump)]++;
+			}
+			position = offset + trace.getLength(i);
+		}
+		return histogram;
+	}
+
+	/**
+	 * Simulates serving the trace's reads from an LRU cache of the configured
+	 * size, for each of the {@link #BLOCK_SIZES}.
+	 *
+	 * @return one row per block size: {@code block size, misses, bytes
+	 *         fetched, estimated microseconds}.
+	 */
+	public double[][] blockCosts(final AccessTrace trace) {
+		final double[][] costs = new double[BLOCK_SIZES.length][];
+		for (int b = 0; b < BLOCK_SIZES.length; b++) {
+			final int blockSize = BLOCK_SIZES[b];
+			final int capacity = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+				cacheBytes / blockSize));
+			final Map<Long, Boolean> lru = new LinkedHashMap<Long, Boolean>(16,
+				0.75f, true)
+			{
+
+				@Override
+				protected boolean removeEldestEntry(
+					final Map.Entry<Long, Boolean> eldest)
+				{
+					return size() > capacity;
+				}
+			};
+			long misses = 0;
+			for (int i = 0; i < trace.size(); i++) {
+				final long length = trace.getLength(i);
+				if (length <= 0) continue;
+				final long first = trace.getOffset(i) / blockSize;
+				final long last = (trace.getOffset(i) + length - 1) / blockSize;
+				for (long block = first; block <= last; block++) {
+					if (lru.put(block, Boolean.TRUE) == null) misses++;
+				}
+			}
+			final double fetched = (double) misses * blockSize;
+			final double micros = misses * latencyMicros + fetched /
+				bandwidthMBps;
+			costs[b] = new double[] { blockSize, misses, fetched, micros };
+		}
+		return costs;
+	}
+
+	/**
+	 * Sums the {@link #blockCosts} of the given traces by the reader class
+	 * which read them, or {@link #UNKNOWN_FORMAT} if a trace does not name it.
+	 *
+	 * @return the summed costs by reader class, in the layout of
+	 *         {@link #blockCosts}
+	 */
+	public Map<String, double[][]> blockCostsByFormat(
+		final List<AccessTrace> traces)
+	{
+		final Map<String, double[][]> costs = new TreeMap<>();
+		for (final AccessTrace trace : traces) {
+			final double[][] traceCosts = blockCosts(trace);
+			final double[][] sum = costs.computeIfAbsent(format(trace),
+				f -> new double[BLOCK_SIZES.length][]);
+			for (int b = 0; b < BLOCK_SIZES.length; b++) {
+				if (sum[b] == null) sum[b] = traceCosts[b].clone();
+				else for (int i = 1; i < sum[b].length; i++) {
+					sum[b][i] += traceCosts[b][i];
+				}
+			}
+		}
+		return costs;
+	}
+
+	/** Prints a human-readable report for the given trace. */
+	public void report(final AccessTrace trace, final PrintStream out) {
+		long reads = 0, seeks = 0, bytes = 0;
+		for (int i = 0; i < trace.size(); i++) {
+			final byte kind = trace.getKind(i);
+			if (kind == AccessTracer.READ) {
+				reads++;
+				bytes += trace.getLength(i);
+			}
+			else if (kind == AccessTracer.SEEK && trace.getOffset(i) != trace
+				.getTarget(i)) seeks++;
+		}
+		out.println("== " + trace.getName());
+		out.println("reader: " + format(trace));
+		out.println("reads: " + reads + ", seeks: " + seeks + ", bytes read: " +
+			bytes + ", re-read ratio: " + String.format("%.3f", reReadRatio(
+				trace)));
+		if (trace.size() > 0) {
+			out.println("duration: " + trace.getTime(trace.size() - 1) / 1000 +
+				" ms");
+		}
+
+		out.println("read sizes:");
+		printHistogram(readSizeHistogram(trace), "", out);
+
+		final long[][] jumps = jumpHistogram(trace);
+		out.println("jumps between reads (0 = sequential):");
+		printHistogram(jumps[0], "-", out);
+		printHistogram(jumps[1], "+", out);
+
+		out.println(String.format("block cache simulation (%d MiB LRU, " +
+			"%.0f us/fetch, %.0f MB/s):", cacheBytes >> 20, latencyMicros,
+			bandwidthMBps));
+		printCosts(blockCosts(trace), out);
+	}
+
+	/**
+	 * Prints the block cache simulation of the given traces summed by format,
+	 * with the ideal block size of each.
+	 */
+	public void reportByFormat(final List<AccessTrace> traces,
+		final PrintStream out)
+	{
+		final Map<String, Integer> counts = new TreeMap<>();
+		for (final AccessTrace trace : traces) {
+			counts.merge(format(trace), 1, Integer::sum);
+		}
+		for (final Map.Entry<String, double[][]> entry : blockCostsByFormat(
+			traces).entrySet())
+		{
+			out.println("== format " + entry.getKey() + " (" + counts.get(entry
+				.getKey()) + " traces)");
+			printCosts(entry.getValue(), out);
+		}
+	}
+
+	// -- Main method --
+
+	public static void main(final String... args) throws IOException {
+		final AccessTraceAnalyzer analyzer = new AccessTraceAnalyzer();
+		final List<File> files = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "--latency-us":
+					analyzer.setLatencyMicros(Double.parseDouble(args[++i]));
+					break;
+				case "--bandwidth-mbps":
+					analyzer.setBandwidthMBps(Double.parseDouble(args[++i]));
+					break;
+				case "--cache-mb":
+					analyzer.setCacheBytes(Long.parseLong(args[++i]) << 20);
+					break;
+				default:
+					final File file = new File(args[i]);
+					if (file.isDirectory()) {
+						final File[] traces = file.listFiles((dir, name) -> name.endsWith(
+							AccessTracer.SUFFIX));
+						if (traces != null) {
+							Arrays.sort(traces);
+							files.addAll(Arrays.asList(traces));
+						}
+					}
+					else files.add(file);
+			}
+		}
+		if (files.isEmpty()) {
+			System.err.println("Usage: " + AccessTraceAnalyzer.class.getName() +
+				" [--latency-us N] [--bandwidth-mbps N] [--cache-mb N]" +
+				" <trace file or directory>...");
+			System.exit(1);
+		}
+		final List<AccessTrace> traces = new ArrayList<>();
+		for (final File file : files) {
+			final AccessTrace trace = AccessTrace.read(file);
+			traces.add(trace);
+			analyzer.report(trace, System.out);
+			System.out.println();
+		}
+		analyzer.reportByFormat(traces, System.out);
+	}
+
+	// -- Helper methods --
+
+	private static String format(final AccessTrace trace) {
+		final String readerClass = trace.getReaderClass();
+		return readerClass == null ? UNKNOWN_FORMAT : readerClass;
+	}
+
+	/** Prints the rows of {@link #blockCosts} and the ideal block size. */
+	private static void printCosts(final double[][] costs,
+		final PrintStream out)
+	{
+		double[] best = null;
+		for (final double[] row : costs) {
+			out.println(String.format("  %8s: %10.0f misses %14.0f bytes %12.1f ms",
+				size((long) row[0]), row[1], row[2], row[3] / 1000));
+			if (row[1] > 0 && (best == null || row[3] < best[3])) best = row;
+		}
+		if (best != null) {
+			out.println("ideal block size: " + size((long) best[0]));
+		}
+	}
+
+	/** @return the base-2 histogram bucket of the given non-negative value. */
+	private static int bucket(final long value) {
+		return 64 - Long.numberOfLeadingZeros(value);
+	}
+
+	private static void printHistogram(final long[] histogram,
+		final String sign, final PrintStream out)
+	{
+		for (int i = 0; i < histogram.length; i++) {
+			if (histogram[i] == 0) continue;
+			final String range = i == 0 ? "0" : sign + "[" + size(1L << (i - 1)) +
+				", " + size(1L << i) + ")";
+			out.println(String.format("  %24s: %d", range, histogram[i]));
+		}
+	}
+
+	private static String size(final long bytes) {
+		if (bytes >= 1L << 30 && bytes % (1L << 30) == 0) return (bytes >> 30) +
+			"G";
+		if (bytes >= 1L << 20 && bytes % (1L << 20) == 0) return (bytes >> 20) +
+			"M";
+		if (bytes >= 1L << 10 && bytes % (1L << 10) == 0) return (bytes >> 10) +
+			"K";
+		return Long.toString(bytes);
+	}
+}
@@ -0,0 +1,321 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.trace;
+
+import io.scif.bf.wrapper.DataHandleAdapter;
+import io.scif.bf.wrapper.DataHandleListener;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.scijava.log.LogService;
+
+/**
+ * {@link DataHandleListener} which logs every seek and read of one
+ * {@link DataHandleAdapter} to a compact binary file, for later analysis with
+ * {@link AccessTraceAnalyzer}.
+ * <p>
+ * Tracing is off by default. It is switched on by setting the
+ * {@value #DIRECTORY_PROPERTY} system property (or calling
+ * {@link #setDirectory(File)}) to the directory which should receive the
+ * logs; each traced handle then gets its own {@code .bftrace} file there.
+ * </p>
+ * <p>
+ * Tracing never fails the I/O it observes: if the trace directory cannot be
+ * written, tracing is switched off, and a tracer which fails to write its log
+ * stops tracing. Both failures are logged.
+ * </p>
+ * <p>
+ * Log layout: the {@link #MAGIC} bytes, the source name ({@code writeUTF}),
+ * the start time in epoch milliseconds, then one record per event. Each record
+ * is a kind byte followed by the time since the previous record in
+ * microseconds as a varint, and then:
+ * </p>
+ * <ul>
+ * <li>{@link #READ}: offset relative to the current position (zigzag varint),
+ * length (varint)</li>
+ * <li>{@link #SEEK}: origin relative to the current position (zigzag varint),
+ * distance (zigzag varint)</li>
+ * <li>{@link #CLOSE}: nothing</li>
+ * <li>{@link #BIND}: class name of the Bio-Formats reader which read the
+ * source ({@code writeUTF})</li>
+ * </ul>
+ * <p>
+ * The current position starts at 0 and is updated to the end of each read
+ * and the target of each seek, so sequential access costs about three bytes
+ * per event.
+ * </p>
+ */
+public class AccessTracer implements DataHandleListener {
+
+	// -- Constants --
+
+	/** System property naming the directory to write traces to. */
+	public static final String DIRECTORY_PROPERTY = "scifio.bf.trace.dir";
+
+	/** File suffix of trace logs. */
+	public static final String SUFFIX = ".bftrace";
+
+	/** Header of every trace log; the last byte is the format version. */
+	public static final byte[] MAGIC = { 'B', 'F', 'T', 'R', 'A', 'C', 'E', 2 };
+
+	public static final byte READ = 1;
+
+	public static final byte SEEK = 2;
+
+	public static final byte CLOSE = 3;
+
+	public static final byte BIND = 4;
+
+	private static final AtomicInteger COUNTER = new AtomicInteger();
+
+	/** Tracers which have not been closed yet, flushed at JVM shutdown. */
+	private static final Set<AccessTracer> OPEN = Collections.synchronizedSet(
+		Collections.newSetFromMap(new IdentityHashMap<>()));
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			for (final AccessTracer tracer : OPEN.toArray(new AccessTracer[0])) {
+				tracer.onClose();
+			}
+		}, "bf-trace-shutdown"));
+	}
+
+	private static volatile File directory;
+
+	/** Whether tracing was switched off after a failure. */
+	private static volatile boolean disabled;
+
+	// -- Fields --
+
+	private final DataOutputStream out;
+
+	private final File file;
+
+	/** Service to report a failure to write the log to, or null. */
+	private final LogService log;
+
+	private long position;
+
+	private long lastNanos = System.nanoTime();
+
+	private boolean closed;
+
+	// -- Constructors --
+
+	/** Creates a tracer writing the access log for {@code name} to a file. */
+	public AccessTracer(final File file, final String name) throws IOException {
+		this(file, name, null);
+	}
+
+	/**
+	 * Creates a tracer writing the access log for {@code name} to a file,
+	 * reporting a failure to write it to the given service.
+	 */
+	public AccessTracer(final File file, final String name,
+		final LogService log) throws IOException
+	{
+		this.file = file;
+		this.log = log;
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+			file), 64 * 1024));
+		out.write(MAGIC);
+		out.writeUTF(name);
+		out.writeLong(System.currentTimeMillis());
+		OPEN.add(this);
+	}
+
+	// -- Static utility methods --
+
+	/**
+	 * @return the directory traces are written to, or null if tracing is off.
+	 */
+	public static File getDirectory() {
+		if (disabled) return null;
+		if (directory != null) return directory;
+		final String dir = System.getProperty(DIRECTORY_PROPERTY);
+		return dir == null || dir.isEmpty() ? null : new File(dir);
+	}
+
+	/**
+	 * Turns tracing on for the given directory, or off if it is null. Tracing
+	 * switched off after a failure is switched on again.
+	 */
+	public static void setDirectory(final File dir) {
+		directory = dir;
+		disabled = false;
+	}
+
+	/** @return true iff new adapters should be traced. */
+	public static boolean isEnabled() {
+		return getDirectory() != null;
+	}
+
+	/**
+	 * Starts tracing the given adapter if tracing is enabled. If the log cannot
+	 * be created, tracing is switched off instead.
+	 *
+	 * @param name Name of the adapter's source, used for the log file name.
+	 * @param log Service to report tracing failures to, or null.
+	 * @return the new tracer, or null if tracing is off.
+	 */
+	public static AccessTracer attach(final DataHandleAdapter adapter,
+		final String name, final LogService log)
+	{
+		final File dir = getDirectory();
+		if (dir == null) return null;
+		final AccessTracer tracer;
+		try {
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				throw new IOException("Cannot create trace directory: " + dir);
+			}
+			final String safeName = name.replaceAll("[^A-Za-z0-9._-]", "_");
+			final File file = new File(dir, safeName + "-" + COUNTER
+				.incrementAndGet() + SUFFIX);
+			tracer = new AccessTracer(file, name, log);
+		}
+		catch (final IOException exc) {
+			disabled = true;
+			if (log != null) log.warn("Access tracing switched off", exc);
+			return null;
+		}
+		adapter.addListener(tracer);
+		return tracer;
+	}
+
+	// -- AccessTracer methods --
+
+	/** @return the file this tracer writes to. */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Records the class of the Bio-Formats reader which reads the source, by
+	 * which {@link AccessTraceAnalyzer} groups traces.
+	 */
+	public synchronized void bind(final String readerClass) {
+		if (closed) return;
+		try {
+			header(BIND);
+			out.writeUTF(readerClass);
+		}
+		catch (final IOException exc) {
+			fail(exc);
+		}
+	}
+
+	// -- DataHandleListener methods --
+
+	@Override
+	public synchronized void onSeek(final long from, final long to) {
+		if (closed) return;
+		try {
+			header(SEEK);
+			writeVarLong(out, zigzag(from - position));
+			writeVarLong(out, zigzag(to - from));
+			position = to;
+		}
+		catch (final IOException exc) {
+			fail(exc);
+		}
+	}
+
+	@Override
+	public synchronized void onRead(final long offset, final long length) {
+		if (closed) return;
+		try {
+			header(READ);
+			writeVarLong(out, zigzag(offset - position));
+			writeVarLong(out, length);
+			position = offset + length;
+		}
+		catch (final IOException exc) {
+			fail(exc);
+		}
+	}
+
+	@Override
+	public synchronized void onClose() {
+		if (closed) return;
+		closed = true;
+		OPEN.remove(this);
+		try {
+			header(CLOSE);
+			out.close();
+		}
+		catch (final IOException exc) {
+			// NB: Nothing more can be traced; the log is simply truncated.
+		}
+	}
+
+	// -- Helper methods --
+
+	/** Stops tracing after the log could not be written. */
+	private void fail(final IOException exc) {
+		closed = true;
+		OPEN.remove(this);
+		if (log != null) log.warn("Access trace stopped: " + file, exc);
+		try {
+			out.close();
+		}
+		catch (final IOException e) {
+			// NB: the log is simply truncated.
+		}
+	}
+
+	private void header(final byte kind) throws IOException {
+		final long now = System.nanoTime();
+		out.writeByte(kind);
+		writeVarLong(out, (now - lastNanos) / 1000);
+		lastNanos = now;
+	}
+
+	private static long zigzag(final long v) {
+		return (v << 1) ^ (v >> 63);
+	}
+
+	private static void writeVarLong(final DataOutputStream out, long v)
+		throws IOException
+	{
+		while ((v & ~0x7FL) != 0) {
+			out.writeByte((int) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		out.writeByte((int) v);
+	}
+}
@@ -0,0 +1,393 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.util;
+
+import io.scif.util.FormatTools;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Utility methods for converting raw plane bytes, as returned by Bio-Formats
+ * in the file's byte order, into primitive arrays or native-order buffers.
+ * <p>
+ * All conversions go through typed view buffers ({@link ShortBuffer},
+ * {@link IntBuffer}, ...) of a source {@link ByteBuffer} ordered as the file
+ * is. Same-width transfers are therefore single bulk copies, which swap the
+ * bytes as they go. Widening conversions bulk-read the samples in small
+ * chunks, and widen each chunk in a tight array loop.
+ * </p>
+ */
+public final class PixelBuffers {
+
+	/** Edge length, in samples, of the blocks used by {@link #transpose}. */
+	private static final int BLOCK = 64;
+
+	/** Number of samples bulk-read at a time before widening them. */
+	private static final int CHUNK = 4096;
+
+	private PixelBuffers() {
+		// NB: prevent instantiation of utility class.
+	}
+
+	// -- Utility methods --
+
+	/**
+	 * Wraps the first {@code length} bytes of {@code bytes} in a buffer with the
+	 * given byte order.
+	 */
+	public static ByteBuffer wrap(final byte[] bytes, final int length,
+		final boolean little)
+	{
+		final ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+		buffer.order(little ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+		return buffer;
+	}
+
+	/**
+	 * Copies the remaining bytes of {@code src} into {@code dest}, swapping
+	 * each {@code bytesPerPixel}-sized sample from the order of {@code src} to
+	 * the order of {@code dest}. Both buffers' positions are left unchanged.
+	 */
+	public static void copySwapped(final ByteBuffer src, final ByteBuffer dest,
+		final int bytesPerPixel)
+	{
+		switch (bytesPerPixel) {
+			case 1:
+				dest.duplicate().put(src.duplicate());
+				break;
+			case 2:
+				dest.asShortBuffer().put(src.asShortBuffer());
+				break;
+			case 4:
+				dest.asIntBuffer().put(src.asIntBuffer());
+				break;
+			case 8:
+				dest.asLongBuffer().put(src.asLongBuffer());
+				break;
+			default:
+				throw new IllegalArgumentException("Unsupported sample size: " +
+					bytesPerPixel);
+		}
+	}
+
+	/**
+	 * Converts the samples in {@code src} to {@code short} values. 16-bit
+	 * samples are copied as-is; 8-bit samples are widened, respecting
+	 * signedness.
+	 *
+	 * @return {@code dest}, or a new array if {@code dest} was {@code null} or
+	 *         too small.
+	 */
+	public static short[] toShorts(final ByteBuffer src, final int pixelType,
+		short[] dest)
+	{
+		final int count = src.remaining() / FormatTools.getBytesPerPixel(
+			pixelType);
+		if (dest == null || dest.length < count) dest = new short[count];
+		switch (pixelType) {
+			case FormatTools.INT8:
+			case FormatTools.UINT8: {
+				final ByteBuffer bytes = src.duplicate();
+				final byte[] chunk = new byte[chunk(count)];
+				final int mask = pixelType == FormatTools.UINT8 ? 0xff : -1;
+				for (int i = 0; i < count; i += chunk.length) {
+					final int n = Math.min(chunk.length, count - i);
+					bytes.get(chunk, 0, n);
+					for (int j = 0; j < n; j++)
+						dest[i + j] = (short) (chunk[j] & mask);
+				}
+				break;
+			}
+			case FormatTools.INT16:
+			case FormatTools.UINT16:
+				src.asShortBuffer().get(dest, 0, count);
+				break;
+			default:
+				throw unsupported(pixelType, "short");
+		}
+		return dest;
+	}
+
+	/**
+	 * Converts the samples in {@code src} to {@code int} values. 32-bit integer
+	 * samples are copied as-is; narrower integer samples are widened,
+	 * respecting signedness.
+	 *
+	 * @return {@code dest}, or a new array if {@code dest} was {@code null} or
+	 *         too small.
+	 */
+	public static int[] toInts(final ByteBuffer src, final int pixelType,
+		int[] dest)
+	{
+		final int count = src.remaining() / FormatTools.getBytesPerPixel(
+			pixelType);
+		if (dest == null || dest.length < count) dest = new int[count];
+		switch (pixelType) {
+			case FormatTools.INT8:
+			case FormatTools.UINT8: {
+				final ByteBuffer bytes = src.duplicate();
+				final byte[] chunk = new byte[chunk(count)];
+				final int mask = pixelType == FormatTools.UINT8 ? 0xff : -1;
+				for (int i = 0; i < count; i += chunk.length) {
+					final int n = Math.min(chunk.length, count - i);
+					bytes.get(chunk, 0, n);
+					for (int j = 0; j < n; j++)
+						dest[i + j] = chunk[j] & mask;
+				}
+				break;
+			}
+			case FormatTools.INT16:
+			case FormatTools.UINT16: {
+				final ShortBuffer shorts = src.asShortBuffer();
+				final short[] chunk = new short[chunk(count)];
+				final int mask = pixelType == FormatTools.UINT16 ? 0xffff : -1;
+				for (int i = 0; i < count; i += chunk.length) {
+					final int n = Math.min(chunk.length, count - i);
+					shorts.get(chunk, 0, n);
+					for (int j = 0; j < n; j++)
+						dest[i + j] = chunk[j] & mask;
+				}
+				break;
+			}
+			case FormatTools.INT32:
+			case FormatTools.UINT32:
+				src.asIntBuffer().get(dest, 0, count);
+				break;
+			default:
+				throw unsupported(pixelType, "int");
+		}
+		return dest;
+	}
+
+	/**
+	 * Converts the samples in {@code src} to {@code float} values. Float
+	 * samples are copied as-is; all other types are widened (or, for 64-bit
+	 * doubles, narrowed) to {@code float}.
+	 *
+	 * @return {@code dest}, or a new array if {@code dest} was {@code null} or
+	 *         too small.
+	 */
+	public static float[] toFloats(final ByteBuffer src, final int pixelType,
+		float[] dest)
+	{
+		final int count = src.remaining() / FormatTools.getBytesPerPixel(
+			pixelType);
+		if (dest == null || dest.length < count) dest = new float[count];
+		switch (pixelType) {
+			case FormatTools.INT8:
+			case FormatTools.UINT8: {
+				final ByteBuffer bytes = src.duplicate();
+				final byte[] chunk = new byte[chunk(count)];
+				final int mask = pixelType == FormatTools.UINT8 ? 0xff : -1;
+				for (int i = 0; i < count; i += chunk.length) {
+					final int n = Math.min(chunk.length, count - i);
+					bytes.get(chunk, 0, n);
+					for (int j = 0; j < n; j++)
+						dest[i + j] = chunk[j] & mask;
+				}
+				break;
+			}
+			case FormatTools.INT16:
+			case FormatTools.UINT16: {
+				final ShortBuffer shorts = src.asShortBuffer();
+				final short[] chunk = new short[chunk(count)];
+				final int mask = pixelType == FormatTools.UINT16 ? 0xffff : -1;
+				for (int i = 0; i < count; i += chunk.length) {
+					final int n = Math.min(chunk.length, count - i);
+					shorts.get(chunk, 0, n);
+					for (int j = 0; j < n; j++)
+						dest[i + j] = chunk[j] & mask;
+				}
+				break;
+			}
+			case FormatTools.INT32:
+			case FormatTools.UINT32: {
+				final IntBuffer ints = src.asIntBuffer();
+				final int[] chunk = new int[chunk(count)];
+				final long mask = pixelType == FormatTools.UINT32 ? 0xffffffffL
+					: -1L;
+				for (int i = 0; i < count; i += chunk.length) {
+					final int n = Math.min(chunk.length, count - i);
+					ints.get(chunk, 0, n);
+					for (int j = 0; j < n; j++)
+						dest[i + j] = chunk[j] & mask;
+				}
+				break;
+			}
+			case FormatTools.FLOAT:
+				src.asFloatBuffer().get(dest, 0, count);
+				break;
+			case FormatTools.DOUBLE: {
+				final DoubleBuffer doubles = src.asDoubleBuffer();
+				final double[] chunk = new double[chunk(count)];
+				for (int i = 0; i < count; i += chunk.length) {
+					final int n = Math.min(chunk.length, count - i);
+					doubles.get(chunk, 0, n);
+					for (int j = 0; j < n; j++)
+						dest[i + j] = (float) chunk[j];
+				}
+				break;
+			}
+			default:
+				throw unsupported(pixelType, "float");
+		}
+		return dest;
+	}
+
+	/**
+	 * Converts the samples in {@code src} to {@code double} values. Double
+	 * samples are copied as-is; all other types are widened to {@code double}.
+	 *
+	 * @return {@code dest}, or a new array if {@code dest} was {@code null} or
+	 *         too small.
+	 */
+	public static double[] toDoubles(final ByteBuffer src, final int pixelType,
+		double[] dest)
+	{
+		final int count = src.remaining() / FormatTools.getBytesPerPixel(
+			pixelType);
+		if (dest == null || dest.length < count) dest = new double[count];
+		switch (pixelType) {
+			case FormatTools.INT8:
+			case FormatTools.UINT8: {
+				final ByteBuffer bytes = src.duplicate();
+				final byte[] chunk = new byte[chunk(count)];
+				final int mask = pixelType == FormatTools.UINT8 ? 0xff : -1;
+				for (int i = 0; i < count; i += chunk.length) {
+					final int n = Math.min(chunk.length, count - i);
+					bytes.get(chunk, 0, n);
+					for (int j = 0; j < n; j++)
+						dest[i + j] = chunk[j] & mask;
+				}
+				break;
+			}
+			case FormatTools.INT16:
+			case FormatTools.UINT16: {
+				final ShortBuffer shorts = src.asShortBuffer();
+				final short[] chunk = new short[chunk(count)];
+				final int mask = pixelType == FormatTools.UINT16 ? 0xffff : -1;
+				for (int i = 0; i < count; i += chunk.length) {
+					final int n = Math.min(chunk.length, count - i);
+					shorts.get(chunk, 0, n);
+					for (int j = 0; j < n; j++)
+						dest[i + j] = chunk[j] & mask;
+				}
+				break;
+			}
+			case FormatTools.INT32:
+			case FormatTools.UINT32: {
+				final IntBuffer ints = src.asIntBuffer();
+				final int[] chunk = new int[chunk(count)];
+				final long mask = pixelType == FormatTools.UINT32 ? 0xffffffffL
+					: -1L;
+				for (int i = 0; i < count; i += chunk.length) {
+					final int n = Math.min(chunk.length, count - i);
+					ints.get(chunk, 0, n);
+					for (int j = 0; j < n; j++)
+						dest[i + j] = chunk[j] & mask;
+				}
+				break;
+			}
+			case FormatTools.FLOAT: {
+				final FloatBuffer floats = src.asFloatBuffer();
+				final float[] chunk = new float[chunk(count)];
+				for (int i = 0; i < count; i += chunk.length) {
+					final int n = Math.min(chunk.length, count - i);
+					floats.get(chunk, 0, n);
+					for (int j = 0; j < n; j++)
+						dest[i + j] = chunk[j];
+				}
+				break;
+			}
+			case FormatTools.DOUBLE:
+				src.asDoubleBuffer().get(dest, 0, count);
+				break;
+			default:
+				throw unsupported(pixelType, "double");
+		}
+		return dest;
+	}
+
+	/**
+	 * Transposes a row-major {@code rows} by {@code cols} matrix of samples of
+	 * {@code bytesPerPixel} bytes each from {@code src} into {@code dest}, e.g.
+	 * to convert interleaved channels (rows = pixels, cols = channels) into
+	 * planar ones, or back. The matrix is processed in square blocks, so that
+	 * both the reads and the writes of each block stay within a few cache
+	 * lines.
+	 */
+	public static void transpose(final byte[] src, final byte[] dest,
+		final int rows, final int cols, final int bytesPerPixel)
+	{
+		for (int r0 = 0; r0 < rows; r0 += BLOCK) {
+			final int r1 = Math.min(r0 + BLOCK, rows);
+			for (int c0 = 0; c0 < cols; c0 += BLOCK) {
+				final int c1 = Math.min(c0 + BLOCK, cols);
+				if (bytesPerPixel == 1) {
+					for (int r = r0; r < r1; r++) {
+						for (int c = c0; c < c1; c++) {
+							dest[c * rows + r] = src[r * cols + c];
+						}
+					}
+				}
+				else {
+					for (int r = r0; r < r1; r++) {
+						for (int c = c0; c < c1; c++) {
+							final int from = (r * cols + c) * bytesPerPixel;
+							final int to = (c * rows + r) * bytesPerPixel;
+							for (int b = 0; b < bytesPerPixel; b++) {
+								dest[to + b] = src[from + b];
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	// -- Helper methods --
+
+	/** @return the length of the scratch array for widening samples. */
+	private static int chunk(final int count) {
+		return Math.max(1, Math.min(count, CHUNK));
+	}
+
+	private static IllegalArgumentException unsupported(final int pixelType,
+		final String target)
+	{
+		return new IllegalArgumentException("Cannot convert " + FormatTools
+			.getPixelTypeString(pixelType) + " samples to " + target);
+	}
+}
@@ -32,6 +32,9 @@ package io.scif.bf.wrapper;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.scijava.io.handle.DataHandle;
 import org.scijava.io.location.Location;
@@ -42,15 +45,43 @@ import loci.common.RandomAccessInputStream;
 /**
  * Adapter class to convert {@link DataHandle} to
  * {@link loci.common.RandomAccessInputStream}.
+ * <p>
+ * An adapter either owns its handle, which it closes along with itself, or
+ * reads a handle shared through the {@link SharedDataHandleService}. A shared
+ * adapter keeps its own file pointer, byte order and encoding, releases its
+ * reference to the handle when closed, and takes a new one if used again.
+ * </p>
  */
 public class DataHandleAdapter extends RandomAccessInputStream implements
 	IRandomAccess
 {
 
+	// -- Constants --
+
+	private static final DataHandleListener[] NO_LISTENERS =
+		new DataHandleListener[0];
+
 	// -- Fields --
 
+	/** The owned handle, or null if shared. */
 	private final DataHandle<Location> handle;
 
+	/** The shared handle, or null if owned. */
+	private SharedHandle shared;
+
+	private volatile DataHandleListener[] listeners = NO_LISTENERS;
+
+	// -- Fields for shared handles --
+
+	/** Whether this adapter holds a reference to the shared handle. */
+	private boolean referenced;
+
+	private long position;
+
+	private boolean little;
+
+	private String encoding;
+
 	// -- Constructors --
 
 	public DataHandleAdapter(final DataHandle<Location> handle)
@@ -58,218 +89,308 @@ public class DataHandleAdapter extends RandomAccessInputStream implements
 	{
 		super(new byte[1]);
 		this.handle = handle;
+		this.shared = null;
+	}
+
+	/**
+	 * Creates an adapter over a shared handle. The adapter takes its reference
+	 * on first use, starting at offset 0 in big-endian order.
+	 */
+	DataHandleAdapter(final SharedHandle shared) throws IOException {
+		super(new byte[1]);
+		this.handle = null;
+		this.shared = shared;
 	}
 
 	// -- RandomAccessInputStreamWrapper API Methods --
 
+	/**
+	 * @return the wrapped handle, or null if this adapter is shared and nothing
+	 *         holds the shared handle open.
+	 */
 	public DataHandle<Location> unwrap() {
-		return handle;
+		return shared == null ? handle : shared.get();
+	}
+
+	// -- DataHandleAdapter API Methods --
+
+	/**
+	 * @return true if this adapter reads a handle shared through the
+	 *         {@link SharedDataHandleService}, which is reopened if this adapter
+	 *         is used after being closed.
+	 */
+	public boolean isShared() {
+		return shared != null;
+	}
+
+	/** Registers a listener to be notified of every seek and read. */
+	public synchronized void addListener(final DataHandleListener listener) {
+		final DataHandleListener[] l = Arrays.copyOf(listeners, listeners.length +
+			1);
+		l[listeners.length] = listener;
+		listeners = l;
+	}
+
+	/** Unregisters a listener added by {@link #addListener}. */
+	public synchronized void removeListener(final DataHandleListener listener) {
+		final List<DataHandleListener> l = new ArrayList<>(Arrays.asList(
+			listeners));
+		l.remove(listener);
+		listeners = l.toArray(NO_LISTENERS);
 	}
 
 	// -- RandomAccessInputStream API methods --
 
 	@Override
 	public void setEncoding(final String encoding) {
-		handle.setEncoding(encoding);
+		if (shared == null) {
+			handle.setEncoding(encoding);
+			return;
+		}
+		this.encoding = encoding;
+		shared.invalidate(this);
 	}
 
 	@Override
 	public void seek(final long pos) throws IOException {
-		if (handle != null) {
-			handle.seek(pos);
+		if (handle == null && shared == null) return;
+		final DataHandle<Location> h = begin();
+		try {
+			final long from = trackedOffset(h);
+			h.seek(pos);
+			if (from >= 0) fireSeek(from, pos);
+		}
+		finally {
+			end(h);
 		}
 	}
 
 	@Override
 	public long length() throws IOException {
-		return handle.length();
+		return apply(DataHandle::length);
 	}
 
 	@Override
 	public void setLength(final long newLength) throws IOException {
-		handle.setLength(newLength);
+		apply(h -> {
+			h.setLength(newLength);
+			return 0;
+		});
 	}
 
 	@Override
 	public long getFilePointer() throws IOException {
-		return handle.offset();
+		return shared == null ? handle.offset() : position;
 	}
 
 	@Override
 	public boolean exists() throws IOException {
-		return handle.exists();
+		return apply(h -> h.exists() ? 1 : 0) != 0;
 	}
 
 	@Override
 	public void close() throws IOException {
-		handle.close(); // FIXME this could explode us
+		if (shared == null) handle.close();
+		else if (referenced) {
+			// NB: the shared handle is only closed by its last user.
+			referenced = false;
+			shared.release();
+		}
+		else if (shared != null) shared.discard();
+		for (final DataHandleListener l : listeners) {
+			l.onClose();
+		}
 	}
 
 	@Override
 	public void order(final boolean little) {
-		handle.setLittleEndian(little);
+		if (shared == null) {
+			handle.setLittleEndian(little);
+			return;
+		}
+		this.little = little;
+		shared.invalidate(this);
 	}
 
 	@Override
 	public boolean isLittleEndian() {
-		return handle.isLittleEndian();
+		return shared == null ? handle.isLittleEndian() : little;
 	}
 
 	@Override
 	public String readString(final String lastChars) throws IOException {
-		return handle.readString(lastChars);
+		return readObject(h -> h.readString(lastChars));
 	}
 
 	@Override
 	public String findString(final String... terminators) throws IOException {
-		return handle.findString(terminators);
+		return readObject(h -> h.findString(terminators));
 	}
 
 	@Override
 	public String findString(final boolean saveString,
 		final String... terminators) throws IOException
 	{
-		return handle.findString(saveString, terminators);
+		return readObject(h -> h.findString(saveString, terminators));
 	}
 
 	@Override
 	public String findString(final int blockSize, final String... terminators)
 		throws IOException
 	{
-		return handle.findString(blockSize, terminators);
+		return readObject(h -> h.findString(blockSize, terminators));
 	}
 
 	@Override
 	public String findString(final boolean saveString, final int blockSize,
 		final String... terminators) throws IOException
 	{
-		return handle.findString(saveString, blockSize, terminators);
+		return readObject(h -> h.findString(saveString, blockSize, terminators));
 	}
 
 	// -- DataInput API methods --
 
 	@Override
 	public boolean readBoolean() throws IOException {
-		return handle.readBoolean();
+		return readPrimitive(h -> h.readBoolean() ? 1 : 0) != 0;
 	}
 
 	@Override
 	public byte readByte() throws IOException {
-		return handle.readByte();
+		return (byte) readPrimitive(DataHandle::readByte);
 	}
 
 	@Override
 	public char readChar() throws IOException {
-		return handle.readChar();
+		return (char) readPrimitive(DataHandle::readChar);
 	}
 
 	@Override
 	public double readDouble() throws IOException {
-		return handle.readDouble();
+		return Double.longBitsToDouble(readPrimitive(h -> Double
+			.doubleToRawLongBits(h.readDouble())));
 	}
 
 	@Override
 	public float readFloat() throws IOException {
-		return handle.readFloat();
+		return Float.intBitsToFloat((int) readPrimitive(h -> Float
+			.floatToRawIntBits(h.readFloat())));
 	}
 
 	@Override
 	public int readInt() throws IOException {
-		return handle.readInt();
+		return (int) readPrimitive(DataHandle::readInt);
 	}
 
 	@Override
 	public String readLine() throws IOException {
-		return handle.readLine();
+		return readObject(DataHandle::readLine);
 	}
 
 	@Override
 	public String readCString() throws IOException {
-		return handle.readCString();
+		return readObject(DataHandle::readCString);
 	}
 
 	@Override
 	public String readString(final int n) throws IOException {
-		return handle.readString(n);
+		return readObject(h -> h.readString(n));
 	}
 
 	@Override
 	public long readLong() throws IOException {
-		return handle.readLong();
+		return readPrimitive(DataHandle::readLong);
 	}
 
 	@Override
 	public short readShort() throws IOException {
-		return handle.readShort();
+		return (short) readPrimitive(DataHandle::readShort);
 	}
 
 	@Override
 	public int readUnsignedByte() throws IOException {
-		return handle.readUnsignedByte();
+		return (int) readPrimitive(DataHandle::readUnsignedByte);
 	}
 
 	@Override
 	public int readUnsignedShort() throws IOException {
-		return handle.readUnsignedShort();
+		return (int) readPrimitive(DataHandle::readUnsignedShort);
 	}
 
 	@Override
 	public String readUTF() throws IOException {
-		return handle.readUTF();
+		return readObject(DataHandle::readUTF);
 	}
 
 	@Override
 	public int skipBytes(final int n) throws IOException {
-		return handle.skipBytes(n);
+		final DataHandle<Location> h = begin();
+		try {
+			final long from = trackedOffset(h);
+			final int value = h.skipBytes(n);
+			if (from >= 0) fireSeek(from, from + value);
+			return value;
+		}
+		finally {
+			end(h);
+		}
 	}
 
 	@Override
 	public int read(final byte[] array) throws IOException {
-		return handle.read(array);
+		return (int) readPrimitive(h -> h.read(array));
 	}
 
 	@Override
 	public int read(final byte[] array, final int offset, final int n)
 		throws IOException
 	{
-		return handle.read(array, offset, n);
+		return (int) readPrimitive(h -> h.read(array, offset, n));
 	}
 
 	@Override
 	public int read(final ByteBuffer buf) throws IOException {
-		return handle.read(buf.array());
+		return (int) readPrimitive(h -> h.read(buf.array()));
 	}
 
 	@Override
 	public int read(final ByteBuffer buf, final int offset, final int n)
 		throws IOException
 	{
-		return handle.read(buf.array(), offset, n);
+		return (int) readPrimitive(h -> h.read(buf.array(), offset, n));
 	}
 
 	@Override
 	public void readFully(final byte[] array) throws IOException {
-		handle.readFully(array);
+		readPrimitive(h -> {
+			h.readFully(array);
+			return 0;
+		});
 	}
 
 	@Override
 	public void readFully(final byte[] array, final int offset, final int n)
 		throws IOException
 	{
-		handle.readFully(array, offset, n);
+		readPrimitive(h -> {
+			h.readFully(array, offset, n);
+			return 0;
+		});
 	}
 
 	// -- InputStream API methods --
 
 	@Override
 	public int read() throws IOException {
-		return handle.read();
+		return (int) readPrimitive(DataHandle::read);
 	}
 
 	@Override
 	public int available() throws IOException {
-		if (handle.offset() < handle.length()) {
-			return (int) (handle.offset() - handle.length());
+		final long offset = getFilePointer();
+		final long length = length();
+		if (offset < length) {
+			return (int) (offset - length);
 		}
 		return 0;
 	}
@@ -286,7 +407,7 @@ public class DataHandleAdapter extends RandomAccessInputStream implements
 
 	@Override
 	public void reset() throws IOException {
-		handle.seek(0);
+		seek(0);
 	}
 
 	@Override
@@ -367,13 +488,13 @@ public class DataHandleAdapter extends RandomAccessInputStream implements
 
 	@Override
 	public ByteOrder getOrder() {
-		return handle.isLittleEndian() ? ByteOrder.LITTLE_ENDIAN
+		return isLittleEndian() ? ByteOrder.LITTLE_ENDIAN
 			: ByteOrder.BIG_ENDIAN;
 	}
 
 	@Override
 	public void setOrder(final ByteOrder order) {
-		handle.setLittleEndian(order == ByteOrder.LITTLE_ENDIAN);
+		order(order == ByteOrder.LITTLE_ENDIAN);
 	}
 
 	@Override
@@ -387,4 +508,129 @@ public class DataHandleAdapter extends RandomAccessInputStream implements
 	{
 		throw readOnly();
 	}
+
+	// -- Package-private methods --
+
+	/** Restores the state of this adapter on the given shared handle. */
+	void restore(final DataHandle<Location> h) throws IOException {
+		h.seek(position);
+		h.setLittleEndian(little);
+		if (encoding != null) h.setEncoding(encoding);
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Prepares the handle for an operation, failing if the {@link Deadline} of
+	 * the current thread has passed. Must be paired with
+	 * {@link #end(DataHandle)}.
+	 */
+	private DataHandle<Location> begin() throws IOException {
+		Deadline.check();
+		if (shared == null) return handle;
+		if (!referenced) {
+			shared = shared.retain();
+			referenced = true;
+		}
+		return shared.lock(this);
+	}
+
+	/** Completes an operation started with {@link #begin()}. */
+	private void end(final DataHandle<Location> h) throws IOException {
+		if (shared == null) return;
+		try {
+			position = h.offset();
+		}
+		finally {
+			shared.unlock();
+		}
+	}
+
+	/** Applies the given operation to the handle, without notifying anyone. */
+	private long apply(final Operation op) throws IOException {
+		final DataHandle<Location> h = begin();
+		try {
+			return op.apply(h);
+		}
+		finally {
+			end(h);
+		}
+	}
+
+	/**
+	 * Applies the given read to the handle, notifying the listeners of the
+	 * bytes it consumed.
+	 */
+	private long readPrimitive(final Operation op) throws IOException {
+		final DataHandle<Location> h = begin();
+		try {
+			final long start = trackedOffset(h);
+			final long value = op.apply(h);
+			fireRead(h, start);
+			return value;
+		}
+		finally {
+			end(h);
+		}
+	}
+
+	/** As {@link #readPrimitive}, for reads returning an object. */
+	private <T> T readObject(final ObjectOperation<T> op) throws IOException {
+		final DataHandle<Location> h = begin();
+		try {
+			final long start = trackedOffset(h);
+			final T value = op.apply(h);
+			fireRead(h, start);
+			return value;
+		}
+		finally {
+			end(h);
+		}
+	}
+
+	/**
+	 * @return the current offset if any listeners need to be notified of the
+	 *         next operation, or -1 otherwise.
+	 */
+	private long trackedOffset(final DataHandle<Location> h)
+		throws IOException
+	{
+		return listeners.length > 0 ? h.offset() : -1;
+	}
+
+	/** Notifies listeners of a read that started at the given offset. */
+	private void fireRead(final DataHandle<Location> h, final long start)
+		throws IOException
+	{
+		if (start < 0) return;
+		final long length = h.offset() - start;
+		for (final DataHandleListener l : listeners) {
+			l.onRead(start, length);
+		}
+	}
+
+	private void fireSeek(final long from, final long to) {
+		for (final DataHandleListener l : listeners) {
+			l.onSeek(from, to);
+		}
+	}
+
+	// -- Helper classes --
+
+	/**
+	 * An operation on the handle, with its primitive result widened to a
+	 * {@code long}, so that single-value reads do not box their result.
+	 */
+	@FunctionalInterface
+	private interface Operation {
+
+		long apply(DataHandle<Location> h) throws IOException;
+	}
+
+	/** An operation on the handle returning an object. */
+	@FunctionalInterface
+	private interface ObjectOperation<T> {
+
+		T apply(DataHandle<Location> h) throws IOException;
+	}
 }
@@ -0,0 +1,161 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.wrapper;
+
+/**
+ * A time limit on the operations of the current thread, which can also be
+ * cancelled from other threads. While a deadline is active, every I/O
+ * operation of a {@link DataHandleAdapter} on its thread first checks it, and
+ * throws a {@link DeadlineExceededException} once it has passed or been
+ * cancelled. A Bio-Formats reader stuck on a pathological file thus fails at
+ * its next read, rather than running on.
+ * <p>
+ * NB: the check is cooperative. The thread is not interrupted, so that the
+ * handles it reads are not closed under it, and work which does no I/O
+ * through an adapter is not stopped.
+ * </p>
+ * <p>
+ * Deadlines are entered and closed in try-with-resources blocks, and may be
+ * nested; the innermost one is checked.
+ * </p>
+ */
+public final class Deadline implements AutoCloseable {
+
+	// -- Constants --
+
+	private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+	// -- Fields --
+
+	private final String operation;
+
+	/** The {@link System#nanoTime()} at which the deadline passes. */
+	private final long expiry;
+
+	private final long timeoutMillis;
+
+	private final Deadline previous;
+
+	private volatile boolean cancelled;
+
+	private volatile boolean tripped;
+
+	// -- Constructor --
+
+	private Deadline(final String operation, final long timeoutMillis,
+		final Deadline previous)
+	{
+		this.operation = operation;
+		this.timeoutMillis = timeoutMillis;
+		this.previous = previous;
+		expiry = timeoutMillis > 0 ? System.nanoTime() + timeoutMillis *
+			1000000 : Long.MAX_VALUE;
+	}
+
+	// -- Deadline API Methods --
+
+	/**
+	 * Starts a deadline on the current thread.
+	 *
+	 * @param operation Description of the operation, for error messages.
+	 * @param timeoutMillis Time limit in milliseconds; 0 means no limit, so the
+	 *          operation can only be cancelled.
+	 */
+	public static Deadline enter(final String operation,
+		final long timeoutMillis)
+	{
+		final Deadline deadline = new Deadline(operation, timeoutMillis, CURRENT
+			.get());
+		CURRENT.set(deadline);
+		return deadline;
+	}
+
+	/**
+	 * Checks the deadline of the current thread, if any.
+	 *
+	 * @throws DeadlineExceededException if it has passed or was cancelled
+	 */
+	public static void check() throws DeadlineExceededException {
+		final Deadline deadline = CURRENT.get();
+		if (deadline != null) deadline.checkExpired();
+	}
+
+	/**
+	 * Cancels the operation. It fails at its next I/O check.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/** @return true if the operation was cancelled. */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @return true if an I/O check has failed because this deadline passed or
+	 *         was cancelled.
+	 */
+	public boolean isTripped() {
+		return tripped;
+	}
+
+	/** @return true if this deadline has passed or was cancelled. */
+	public boolean isExpired() {
+		return cancelled || timeoutMillis > 0 && System.nanoTime() - expiry > 0;
+	}
+
+	/**
+	 * @return an exception reporting that this deadline passed or was
+	 *         cancelled
+	 */
+	public DeadlineExceededException exceeded() {
+		return new DeadlineExceededException(cancelled ? operation +
+			" was cancelled" : operation + " exceeded its " + timeoutMillis +
+				" ms deadline", cancelled);
+	}
+
+	/** Ends the deadline, restoring the one it was nested in, if any. */
+	@Override
+	public void close() {
+		if (CURRENT.get() == this) {
+			if (previous == null) CURRENT.remove();
+			else CURRENT.set(previous);
+		}
+	}
+
+	// -- Helper methods --
+
+	private void checkExpired() throws DeadlineExceededException {
+		if (!isExpired()) return;
+		tripped = true;
+		throw exceeded();
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.wrapper;
+
+import java.io.IOException;
+
+import org.scijava.io.handle.DataHandle;
+import org.scijava.io.handle.DataHandleService;
+import org.scijava.io.location.Location;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+
+/**
+ * Default {@link SharedDataHandleService} implementation.
+ * <p>
+ * The initial bound on open handles can be set with the
+ * {@code scifio.bf.handles.max} system property; 0 means unbounded. It
+ * defaults to {@value #DEFAULT_MAX_OPEN_HANDLES}.
+ * </p>
+ */
+@Plugin(type = Service.class)
+public class DefaultSharedDataHandleService extends AbstractService implements
+	SharedDataHandleService
+{
+
+	// -- Constants --
+
+	/** System property holding the initial bound on open handles. */
+	public static final String MAX_OPEN_PROPERTY = "scifio.bf.handles.max";
+
+	/** Default bound on open handles. */
+	public static final int DEFAULT_MAX_OPEN_HANDLES = 256;
+
+	// -- Parameters --
+
+	@Parameter
+	private DataHandleService handles;
+
+	// -- Fields --
+
+	private HandlePool pool;
+
+	// -- Service methods --
+
+	@Override
+	public void initialize() {
+		pool = new HandlePool(handles, Integer.getInteger(MAX_OPEN_PROPERTY,
+			DEFAULT_MAX_OPEN_HANDLES));
+	}
+
+	// -- SharedDataHandleService methods --
+
+	@Override
+	public DataHandleAdapter open(final Location location) throws IOException {
+		return new DataHandleAdapter(pool.get(location));
+	}
+
+	@Override
+	public DataHandleAdapter share(final DataHandle<Location> handle)
+		throws IOException
+	{
+		return new DataHandleAdapter(pool.get(handle));
+	}
+
+	@Override
+	public int getReferenceCount(final Location location) {
+		final SharedHandle shared = pool.lookup(location);
+		return shared == null ? 0 : shared.getReferenceCount();
+	}
+
+	@Override
+	public int getHandleCount() {
+		return pool.size();
+	}
+
+	@Override
+	public int getMaxOpenHandles() {
+		return pool.getMaxOpen();
+	}
+
+	@Override
+	public void setMaxOpenHandles(final int max) {
+		pool.setMaxOpen(max);
+	}
+
+	@Override
+	public HandlePoolStatistics getStatistics() {
+		return pool.getStatistics();
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.wrapper;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.scijava.io.handle.DataHandle;
+import org.scijava.io.handle.DataHandleService;
+import org.scijava.io.location.Location;
+
+/**
+ * The {@link SharedHandle}s of all locations, of which at most a bounded
+ * number hold their handle open. Past the bound, the least recently used
+ * handles are closed; they are reopened on their next use, with each adapter
+ * restoring its own offset.
+ * <p>
+ * Shared handles opened by the pool are listed by location. Those over a
+ * handle owned by a caller are listed by that handle, so that a caller's
+ * handle is only ever shared with the adapters created for it.
+ * </p>
+ */
+final class HandlePool {
+
+	// -- Fields --
+
+	private final DataHandleService handles;
+
+	/** Shared handles by {@link SharedHandle#getKey() key}. */
+	private final Map<Object, SharedHandle> registry = new ConcurrentHashMap<>();
+
+	private final HandlePoolStatistics statistics = new HandlePoolStatistics();
+
+	private volatile int maxOpen;
+
+	// -- Constructors --
+
+	HandlePool(final DataHandleService handles, final int maxOpen) {
+		this.handles = handles;
+		this.maxOpen = Math.max(0, maxOpen);
+	}
+
+	// -- HandlePool methods --
+
+	/**
+	 * @return the listed shared handle of the location, listing a new one if
+	 *         there is none
+	 */
+	SharedHandle get(final Location location) {
+		final SharedHandle shared = registry.get(location);
+		if (shared == null) {
+			return registry.computeIfAbsent(location, l -> new SharedHandle(
+				location, this));
+		}
+		statistics.recordShared();
+		return shared;
+	}
+
+	/**
+	 * @return the listed shared handle over the given handle, listing a new one
+	 *         if there is none
+	 */
+	SharedHandle get(final DataHandle<Location> handle) {
+		final SharedHandle shared = registry.get(handle);
+		if (shared == null) {
+			return registry.computeIfAbsent(handle, h -> new SharedHandle(handle,
+				this));
+		}
+		statistics.recordShared();
+		return shared;
+	}
+
+	SharedHandle lookup(final Location location) {
+		return registry.get(location);
+	}
+
+	int size() {
+		return registry.size();
+	}
+
+	int getMaxOpen() {
+		return maxOpen;
+	}
+
+	void setMaxOpen(final int maxOpen) {
+		this.maxOpen = Math.max(0, maxOpen);
+		trim(null);
+	}
+
+	HandlePoolStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Lists the given shared handle, which is about to gain its first
+	 * reference, unless another one was listed for its location since it was
+	 * unlisted.
+	 *
+	 * @return the listed shared handle of the location
+	 */
+	SharedHandle register(final SharedHandle shared) {
+		final SharedHandle listed = registry.putIfAbsent(shared.getKey(), shared);
+		return listed == null ? shared : listed;
+	}
+
+	/** Unlists the given shared handle, which holds no references. */
+	void unregister(final SharedHandle shared) {
+		registry.remove(shared.getKey(), shared);
+	}
+
+	/** Opens a read-buffered handle on the given location. */
+	DataHandle<Location> open(final Location location, final boolean reopen)
+		throws IOException
+	{
+		final DataHandle<Location> created = handles.create(location);
+		if (created == null) {
+			throw new IOException("No handle for location " + location);
+		}
+		statistics.recordOpen(reopen);
+		return handles.readBuffer(created);
+	}
+
+	/** Records that a handle opened by {@link #open} was closed. */
+	void closed(final boolean evicted) {
+		statistics.recordClose(evicted);
+	}
+
+	/**
+	 * Evicts least recently used handles until the bound is met, sparing the
+	 * given one. Handles in use are never evicted.
+	 */
+	void trim(final SharedHandle keep) {
+		while (maxOpen > 0 && statistics.getOpenCount() > maxOpen) {
+			SharedHandle lru = null;
+			for (final SharedHandle shared : registry.values()) {
+				if (shared == keep || !shared.isEvictable()) continue;
+				if (lru == null || shared.getLastUse() < lru.getLastUse()) {
+					lru = shared;
+				}
+			}
+			if (lru == null || !lru.evict()) return;
+		}
+	}
+}
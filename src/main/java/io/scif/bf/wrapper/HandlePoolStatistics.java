@@ -0,0 +1,113 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.wrapper;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts of the handle pool of a {@link SharedDataHandleService}. Safe to read
+ * while handles are in use.
+ */
+public final class HandlePoolStatistics {
+
+	// -- Fields --
+
+	private final AtomicInteger open = new AtomicInteger();
+
+	private volatile int peak;
+
+	private final LongAdder opened = new LongAdder();
+
+	private final LongAdder reopened = new LongAdder();
+
+	private final LongAdder shared = new LongAdder();
+
+	private final LongAdder evicted = new LongAdder();
+
+	// -- HandlePoolStatistics API Methods --
+
+	/** @return the number of handles currently held open by the pool. */
+	public int getOpenCount() {
+		return open.get();
+	}
+
+	/** @return the largest number of handles the pool held open at once. */
+	public int getPeakOpenCount() {
+		return peak;
+	}
+
+	/** @return the number of handles opened for a new user. */
+	public long getOpened() {
+		return opened.sum();
+	}
+
+	/** @return the number of evicted handles reopened at their last offset. */
+	public long getReopened() {
+		return reopened.sum();
+	}
+
+	/** @return the number of adapters which found their handle already open. */
+	public long getShared() {
+		return shared.sum();
+	}
+
+	/** @return the number of handles closed to stay within the bound. */
+	public long getEvicted() {
+		return evicted.sum();
+	}
+
+	// -- Object API Methods --
+
+	@Override
+	public String toString() {
+		return String.format(
+			"%d open (peak %d): %d opened, %d reopened, %d shared, %d evicted",
+			getOpenCount(), getPeakOpenCount(), getOpened(), getReopened(),
+			getShared(), getEvicted());
+	}
+
+	// -- Helper methods --
+
+	void recordOpen(final boolean reopen) {
+		(reopen ? reopened : opened).increment();
+		final int count = open.incrementAndGet();
+		if (count > peak) peak = count;
+	}
+
+	void recordClose(final boolean evict) {
+		open.decrementAndGet();
+		if (evict) evicted.increment();
+	}
+
+	void recordShared() {
+		shared.increment();
+	}
+}
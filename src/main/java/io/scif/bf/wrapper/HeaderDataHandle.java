@@ -0,0 +1,195 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.wrapper;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+import org.scijava.io.handle.AbstractDataHandle;
+import org.scijava.io.handle.DataHandle;
+import org.scijava.io.location.Location;
+
+/**
+ * Read-only {@link DataHandle} which serves the leading bytes of a location
+ * from a header block read beforehand, so that many handles can share one
+ * read of it. Reads beyond the header go to a handle opened on first need,
+ * and closed along with this handle.
+ */
+public class HeaderDataHandle extends AbstractDataHandle<Location> {
+
+	// -- Fields --
+
+	private final byte[] header;
+
+	private final long length;
+
+	/** Opens the handle for reads beyond the header. */
+	private final Callable<DataHandle<Location>> opener;
+
+	private DataHandle<Location> rest;
+
+	private long offset;
+
+	private boolean closed;
+
+	// -- Constructor --
+
+	/**
+	 * @param header The first bytes of the location; not copied, so it must
+	 *          not be modified while in use.
+	 * @param length The length of the location.
+	 */
+	public HeaderDataHandle(final Location location, final byte[] header,
+		final long length, final Callable<DataHandle<Location>> opener)
+	{
+		this.header = header;
+		this.length = length;
+		this.opener = opener;
+		set(location);
+	}
+
+	// -- DataHandle methods --
+
+	@Override
+	public boolean isReadable() {
+		return true;
+	}
+
+	@Override
+	public boolean isWritable() {
+		return false;
+	}
+
+	@Override
+	public boolean exists() throws IOException {
+		return true;
+	}
+
+	@Override
+	public long offset() throws IOException {
+		return offset;
+	}
+
+	@Override
+	public void seek(final long pos) throws IOException {
+		offset = pos;
+	}
+
+	@Override
+	public long length() throws IOException {
+		return length;
+	}
+
+	@Override
+	public void setLength(final long length) throws IOException {
+		throw readOnly();
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len)
+		throws IOException
+	{
+		if (closed) throw new IOException("Handle is closed");
+		if (len == 0) return 0;
+		if (offset >= length) return -1;
+		int n = 0;
+		if (offset < header.length) {
+			n = (int) Math.min(len, header.length - offset);
+			System.arraycopy(header, (int) offset, b, off, n);
+			offset += n;
+		}
+		if (n < len && offset < length) {
+			final DataHandle<Location> handle = rest();
+			handle.seek(offset);
+			final int r = handle.read(b, off + n, len - n);
+			if (r > 0) {
+				offset += r;
+				n += r;
+			}
+		}
+		return n == 0 ? -1 : n;
+	}
+
+	@Override
+	public byte readByte() throws IOException {
+		if (offset >= 0 && offset < header.length) return header[(int) offset++];
+		final byte[] b = new byte[1];
+		if (read(b, 0, 1) < 1) throw new EOFException();
+		return b[0];
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		throw readOnly();
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len)
+		throws IOException
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public Class<Location> getType() {
+		return Location.class;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		if (rest != null) rest.close();
+		rest = null;
+	}
+
+	// -- Helper methods --
+
+	private DataHandle<Location> rest() throws IOException {
+		if (rest == null) {
+			try {
+				rest = opener.call();
+			}
+			catch (final IOException e) {
+				throw e;
+			}
+			catch (final Exception e) {
+				throw new IOException(e);
+			}
+			if (rest == null) throw new IOException("Cannot open " + get());
+		}
+		return rest;
+	}
+
+	private IOException readOnly() {
+		return new IOException("HeaderDataHandle is read-only!");
+	}
+}
@@ -0,0 +1,503 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.wrapper;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.scijava.io.handle.AbstractDataHandle;
+import org.scijava.io.handle.DataHandle;
+import org.scijava.io.location.Location;
+
+/**
+ * Read-only {@link DataHandle} for high-latency sources, such as object
+ * stores or HTTP, which reads through a bounded cache of fixed-size blocks.
+ * <p>
+ * The blocks a read misses are coalesced into ranges of consecutive blocks,
+ * each fetched with a single seek and read. Independent ranges, and long
+ * ranges split into several requests, are fetched in parallel, on up to
+ * {@code parallelism} handles of the same location. Sequential reads prefetch
+ * the following blocks.
+ * </p>
+ * <p>
+ * The wrapped handle is used as the first fetch handle, and is not closed by
+ * this handle; the handles opened in addition are. Closing this handle waits
+ * for the ranges being fetched, and cancels those not yet started, so that no
+ * fetch handle is used once it returns.
+ * </p>
+ */
+public class RangeFetchDataHandle extends AbstractDataHandle<Location> {
+
+	// -- Constants --
+
+	/** Default size of cached blocks, in bytes. */
+	public static final int DEFAULT_BLOCK_SIZE = 64 << 10;
+
+	/** Default number of cached blocks. */
+	public static final int DEFAULT_MAX_BLOCKS = 256;
+
+	/** Default number of handles fetching ranges at once. */
+	public static final int DEFAULT_PARALLELISM = 4;
+
+	/** Maximum number of blocks fetched by one request. */
+	private static final int MAX_RANGE_BLOCKS = 16;
+
+	// -- Fields --
+
+	private final DataHandle<Location> handle;
+
+	/** Opens additional handles on the location, or null. */
+	private final Callable<DataHandle<Location>> opener;
+
+	private final Executor executor;
+
+	private final int parallelism;
+
+	private final int blockSize;
+
+	private final int maxBlocks;
+
+	/** Fetch handles not currently in use. */
+	private final BlockingQueue<DataHandle<Location>> idle =
+		new LinkedBlockingQueue<>();
+
+	/** Handles opened in addition to the wrapped one. */
+	private final List<DataHandle<Location>> opened = new ArrayList<>();
+
+	/** Cached blocks by index, least recently used first. */
+	private final LinkedHashMap<Long, byte[]> blocks;
+
+	/** Blocks being fetched, by index. Guarded by {@link #blocks}. */
+	private final Map<Long, CompletableFuture<byte[]>> inFlight =
+		new HashMap<>();
+
+	/** Ranges scheduled but not completed. Guarded by {@link #blocks}. */
+	private int fetching;
+
+	private final LongAdder requests = new LongAdder();
+
+	private final LongAdder fetchedBytes = new LongAdder();
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private long offset;
+
+	/** End of the previous read, to detect sequential access. */
+	private long lastEnd = -1;
+
+	private long length = -1;
+
+	private volatile boolean closed;
+
+	// -- Constructors --
+
+	public RangeFetchDataHandle(final DataHandle<Location> handle,
+		final Callable<DataHandle<Location>> opener, final Executor executor)
+	{
+		this(handle, opener, executor, DEFAULT_PARALLELISM, DEFAULT_BLOCK_SIZE,
+			DEFAULT_MAX_BLOCKS);
+	}
+
+	public RangeFetchDataHandle(final DataHandle<Location> handle,
+		final Callable<DataHandle<Location>> opener, final Executor executor,
+		final int parallelism, final int blockSize, final int maxBlocks)
+	{
+		if (parallelism < 1 || blockSize < 1 || maxBlocks < 1) {
+			throw new IllegalArgumentException("Invalid fetch parameters");
+		}
+		this.handle = handle;
+		this.opener = opener;
+		this.executor = executor;
+		this.parallelism = parallelism;
+		this.blockSize = blockSize;
+		this.maxBlocks = maxBlocks;
+		blocks = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(
+				final Map.Entry<Long, byte[]> eldest)
+			{
+				return size() > RangeFetchDataHandle.this.maxBlocks;
+			}
+		};
+		idle.add(handle);
+		set(handle.get());
+	}
+
+	// -- RangeFetchDataHandle methods --
+
+	/** @return the number of range requests issued. */
+	public long getRequestCount() {
+		return requests.sum();
+	}
+
+	/** @return the number of bytes fetched by range requests. */
+	public long getFetchedBytes() {
+		return fetchedBytes.sum();
+	}
+
+	/** @return the number of blocks read from the cache or a pending fetch. */
+	public long getBlockHits() {
+		return hits.sum();
+	}
+
+	/** @return the number of blocks which had to be fetched for a read. */
+	public long getBlockMisses() {
+		return misses.sum();
+	}
+
+	// -- DataHandle methods --
+
+	@Override
+	public boolean isReadable() {
+		return true;
+	}
+
+	@Override
+	public boolean isWritable() {
+		return false;
+	}
+
+	@Override
+	public boolean exists() throws IOException {
+		return handle.exists();
+	}
+
+	@Override
+	public long offset() throws IOException {
+		return offset;
+	}
+
+	@Override
+	public void seek(final long pos) throws IOException {
+		offset = pos;
+	}
+
+	@Override
+	public long length() throws IOException {
+		if (length < 0) length = handle.length();
+		return length;
+	}
+
+	@Override
+	public void setLength(final long length) throws IOException {
+		throw readOnly();
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len)
+		throws IOException
+	{
+		if (closed) throw new IOException("Handle is closed");
+		if (len == 0) return 0;
+		final long size = length();
+		if (offset >= size) return -1;
+		final int n = (int) Math.min(len, size - offset);
+		final long first = offset / blockSize;
+		final long last = (offset + n - 1) / blockSize;
+		if (first == last) {
+			// fast path for small reads within a cached block
+			final byte[] cached;
+			synchronized (blocks) {
+				cached = blocks.get(first);
+			}
+			if (cached != null) {
+				hits.increment();
+				System.arraycopy(cached, (int) (offset % blockSize), b, off, n);
+				offset += n;
+				lastEnd = offset;
+				return n;
+			}
+		}
+		final byte[][] data = fetch(first, last, true);
+
+		int copied = 0;
+		for (int i = 0; i < data.length; i++) {
+			final int start = i == 0 ? (int) (offset % blockSize) : 0;
+			final int count = Math.min(n - copied, data[i].length - start);
+			System.arraycopy(data[i], start, b, off + copied, count);
+			copied += count;
+		}
+
+		final boolean sequential = offset == lastEnd;
+		offset += n;
+		lastEnd = offset;
+		if (sequential && (last + 1) * blockSize < size) {
+			fetch(last + 1, Math.min(last + MAX_RANGE_BLOCKS, (size - 1) /
+				blockSize), false);
+		}
+		return n;
+	}
+
+	@Override
+	public byte readByte() throws IOException {
+		final byte[] b = new byte[1];
+		if (read(b, 0, 1) < 1) throw new EOFException();
+		return b[0];
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		throw readOnly();
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len)
+		throws IOException
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public Class<Location> getType() {
+		return Location.class;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		boolean interrupted = false;
+		synchronized (blocks) {
+			while (fetching > 0) {
+				try {
+					blocks.wait();
+				}
+				catch (final InterruptedException e) {
+					// NB: the fetch handles must not be closed while in use.
+					interrupted = true;
+				}
+			}
+			blocks.clear();
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+		IOException failure = null;
+		synchronized (opened) {
+			for (final DataHandle<Location> h : opened) {
+				try {
+					h.close();
+				}
+				catch (final IOException e) {
+					failure = e;
+				}
+			}
+			opened.clear();
+		}
+		if (failure != null) throw failure;
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Gets the given blocks, fetching the missing ones in coalesced ranges.
+	 *
+	 * @param wait whether to wait for the blocks, or only start fetching them
+	 * @return the blocks, or null if not waiting
+	 */
+	private byte[][] fetch(final long first, final long last,
+		final boolean wait) throws IOException
+	{
+		final int count = (int) (last - first + 1);
+		final byte[][] data = new byte[count][];
+		final List<CompletableFuture<byte[]>> futures = new ArrayList<>(count);
+		final List<long[]> ranges = new ArrayList<>();
+		synchronized (blocks) {
+			for (long b = first; b <= last; b++) {
+				final byte[] cached = blocks.get(b);
+				CompletableFuture<byte[]> future = inFlight.get(b);
+				if (cached != null || future != null) {
+					if (wait) hits.increment();
+					if (cached != null) future = CompletableFuture.completedFuture(
+						cached);
+				}
+				else {
+					if (wait) misses.increment();
+					future = new CompletableFuture<>();
+					inFlight.put(b, future);
+					final long[] range = ranges.isEmpty() ? null : ranges.get(ranges
+						.size() - 1);
+					if (range != null && range[1] == b - 1 &&
+						range[1] - range[0] + 1 < MAX_RANGE_BLOCKS)
+					{
+						range[1] = b;
+					}
+					else ranges.add(new long[] { b, b });
+				}
+				futures.add(future);
+			}
+			fetching += ranges.size();
+		}
+		// NB: the caller fetches the first range itself, saving a hand-off
+		for (int r = ranges.size() - 1; r >= 0; r--) {
+			final long[] range = ranges.get(r);
+			if (r == 0 && wait) fetchRange(range[0], range[1]);
+			else schedule(range[0], range[1]);
+		}
+		if (!wait) return null;
+		try {
+			for (int i = 0; i < count; i++) {
+				data[i] = futures.get(i).get();
+			}
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while fetching " + get(), e);
+		}
+		catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw new IOException(cause.getMessage(), cause);
+			}
+			throw new IOException(cause);
+		}
+		return data;
+	}
+
+	/** Fetches the given blocks on the executor. */
+	private void schedule(final long first, final long last) {
+		try {
+			executor.execute(() -> fetchRange(first, last));
+		}
+		catch (final RejectedExecutionException e) {
+			complete(first, last, null, e);
+		}
+	}
+
+	/**
+	 * Fetches the given blocks with one request, completing their futures. The
+	 * request is skipped if this handle was closed.
+	 */
+	private void fetchRange(final long first, final long last) {
+		if (closed) {
+			complete(first, last, null, new IOException("Handle is closed"));
+			return;
+		}
+		final long start = first * blockSize;
+		byte[] range = null;
+		Throwable failure = null;
+		try {
+			final int n = (int) Math.min((last - first + 1) * blockSize, length() -
+				start);
+			range = new byte[n];
+			final DataHandle<Location> h = borrow();
+			try {
+				h.seek(start);
+				h.readFully(range);
+			}
+			finally {
+				idle.add(h);
+			}
+			requests.increment();
+			fetchedBytes.add(n);
+		}
+		catch (final IOException | RuntimeException e) {
+			failure = e;
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failure = e;
+		}
+		complete(first, last, range, failure);
+	}
+
+	/**
+	 * Completes the futures of the given blocks with the fetched range, or the
+	 * failure if it is not null.
+	 */
+	private void complete(final long first, final long last, final byte[] range,
+		final Throwable failure)
+	{
+		synchronized (blocks) {
+			for (long b = first; b <= last; b++) {
+				final CompletableFuture<byte[]> future = inFlight.remove(b);
+				if (failure != null) {
+					future.completeExceptionally(failure);
+					continue;
+				}
+				final int from = (int) ((b - first) * blockSize);
+				final byte[] block = new byte[Math.min(blockSize, range.length -
+					from)];
+				System.arraycopy(range, from, block, 0, block.length);
+				if (!closed) blocks.put(b, block);
+				future.complete(block);
+			}
+			fetching--;
+			blocks.notifyAll();
+		}
+	}
+
+	/** Takes an idle fetch handle, opening one if allowed. */
+	private DataHandle<Location> borrow() throws IOException,
+		InterruptedException
+	{
+		final DataHandle<Location> h = idle.poll();
+		if (h != null) return h;
+		if (opener != null) {
+			synchronized (opened) {
+				if (!closed && opened.size() + 1 < parallelism) {
+					final DataHandle<Location> created;
+					try {
+						created = opener.call();
+					}
+					catch (final IOException e) {
+						throw e;
+					}
+					catch (final Exception e) {
+						throw new IOException(e);
+					}
+					if (created != null) {
+						opened.add(created);
+						return created;
+					}
+				}
+			}
+		}
+		return idle.take();
+	}
+
+	private IOException readOnly() {
+		return new IOException("RangeFetchDataHandle is read-only!");
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.wrapper;
+
+import java.io.IOException;
+
+import org.scijava.io.handle.DataHandle;
+import org.scijava.io.location.Location;
+import org.scijava.service.SciJavaService;
+
+/**
+ * Shares one open {@link DataHandle} per location, or per handle shared by
+ * its owner, among all the {@link DataHandleAdapter}s reading it, such as
+ * those of the checker, the parser and pooled Bio-Formats readers.
+ * <p>
+ * Each adapter holds a reference to the shared handle. Closing an adapter
+ * releases its reference, and the handle is closed once no references are
+ * left. An adapter used again after being closed, as Bio-Formats does with
+ * mapped ids, takes a new reference and reopens the handle if necessary.
+ * </p>
+ * <p>
+ * At most {@link #getMaxOpenHandles()} opened handles are held open. Past that
+ * bound, the least recently used handles not in use are closed, and reopened
+ * at each adapter's saved offset when next read.
+ * </p>
+ */
+public interface SharedDataHandleService extends SciJavaService {
+
+	/**
+	 * Creates an adapter over the shared handle of the given location. The
+	 * handle is opened, read-buffered, when the adapter is first used.
+	 */
+	DataHandleAdapter open(Location location) throws IOException;
+
+	/**
+	 * Creates an adapter over the given handle, shared with the other adapters
+	 * created for that same handle, but never with those of its location or of
+	 * other handles. The handle stays owned by the caller and is never closed
+	 * by this service.
+	 */
+	DataHandleAdapter share(DataHandle<Location> handle) throws IOException;
+
+	/**
+	 * @return the number of open references to the handle this service opened
+	 *         for the given location
+	 */
+	int getReferenceCount(Location location);
+
+	/** @return the number of locations with a shared handle. */
+	int getHandleCount();
+
+	/** @return the bound on open handles, or 0 if unbounded. */
+	int getMaxOpenHandles();
+
+	/**
+	 * Sets the bound on open handles, evicting handles as needed; 0 means
+	 * unbounded.
+	 */
+	void setMaxOpenHandles(int max);
+
+	/** @return the statistics of the handle pool. */
+	HandlePoolStatistics getStatistics();
+}
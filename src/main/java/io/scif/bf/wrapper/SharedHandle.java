@@ -0,0 +1,243 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.wrapper;
+
+import java.io.IOException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.scijava.io.handle.DataHandle;
+import org.scijava.io.location.Location;
+
+/**
+ * A {@link DataHandle} shared by the {@link DataHandleAdapter}s of one
+ * location. An opened handle is closed once the last adapter releases it, or
+ * when its {@link HandlePool} evicts it, and reopened when an adapter is used
+ * again; a handle shared on behalf of its owner is never closed.
+ * <p>
+ * Each adapter keeps its own file pointer, byte order and encoding, which are
+ * restored on the handle whenever a different adapter uses it, or the handle
+ * was reopened.
+ * </p>
+ */
+final class SharedHandle {
+
+	// -- Fields --
+
+	private final Location location;
+
+	private final HandlePool pool;
+
+	/** Whether the handle is opened and closed by this shared handle. */
+	private final boolean owned;
+
+	/** The location if owned, or the handle of its owner otherwise. */
+	private final Object key;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private volatile DataHandle<Location> handle;
+
+	/** Whether the handle was evicted while still referenced. */
+	private boolean evicted;
+
+	private int references;
+
+	/** The adapter whose state the handle currently reflects. */
+	private DataHandleAdapter user;
+
+	private volatile long lastUse = System.nanoTime();
+
+	// -- Constructors --
+
+	/** Creates a shared handle which is opened from the given location. */
+	SharedHandle(final Location location, final HandlePool pool) {
+		this.location = location;
+		this.pool = pool;
+		this.owned = true;
+		this.key = location;
+	}
+
+	/** Creates a shared handle over a handle which is closed by its owner. */
+	SharedHandle(final DataHandle<Location> handle, final HandlePool pool) {
+		this.location = handle.get();
+		this.pool = pool;
+		this.owned = false;
+		this.handle = handle;
+		this.key = handle;
+	}
+
+	// -- SharedHandle methods --
+
+	Location getLocation() {
+		return location;
+	}
+
+	/** @return the key this shared handle is listed by in its pool. */
+	Object getKey() {
+		return key;
+	}
+
+	long getLastUse() {
+		return lastUse;
+	}
+
+	synchronized int getReferenceCount() {
+		return references;
+	}
+
+	/** @return the open handle, or null if it is closed. */
+	synchronized DataHandle<Location> get() {
+		user = null;
+		return handle;
+	}
+
+	/**
+	 * Adds a reference, opening the handle if necessary. A shared handle which
+	 * lost its last reference is listed again, unless its pool has listed
+	 * another one for the location meanwhile, in which case the reference is
+	 * added to that one instead.
+	 *
+	 * @return the shared handle which gained the reference
+	 */
+	SharedHandle retain() throws IOException {
+		final SharedHandle listed;
+		synchronized (this) {
+			listed = references == 0 ? pool.register(this) : this;
+			if (listed == this) {
+				if (references == 0 && handle == null) {
+					handle = pool.open(location, false);
+					evicted = false;
+				}
+				references++;
+			}
+		}
+		if (listed != this) return listed.retain();
+		pool.trim(this);
+		return this;
+	}
+
+	/** Unlists this shared handle if it was never given a reference. */
+	synchronized void discard() {
+		if (references == 0) pool.unregister(this);
+	}
+
+	/** Drops a reference, closing the handle if it was the last one. */
+	synchronized void release() throws IOException {
+		if (references == 0 || --references > 0) return;
+		pool.unregister(this);
+		user = null;
+		if (!owned || handle == null) return;
+		try {
+			handle.close();
+		}
+		finally {
+			handle = null;
+			pool.closed(false);
+		}
+	}
+
+	/**
+	 * Locks the handle for an operation of the given adapter, which must hold a
+	 * reference, reopening the handle if it was evicted. Must be paired with
+	 * {@link #unlock()}.
+	 */
+	DataHandle<Location> lock(final DataHandleAdapter adapter)
+		throws IOException
+	{
+		lock.lock();
+		try {
+			final DataHandle<Location> h;
+			final boolean reopened;
+			synchronized (this) {
+				reopened = handle == null;
+				if (reopened) {
+					handle = pool.open(location, evicted);
+					evicted = false;
+					user = null;
+				}
+				h = handle;
+				if (user != adapter) {
+					adapter.restore(h);
+					user = adapter;
+				}
+			}
+			lastUse = System.nanoTime();
+			if (reopened) pool.trim(this);
+			return h;
+		}
+		catch (final IOException | RuntimeException e) {
+			lock.unlock();
+			throw e;
+		}
+	}
+
+	void unlock() {
+		lock.unlock();
+	}
+
+	/** Makes the given adapter restore its state on its next operation. */
+	synchronized void invalidate(final DataHandleAdapter adapter) {
+		if (user == adapter) user = null;
+	}
+
+	/** @return true if the handle is open and could be evicted. */
+	boolean isEvictable() {
+		return owned && handle != null && !lock.isLocked();
+	}
+
+	/**
+	 * Closes the handle to free its resources, keeping all references. Does
+	 * nothing if the handle is in use.
+	 *
+	 * @return true if the handle was closed
+	 */
+	boolean evict() {
+		if (!lock.tryLock()) return false;
+		try {
+			synchronized (this) {
+				if (!owned || handle == null) return false;
+				try {
+					handle.close();
+				}
+				catch (final IOException e) {
+					// NB: the handle is abandoned either way.
+				}
+				handle = null;
+				evicted = true;
+				user = null;
+			}
+			pool.closed(true);
+			return true;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,183 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import io.scif.Reader;
+import io.scif.SCIFIO;
+import io.scif.bf.benchmark.SyntheticData;
+import io.scif.bf.wrapper.DeadlineExceededException;
+import io.scif.bf.wrapper.LatencyDataHandle;
+import io.scif.config.SCIFIOConfig;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import loci.formats.IFormatReader;
+import loci.formats.ImageReader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.io.handle.DataHandle;
+import org.scijava.io.handle.DataHandleService;
+import org.scijava.io.location.BytesLocation;
+import org.scijava.io.location.FileLocation;
+import org.scijava.io.location.Location;
+
+/**
+ * Tests {@link BioFormatsFormat}.
+ */
+public class BioFormatsFormatTest {
+
+	private SCIFIO scifio;
+
+	private BioFormatsFormat format;
+
+	@Before
+	public void setUp() {
+		scifio = new SCIFIO();
+		format = scifio.format().getFormatFromClass(BioFormatsFormat.class);
+	}
+
+	@After
+	public void tearDown() {
+		scifio.getContext().dispose();
+	}
+
+	/**
+	 * Tests that a parse which passes its time limit fails with a
+	 * {@link DeadlineExceededException}, rather than an exception from the
+	 * reader it abandoned.
+	 */
+	@Test(expected = DeadlineExceededException.class)
+	public void testParseTimeout() throws Exception {
+		final File file = SyntheticData.omeTiff(256, 256, 4, 8, 0);
+		final Location bytes = new BytesLocation(Files.readAllBytes(file
+			.toPath()), file.getName());
+		final DataHandleService handles = scifio.getContext().service(
+			DataHandleService.class);
+		final SCIFIOConfig config = BioFormatsConfig.setParseTimeout(
+			new SCIFIOConfig(), 1);
+		try (final DataHandle<Location> handle = new LatencyDataHandle(handles
+			.create(bytes), 20))
+		{
+			format.createParser().parse(handle, config);
+		}
+	}
+
+	/**
+	 * Tests that the reader selected for a file is reused to parse another file
+	 * of the same format, once the first file's metadata is closed.
+	 */
+	@Test
+	public void testReuseReader() throws Exception {
+		final IFormatReader selected = parseAndClose(SyntheticData.omeTiff(64, 64,
+			2, 1, 0), false);
+		final BioFormatsFormat.Metadata meta = parse(SyntheticData.omeTiff(96, 96,
+			2, 1, 0));
+		assertSame(selected, meta.getReader());
+		meta.close();
+	}
+
+	/**
+	 * Tests that the reader of a dataset whose reader was parked is still
+	 * reused once the dataset's metadata is closed.
+	 */
+	@Test
+	public void testReuseParkedReader() throws Exception {
+		final IFormatReader selected = parseAndClose(SyntheticData.omeTiff(64, 64,
+			2, 1, 0), true);
+		final BioFormatsFormat.Metadata meta = parse(SyntheticData.omeTiff(96, 96,
+			2, 1, 0));
+		assertSame(selected, meta.getReader());
+		meta.close();
+	}
+
+	/**
+	 * Tests that a parked reader is reopened transparently, and that parking
+	 * leaves the metadata tables reading through to the closed reader's maps.
+	 */
+	@Test
+	public void testParkAndReopen() throws Exception {
+		final BioFormatsFormat.Metadata meta =
+			(BioFormatsFormat.Metadata) format.createParser().parse(
+				new FileLocation(SyntheticData.omeTiff(64, 64, 2, 1, 0)),
+				new SCIFIOConfig());
+		final Reader reader = format.createReader();
+		reader.setMetadata(meta);
+		final byte[] plane = reader.openPlane(0, 1).getBytes();
+		final LazyMetaTable table = (LazyMetaTable) meta.getTable();
+		final int entries = table.size();
+		final long footprint = meta.estimateFootprint();
+
+		assertTrue(meta.park());
+		assertFalse(table.isMaterialized());
+		assertEquals(entries, table.size());
+		assertTrue(meta.estimateFootprint() < footprint);
+
+		assertArrayEquals(plane, reader.openPlane(0, 1).getBytes());
+		assertEquals(footprint, meta.estimateFootprint());
+		// NB: a reopened reader can be parked again
+		assertTrue(meta.park());
+		meta.close();
+	}
+
+	// -- Helper methods --
+
+	private BioFormatsFormat.Metadata parse(final File file) throws Exception {
+		final SCIFIOConfig config = BioFormatsConfig.setReuseReaders(
+			new SCIFIOConfig(), true);
+		return (BioFormatsFormat.Metadata) format.createParser().parse(
+			new FileLocation(file), config);
+	}
+
+	/**
+	 * Parses the given file with reader reuse enabled, then closes its
+	 * metadata, parking its reader first if requested.
+	 *
+	 * @return the reader selected to parse the file
+	 */
+	private IFormatReader parseAndClose(final File file, final boolean park)
+		throws Exception
+	{
+		final BioFormatsFormat.Metadata meta = parse(file);
+		final IFormatReader selected = ((ImageReader) meta.getReader())
+			.getReader();
+		if (park) assertTrue(meta.park());
+		meta.close();
+		return selected;
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import io.scif.MetaTable;
+
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link LazyMetaTable}.
+ */
+public class LazyMetaTableTest {
+
+	private Hashtable<String, Object> source;
+
+	private LazyMetaTable table;
+
+	@Before
+	public void setUp() {
+		source = new Hashtable<>();
+		source.put("a", 1);
+		source.put("b", "two");
+		table = new LazyMetaTable(source);
+	}
+
+	/** Tests that reads go through to the source without copying it. */
+	@Test
+	public void testReadThrough() {
+		assertEquals(2, table.size());
+		assertEquals(1, table.get("a"));
+		assertTrue(table.containsKey("b"));
+		assertTrue(table.containsValue("two"));
+		assertNull(table.get(null));
+		assertFalse(table.containsKey(null));
+		source.put("c", 3.0);
+		assertEquals(3.0, table.get("c"));
+		assertEquals(3, table.entrySet().size());
+		assertFalse(table.isMaterialized());
+	}
+
+	/** Tests that a null source is an empty table. */
+	@Test
+	public void testNullSource() {
+		final LazyMetaTable empty = new LazyMetaTable(null);
+		assertTrue(empty.isEmpty());
+		assertNull(empty.get("a"));
+		empty.put("a", 1);
+		assertEquals(1, empty.get("a"));
+	}
+
+	/**
+	 * Tests that modifications copy the source, which is never modified and no
+	 * longer read.
+	 */
+	@Test
+	public void testPutMaterializes() {
+		assertNull(table.put("c", 3));
+		assertTrue(table.isMaterialized());
+		assertEquals(3, table.get("c"));
+		assertFalse(source.containsKey("c"));
+		source.put("d", 4);
+		assertFalse(table.containsKey("d"));
+		assertEquals(3, table.size());
+	}
+
+	/** Tests that removing an absent key does not copy the source. */
+	@Test
+	public void testRemove() {
+		assertNull(table.remove("missing"));
+		assertFalse(table.isMaterialized());
+		assertEquals(1, table.remove("a"));
+		assertTrue(table.isMaterialized());
+		assertFalse(table.containsKey("a"));
+		assertEquals(1, source.get("a"));
+	}
+
+	/** Tests that clearing copies the source rather than clearing it. */
+	@Test
+	public void testClear() {
+		table.clear();
+		assertTrue(table.isEmpty());
+		assertEquals(2, source.size());
+	}
+
+	/** Tests that list values are added to a copy. */
+	@Test
+	public void testPutList() {
+		table.putList("list", 1);
+		table.putList("list", 2);
+		assertTrue(table.isMaterialized());
+		assertEquals(2, ((List<?>) table.get("list")).size());
+		assertFalse(source.containsKey("list"));
+	}
+
+	/**
+	 * Tests that the entries of the source are immutable, and that removing
+	 * through the iterator copies the source while iteration continues.
+	 */
+	@Test
+	public void testIteratorRemove() {
+		final Iterator<Map.Entry<String, Object>> it = table.entrySet()
+			.iterator();
+		final Map.Entry<String, Object> first = it.next();
+		try {
+			first.setValue("changed");
+			fail("source entries are mutable");
+		}
+		catch (final UnsupportedOperationException e) {
+			// NB: expected
+		}
+		it.remove();
+		assertTrue(table.isMaterialized());
+		assertTrue(it.hasNext());
+		final Map.Entry<String, Object> second = it.next();
+		assertFalse(it.hasNext());
+		assertEquals(1, table.size());
+		assertEquals(second.getValue(), table.get(second.getKey()));
+		assertFalse(table.containsKey(first.getKey()));
+		assertEquals(2, source.size());
+	}
+
+	/** Tests that materializing copies once, and returns the copy. */
+	@Test
+	public void testMaterialize() {
+		final MetaTable copy = table.materialize();
+		assertSame(copy, table.materialize());
+		assertEquals(source, copy);
+		source.clear();
+		assertEquals(2, table.size());
+	}
+}
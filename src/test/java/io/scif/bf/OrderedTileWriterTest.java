@@ -0,0 +1,182 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link OrderedTileWriter}.
+ */
+public class OrderedTileWriterTest {
+
+	/** Number of tiles written by each test. */
+	private static final int COUNT = 200;
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(4);
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		executor.shutdownNow();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+	}
+
+	/** Tests that tiles submitted out of order are written in sequence. */
+	@Test
+	public void testWritesInSequence() throws IOException {
+		final List<Long> written = Collections.synchronizedList(
+			new ArrayList<>());
+		final OrderedTileWriter writer = new OrderedTileWriter(tile -> written
+			.add(tile.first), executor, COUNT, Long.MAX_VALUE);
+		for (int i = COUNT - 1; i >= 0; i--) {
+			writer.submit(tile(i, new byte[8]));
+		}
+		writer.finish();
+		assertSequence(written);
+	}
+
+	/**
+	 * Tests that tiles are encoded concurrently, and that only their encoded
+	 * data is written, in sequence.
+	 */
+	@Test
+	public void testEncodesInParallel() throws IOException {
+		final List<Long> written = Collections.synchronizedList(
+			new ArrayList<>());
+		final AtomicInteger encoding = new AtomicInteger();
+		final AtomicInteger maxEncoding = new AtomicInteger();
+		final OrderedTileWriter writer = new OrderedTileWriter(tile -> {
+			assertEquals(1, tile.data.length);
+			assertEquals((byte) tile.first, tile.data[0]);
+			written.add(tile.first);
+		}, tile -> {
+			final int count = encoding.incrementAndGet();
+			maxEncoding.accumulateAndGet(count, Math::max);
+			Thread.sleep(2);
+			encoding.decrementAndGet();
+			return tile(tile.first, new byte[] { (byte) tile.first });
+		}, executor, COUNT, Long.MAX_VALUE);
+		for (int i = 0; i < COUNT; i++) {
+			writer.submit(tile(i ^ 1, new byte[1024]));
+		}
+		writer.finish();
+		assertSequence(written);
+		assertTrue("tiles were encoded one at a time", maxEncoding.get() > 1);
+	}
+
+	/** Tests that callers wait, rather than fail, when over the bound. */
+	@Test
+	public void testBoundsPendingBytes() throws IOException {
+		final List<Long> written = Collections.synchronizedList(
+			new ArrayList<>());
+		final OrderedTileWriter writer = new OrderedTileWriter(tile -> written
+			.add(tile.first), tile -> tile, executor, COUNT, 4096);
+		for (int i = 0; i < COUNT; i++) {
+			writer.submit(tile(i, new byte[1024]));
+		}
+		writer.finish();
+		assertSequence(written);
+	}
+
+	/** Tests that a failed encode is reported, and later tiles dropped. */
+	@Test
+	public void testEncodeFailure() throws IOException {
+		final List<Long> written = Collections.synchronizedList(
+			new ArrayList<>());
+		final OrderedTileWriter writer = new OrderedTileWriter(tile -> written
+			.add(tile.first), tile -> {
+				if (tile.first == 10) throw new IOException("corrupt tile");
+				return tile;
+			}, executor, COUNT, Long.MAX_VALUE);
+		for (int i = 0; i < COUNT; i++) {
+			try {
+				writer.submit(tile(i, new byte[8]));
+			}
+			catch (final IOException e) {
+				// NB: submissions fail once the failure was recorded
+				break;
+			}
+		}
+		try {
+			writer.finish();
+			fail("the encode failure was not reported");
+		}
+		catch (final IOException e) {
+			assertEquals("corrupt tile", e.getMessage());
+		}
+		assertTrue(written.size() <= 10);
+	}
+
+	/** Tests that a sequence number cannot be submitted twice. */
+	@Test(expected = IOException.class)
+	public void testDuplicate() throws IOException {
+		final OrderedTileWriter writer = new OrderedTileWriter(tile -> {}, tile -> {
+			Thread.sleep(100);
+			return tile;
+		}, executor, COUNT, Long.MAX_VALUE);
+		writer.submit(tile(5, new byte[8]));
+		writer.submit(tile(5, new byte[8]));
+	}
+
+	// -- Helper methods --
+
+	private static OrderedTileWriter.Tile tile(final long sequence,
+		final byte[] data)
+	{
+		return new OrderedTileWriter.Tile(sequence, sequence, 0, 0, 0, 0, 1, 1,
+			data);
+	}
+
+	private static void assertSequence(final List<Long> written) {
+		assertEquals(COUNT, written.size());
+		for (int i = 0; i < COUNT; i++) {
+			assertEquals(i, written.get(i).longValue());
+		}
+	}
+}
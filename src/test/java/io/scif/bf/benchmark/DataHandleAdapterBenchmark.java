@@ -0,0 +1,136 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.benchmark;
+
+import io.scif.SCIFIO;
+import io.scif.bf.wrapper.DataHandleAdapter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.scijava.io.handle.DataHandle;
+import org.scijava.io.handle.DataHandleService;
+import org.scijava.io.location.FileLocation;
+import org.scijava.io.location.Location;
+
+/**
+ * Benchmarks primitive and bulk reads through {@link DataHandleAdapter}, which
+ * is how Bio-Formats readers see non-file SCIFIO sources.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataHandleAdapterBenchmark {
+
+	/** Number of shorts read by {@link #readShorts()}. */
+	private static final int SHORT_COUNT = 1 << 18;
+
+	/** Whether to wrap the file handle in a read buffer. */
+	@Param({ "false", "true" })
+	public boolean buffered;
+
+	/** Size of each bulk read. */
+	@Param({ "4096", "65536" })
+	public int blockSize;
+
+	private SCIFIO scifio;
+
+	private DataHandleAdapter adapter;
+
+	private byte[] block;
+
+	private long length;
+
+	@Setup
+	public void setup() throws IOException {
+		scifio = new SCIFIO();
+		final DataHandleService handles = scifio.getContext().service(
+			DataHandleService.class);
+		final File file = SyntheticData.omeTiff(2048, 2048, 1, 1, 0);
+		final FileLocation location = new FileLocation(file);
+		final DataHandle<Location> handle = buffered ? handles.readBuffer(
+			location) : handles.create(location);
+		adapter = new DataHandleAdapter(handle);
+		block = new byte[blockSize];
+		length = adapter.length();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		adapter.close();
+		scifio.getContext().dispose();
+	}
+
+	@Benchmark
+	public long readShorts() throws IOException {
+		adapter.seek(0);
+		long sum = 0;
+		for (int i = 0; i < SHORT_COUNT; i++) {
+			sum += adapter.readShort();
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public long readBulk() throws IOException {
+		adapter.seek(0);
+		long total = 0;
+		while (total < length) {
+			final int n = adapter.read(block, 0, block.length);
+			if (n <= 0) break;
+			total += n;
+		}
+		return total;
+	}
+
+	public static void main(final String... args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(DataHandleAdapterBenchmark.class
+			.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.benchmark;
+
+import io.scif.ByteArrayPlane;
+import io.scif.Format;
+import io.scif.FormatException;
+import io.scif.Metadata;
+import io.scif.SCIFIO;
+import io.scif.bf.BioFormatsFormat;
+import io.scif.config.SCIFIOConfig;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.imglib2.Interval;
+import net.imglib2.util.Intervals;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.scijava.io.location.FileLocation;
+
+/**
+ * Benchmarks plane reads through {@link BioFormatsFormat.Reader}, for full
+ * planes as well as tile-by-tile access.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReaderBenchmark {
+
+	private static final int SIZE = 2048;
+
+	private static final int PLANES = 8;
+
+	/** Tile edge length of the dataset on disk, or 0 for strips. */
+	@Param({ "0", "256" })
+	public int storedTileSize;
+
+	/** Tile edge length requested by the tiled benchmarks. */
+	@Param({ "256" })
+	public int readTileSize;
+
+	private SCIFIO scifio;
+
+	private BioFormatsFormat.Reader reader;
+
+	private final SCIFIOConfig config = new SCIFIOConfig();
+
+	private ByteArrayPlane fullPlane;
+
+	private Interval fullBounds;
+
+	private final List<Interval> tileBounds = new ArrayList<>();
+
+	private ByteArrayPlane tilePlane;
+
+	private short[] shorts;
+
+	private int planeIndex;
+
+	@Setup
+	public void setup() throws IOException, FormatException {
+		scifio = new SCIFIO();
+		final Format format = scifio.format().getFormatFromClass(
+			BioFormatsFormat.class);
+		final Metadata meta = format.createParser().parse(new FileLocation(
+			SyntheticData.omeTiff(SIZE, SIZE, PLANES, 1, storedTileSize)));
+		reader = (BioFormatsFormat.Reader) format.createReader();
+		reader.setMetadata(meta);
+
+		fullBounds = Intervals.createMinSize(0, 0, SIZE, SIZE);
+		fullPlane = reader.createPlane(fullBounds);
+		for (int y = 0; y < SIZE; y += readTileSize) {
+			for (int x = 0; x < SIZE; x += readTileSize) {
+				tileBounds.add(Intervals.createMinSize(x, y, Math.min(readTileSize,
+					SIZE - x), Math.min(readTileSize, SIZE - y)));
+			}
+		}
+		tilePlane = reader.createPlane(tileBounds.get(0));
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		reader.close();
+		scifio.getContext().dispose();
+	}
+
+	@Benchmark
+	public ByteArrayPlane openPlane() throws FormatException, IOException {
+		return reader.openPlane(0, nextPlane(), fullPlane, fullBounds, config);
+	}
+
+	@Benchmark
+	public ByteArrayPlane openTiles() throws FormatException, IOException {
+		final long p = nextPlane();
+		for (final Interval bounds : tileBounds) {
+			reader.openPlane(0, p, tilePlane, bounds, config);
+		}
+		return tilePlane;
+	}
+
+	@Benchmark
+	public short[] openPlaneShorts() throws FormatException, IOException {
+		shorts = reader.openPlaneShorts(0, nextPlane(), fullBounds, shorts);
+		return shorts;
+	}
+
+	// -- Helper methods --
+
+	private long nextPlane() {
+		planeIndex = (planeIndex + 1) % PLANES;
+		return planeIndex;
+	}
+
+	public static void main(final String... args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(ReaderBenchmark.class
+			.getSimpleName()).build()).run();
+	}
+}
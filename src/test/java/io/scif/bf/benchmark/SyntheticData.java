@@ -0,0 +1,133 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import loci.formats.FormatException;
+import loci.formats.FormatTools;
+import loci.formats.IFormatWriter;
+import loci.formats.MetadataTools;
+import loci.formats.ome.OMEXMLMetadataImpl;
+import loci.formats.out.OMETiffWriter;
+
+/**
+ * Generates synthetic OME-TIFF datasets for the benchmarks, using the
+ * Bio-Formats {@link OMETiffWriter}. Datasets are written once per JVM into a
+ * temporary directory and reused across benchmark trials.
+ */
+public final class SyntheticData {
+
+	private static final Map<String, File> DATASETS = new HashMap<>();
+
+	private static File directory;
+
+	private SyntheticData() {
+		// NB: prevent instantiation of utility class.
+	}
+
+	/**
+	 * Gets an OME-TIFF dataset with the given dimensions, writing it first if
+	 * necessary.
+	 *
+	 * @param sizeX Width of each plane.
+	 * @param sizeY Height of each plane.
+	 * @param planeCount Number of planes per series, stored along Z.
+	 * @param seriesCount Number of series.
+	 * @param tileSize Tile edge length, or 0 to write strips.
+	 */
+	public static synchronized File omeTiff(final int sizeX, final int sizeY,
+		final int planeCount, final int seriesCount, final int tileSize)
+		throws IOException
+	{
+		final String name = "synthetic-" + sizeX + "x" + sizeY + "-z" +
+			planeCount + "-s" + seriesCount + "-t" + tileSize + ".ome.tif";
+		File file = DATASETS.get(name);
+		if (file == null) {
+			file = new File(directory(), name);
+			try {
+				write(file, sizeX, sizeY, planeCount, seriesCount, tileSize);
+			}
+			catch (final FormatException e) {
+				throw new IOException(e);
+			}
+			file.deleteOnExit();
+			DATASETS.put(name, file);
+		}
+		return file;
+	}
+
+	// -- Helper methods --
+
+	private static File directory() throws IOException {
+		if (directory == null) {
+			directory = Files.createTempDirectory("scifio-bf-bench").toFile();
+			directory.deleteOnExit();
+		}
+		return directory;
+	}
+
+	private static void write(final File file, final int sizeX,
+		final int sizeY, final int planeCount, final int seriesCount,
+		final int tileSize) throws IOException, FormatException
+	{
+		final int pixelType = FormatTools.UINT16;
+		final OMEXMLMetadataImpl store = new OMEXMLMetadataImpl();
+		for (int s = 0; s < seriesCount; s++) {
+			MetadataTools.populateMetadata(store, s, "series" + s, false, "XYZCT",
+				FormatTools.getPixelTypeString(pixelType), sizeX, sizeY, planeCount,
+				1, 1, 1);
+		}
+
+		final byte[] plane = new byte[sizeX * sizeY * FormatTools.getBytesPerPixel(
+			pixelType)];
+		new Random(0xBF).nextBytes(plane);
+
+		try (final IFormatWriter writer = new OMETiffWriter()) {
+			writer.setMetadataRetrieve(store);
+			if (tileSize > 0) {
+				writer.setTileSizeX(tileSize);
+				writer.setTileSizeY(tileSize);
+			}
+			writer.setId(file.getAbsolutePath());
+			for (int s = 0; s < seriesCount; s++) {
+				writer.setSeries(s);
+				for (int p = 0; p < planeCount; p++) {
+					writer.saveBytes(p, plane);
+				}
+			}
+		}
+	}
+}
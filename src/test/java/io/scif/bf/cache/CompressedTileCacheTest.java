@@ -0,0 +1,142 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link CompressedTileCache}.
+ */
+public class CompressedTileCacheTest {
+
+	/** Bytes of each test tile. */
+	private static final int LENGTH = 4096;
+
+	/** Tests that tiles are read back as stored, and held compressed. */
+	@Test
+	public void testRoundTrip() {
+		final CompressedTileCache cache = new CompressedTileCache(1 << 20);
+		final byte[] tile = TileCodecTest.ramp(LENGTH + 10, 2);
+		cache.put(key(0), tile, LENGTH, 2);
+		final byte[] dest = new byte[LENGTH];
+		assertTrue(cache.get(key(0), dest));
+		assertArrayEquals(Arrays.copyOf(tile, LENGTH), dest);
+		assertFalse(cache.get(key(1), dest));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(LENGTH, cache.getRawSize());
+		assertTrue(cache.getSize() < LENGTH);
+		assertTrue(cache.getCompressionRatio() > 1);
+	}
+
+	/** Tests that tiles which do not shrink are kept as they are. */
+	@Test
+	public void testIncompressible() {
+		final CompressedTileCache cache = new CompressedTileCache(1 << 20);
+		final byte[] tile = new byte[LENGTH];
+		new Random(42).nextBytes(tile);
+		cache.put(key(0), tile, LENGTH, 1);
+		final byte[] dest = new byte[LENGTH];
+		assertTrue(cache.get(key(0), dest));
+		assertArrayEquals(tile, dest);
+		assertTrue(cache.getSize() > LENGTH);
+	}
+
+	/** Tests that a destination smaller than the tile is a miss. */
+	@Test
+	public void testSmallDestination() {
+		final CompressedTileCache cache = new CompressedTileCache(1 << 20);
+		cache.put(key(0), TileCodecTest.ramp(LENGTH, 1), LENGTH, 1);
+		assertFalse(cache.get(key(0), new byte[LENGTH - 1]));
+		assertEquals(1, cache.getMisses());
+	}
+
+	/** Tests that the least recently used tiles are evicted. */
+	@Test
+	public void testEviction() {
+		final byte[] tile = new byte[LENGTH];
+		new Random(42).nextBytes(tile);
+		// NB: random tiles are held decoded, so three fit in the cache
+		final CompressedTileCache cache = new CompressedTileCache(3 * LENGTH +
+			500);
+		for (int i = 0; i < 3; i++) {
+			cache.put(key(i), tile, LENGTH, 1);
+		}
+		final byte[] dest = new byte[LENGTH];
+		assertTrue(cache.get(key(0), dest));
+		cache.put(key(3), tile, LENGTH, 1);
+		assertEquals(1, cache.getEvictions());
+		assertEquals(3, cache.getCount());
+		assertTrue(cache.getSize() <= cache.getMaxSize());
+		assertFalse(cache.get(key(1), dest));
+		assertTrue(cache.get(key(0), dest));
+		assertTrue(cache.get(key(2), dest));
+		assertTrue(cache.get(key(3), dest));
+	}
+
+	/** Tests that replacing a tile, and tiles too large, keep the sizes. */
+	@Test
+	public void testSizes() {
+		final byte[] tile = new byte[LENGTH];
+		new Random(42).nextBytes(tile);
+		final CompressedTileCache cache = new CompressedTileCache(2 * LENGTH);
+		cache.put(key(0), tile, LENGTH, 1);
+		final long size = cache.getSize();
+		cache.put(key(0), tile, LENGTH, 1);
+		assertEquals(size, cache.getSize());
+		assertEquals(LENGTH, cache.getRawSize());
+
+		final byte[] large = new byte[3 * LENGTH];
+		new Random(44).nextBytes(large);
+		cache.put(key(1), large, large.length, 1);
+		assertFalse(cache.get(key(1), new byte[large.length]));
+		assertEquals(1, cache.getCount());
+
+		cache.clear();
+		assertEquals(0, cache.getCount());
+		assertEquals(0, cache.getSize());
+		assertEquals(0, cache.getRawSize());
+		assertEquals(1, cache.getCompressionRatio(), 0);
+	}
+
+	// -- Helper methods --
+
+	private static TileKey key(final int index) {
+		return new TileKey(0, index, 0, 0, 32, 64);
+	}
+}
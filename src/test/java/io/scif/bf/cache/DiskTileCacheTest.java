@@ -0,0 +1,227 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link DiskTileCache}.
+ */
+public class DiskTileCacheTest {
+
+	/** Bytes of each test tile. */
+	private static final int LENGTH = 4096;
+
+	private Path directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("disk-tile-cache");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try (final Stream<Path> paths = Files.walk(directory)) {
+			for (final Path path : paths.sorted(Comparator.reverseOrder()).collect(
+				Collectors.toList()))
+			{
+				Files.deleteIfExists(path);
+			}
+		}
+	}
+
+	/** Tests that tiles are read back as written, compressed or not. */
+	@Test
+	public void testRoundTrip() throws IOException {
+		for (final boolean compress : new boolean[] { false, true }) {
+			final DiskTileCache cache = new DiskTileCache(directory.resolve(String
+				.valueOf(compress)), 1 << 20, compress);
+			final DiskTileCache.Dataset dataset = cache.dataset("a");
+			final byte[] tile = tile(1);
+			dataset.put(key(0), tile, LENGTH, 2);
+			final byte[] dest = new byte[LENGTH];
+			assertTrue(dataset.get(key(0), dest));
+			assertArrayEquals(tile, dest);
+			assertFalse(dataset.get(key(1), dest));
+			assertFalse(cache.dataset("b").get(key(0), dest));
+			assertEquals(1, cache.getHits());
+			assertEquals(2, cache.getMisses());
+			assertEquals(1, cache.getWrites());
+			assertEquals(1, cache.getCount());
+			if (compress) assertTrue(cache.getSize() < LENGTH);
+		}
+	}
+
+	/** Tests that a damaged tile is detected, discarded and deleted. */
+	@Test
+	public void testCorruption() throws IOException {
+		final DiskTileCache cache = new DiskTileCache(directory, 1 << 20, true);
+		final DiskTileCache.Dataset dataset = cache.dataset("a");
+		dataset.put(key(0), tile(1), LENGTH, 2);
+		dataset.put(key(1), tile(2), LENGTH, 2);
+		final List<Path> files = tileFiles();
+		assertEquals(2, files.size());
+
+		// flip one payload byte of the first file, and truncate the second
+		final byte[] bytes = Files.readAllBytes(files.get(0));
+		bytes[bytes.length - 1] ^= 1;
+		Files.write(files.get(0), bytes);
+		Files.write(files.get(1), new byte[8]);
+
+		final byte[] dest = new byte[LENGTH];
+		assertFalse(dataset.get(key(0), dest));
+		assertFalse(dataset.get(key(1), dest));
+		assertEquals(2, cache.getCorrupt());
+		assertEquals(0, cache.getCount());
+		assertEquals(0, cache.getSize());
+		assertTrue(tileFiles().isEmpty());
+	}
+
+	/** Tests that the least recently used tiles are evicted. */
+	@Test
+	public void testEviction() throws IOException {
+		final DiskTileCache cache = new DiskTileCache(directory, 3 * (LENGTH +
+			20), false);
+		final DiskTileCache.Dataset dataset = cache.dataset("a");
+		final byte[] dest = new byte[LENGTH];
+		for (int i = 0; i < 3; i++) {
+			dataset.put(key(i), tile(i), LENGTH, 1);
+		}
+		// NB: reading tile 0 makes tile 1 the least recently used
+		assertTrue(dataset.get(key(0), dest));
+		dataset.put(key(3), tile(3), LENGTH, 1);
+		assertEquals(1, cache.getEvictions());
+		assertEquals(3, cache.getCount());
+		assertTrue(cache.getSize() <= cache.getMaxSize());
+		assertFalse(dataset.get(key(1), dest));
+		for (final int i : new int[] { 0, 2, 3 }) {
+			assertTrue(dataset.get(key(i), dest));
+			assertArrayEquals(tile(i), dest);
+		}
+		assertEquals(3, tileFiles().size());
+	}
+
+	/**
+	 * Tests that tiles persist across caches, and that temporary files left by
+	 * interrupted writes are deleted.
+	 */
+	@Test
+	public void testReopen() throws IOException {
+		final DiskTileCache cache = new DiskTileCache(directory, 1 << 20, true);
+		cache.dataset("a").put(key(0), tile(1), LENGTH, 2);
+		final Path temp = directory.resolve("a").resolve("left.tile.tmp");
+		Files.write(temp, new byte[16]);
+
+		final DiskTileCache reopened = new DiskTileCache(directory, 1 << 20,
+			true);
+		assertEquals(1, reopened.getCount());
+		assertEquals(cache.getSize(), reopened.getSize());
+		assertFalse(Files.exists(temp));
+		final byte[] dest = new byte[LENGTH];
+		assertTrue(reopened.dataset("a").get(key(0), dest));
+		assertArrayEquals(tile(1), dest);
+	}
+
+	/**
+	 * Tests that tiles can be written while evictions for another dataset
+	 * delete the emptied directory of their dataset.
+	 */
+	@Test
+	public void testPutWhileEvicting() throws Exception {
+		// NB: room for one tile, so each put evicts the previous one, often the
+		// last tile of the other dataset
+		final DiskTileCache cache = new DiskTileCache(directory, LENGTH + 20,
+			false);
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				final int thread = t;
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < 500; i++) {
+						cache.dataset(String.valueOf(i % 2)).put(key(thread * 1000 + i),
+							tile(i), LENGTH, 1);
+					}
+					return null;
+				}));
+			}
+			for (final Future<?> future : futures) {
+				future.get();
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+		assertEquals(2000, cache.getWrites());
+		assertTrue(cache.getSize() <= cache.getMaxSize());
+	}
+
+	// -- Helper methods --
+
+	private static TileKey key(final int index) {
+		return new TileKey(0, index, 0, 0, 32, 64);
+	}
+
+	/** @return a compressible tile, differing by the given seed */
+	private static byte[] tile(final int seed) {
+		final byte[] tile = new byte[LENGTH];
+		for (int i = 0; i < LENGTH; i++) {
+			tile[i] = (byte) (i / 64 + seed);
+		}
+		return tile;
+	}
+
+	/** @return the tile files in the cache directory, by name */
+	private List<Path> tileFiles() throws IOException {
+		try (final Stream<Path> paths = Files.walk(directory)) {
+			return paths.filter(path -> path.toString().endsWith(".tile")).sorted()
+				.collect(Collectors.toList());
+		}
+	}
+}
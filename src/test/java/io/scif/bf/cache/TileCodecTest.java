@@ -0,0 +1,108 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link TileCodec}.
+ */
+public class TileCodecTest {
+
+	/**
+	 * Tests that tiles round-trip for each sample width, including lengths
+	 * with an incomplete trailing sample and a source longer than the tile.
+	 */
+	@Test
+	public void testRoundTrip() throws DataFormatException {
+		for (final int sampleBytes : new int[] { 1, 2, 3, 4, 8 }) {
+			for (final int length : new int[] { 4096, 4099 }) {
+				final byte[] src = ramp(length + 100, sampleBytes);
+				final byte[] data = TileCodec.compress(src, length, sampleBytes);
+				assertNotNull(data);
+				assertTrue(data.length < length);
+				final byte[] dest = new byte[length];
+				TileCodec.decompress(data, 0, data.length, dest, length,
+					sampleBytes);
+				assertArrayEquals(Arrays.copyOf(src, length), dest);
+			}
+		}
+	}
+
+	/** Tests decompressing from an offset into a larger array. */
+	@Test
+	public void testOffset() throws DataFormatException {
+		final byte[] src = ramp(1000, 2);
+		final byte[] data = TileCodec.compress(src, src.length, 2);
+		final byte[] framed = new byte[data.length + 20];
+		System.arraycopy(data, 0, framed, 20, data.length);
+		final byte[] dest = new byte[src.length];
+		TileCodec.decompress(framed, 20, data.length, dest, src.length, 2);
+		assertArrayEquals(src, dest);
+	}
+
+	/** Tests that data which does not shrink is not compressed. */
+	@Test
+	public void testIncompressible() {
+		final byte[] src = new byte[4096];
+		new Random(42).nextBytes(src);
+		assertNull(TileCodec.compress(src, src.length, 1));
+	}
+
+	/** Tests that truncated data is detected. */
+	@Test(expected = DataFormatException.class)
+	public void testTruncated() throws DataFormatException {
+		final byte[] src = ramp(4096, 2);
+		final byte[] data = TileCodec.compress(src, src.length, 2);
+		TileCodec.decompress(data, 0, data.length / 2, new byte[src.length],
+			src.length, 2);
+	}
+
+	// -- Helper methods --
+
+	/** @return slowly varying samples of the given width, in big-endian */
+	static byte[] ramp(final int length, final int sampleBytes) {
+		final byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			final long sample = i / sampleBytes * 3L;
+			bytes[i] = (byte) (sample >>> 8 * (sampleBytes - 1 - i % sampleBytes));
+		}
+		return bytes;
+	}
+}
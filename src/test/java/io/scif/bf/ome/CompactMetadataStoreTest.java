@@ -0,0 +1,161 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.ome;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import ome.units.UNITS;
+import ome.units.quantity.Length;
+import ome.xml.model.primitives.Color;
+import ome.xml.model.primitives.PositiveInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link CompactMetadataStore}.
+ */
+public class CompactMetadataStoreTest {
+
+	private final Length sizeX = new Length(0.5, UNITS.MICROMETER);
+
+	private final Length sizeY = new Length(0.25, UNITS.MICROMETER);
+
+	private final Length sizeZ = new Length(2, UNITS.MICROMETER);
+
+	private final Length stageX = new Length(100, UNITS.MICROMETER);
+
+	private final Length stageY = new Length(200, UNITS.MICROMETER);
+
+	private final Length stageZ = new Length(5, UNITS.MICROMETER);
+
+	private final Color red = new Color(255, 0, 0, 255);
+
+	/** Tests that the fields of each image are kept. */
+	@Test
+	public void testKeepsFields() {
+		final CompactMetadataStore store = new CompactMetadataStore();
+		populate(store, 1);
+		assertEquals(2, store.getImageCount());
+		assertFields(store, 1);
+		assertEquals(0, store.getChannelCount(0));
+		assertNull(store.getPixelsPhysicalSizeX(0));
+	}
+
+	/** Tests that channels are counted by any of their fields. */
+	@Test
+	public void testChannelCount() {
+		final CompactMetadataStore store = new CompactMetadataStore();
+		store.setChannelID("Channel:0:0", 0, 0);
+		store.setChannelName("green", 0, 1);
+		store.setChannelSamplesPerPixel(new PositiveInteger(1), 0, 2);
+		assertEquals(1, store.getImageCount());
+		assertEquals(3, store.getChannelCount(0));
+		assertNull(store.getChannelColor(0, 1));
+		store.setChannelColor(red, 0, 4);
+		assertEquals(5, store.getChannelCount(0));
+		assertSame(red, store.getChannelColor(0, 4));
+	}
+
+	/** Tests that lookups of absent images and channels find nothing. */
+	@Test
+	public void testAbsent() {
+		final CompactMetadataStore store = new CompactMetadataStore();
+		assertEquals(0, store.getImageCount());
+		assertEquals(0, store.getChannelCount(3));
+		assertNull(store.getChannelColor(0, 0));
+		assertNull(store.getPixelsPhysicalSizeZ(-1));
+		assertNull(store.getStageLabelX(7));
+		store.setImageName("image", 0);
+		assertNull(store.getChannelColor(0, 2));
+	}
+
+	/** Tests that only the fields of the kept images are stored. */
+	@Test
+	public void testKeptImages() {
+		final int[] kept = { 1, 3 };
+		final CompactMetadataStore store = new CompactMetadataStore(kept);
+		kept[0] = 0;
+		populate(store, 0);
+		populate(store, 1);
+		populate(store, 2);
+		assertEquals(2, store.getImageCount());
+		assertNull(store.getPixelsPhysicalSizeX(0));
+		assertEquals(0, store.getChannelCount(0));
+		assertFields(store, 1);
+		assertNull(store.getStageLabelY(2));
+	}
+
+	/** Tests that all stored fields are copied to another store. */
+	@Test
+	public void testCopyTo() {
+		final CompactMetadataStore store = new CompactMetadataStore(new int[] {
+			2 });
+		populate(store, 0);
+		populate(store, 2);
+		final CompactMetadataStore copy = new CompactMetadataStore();
+		store.copyTo(copy);
+		assertEquals(3, copy.getImageCount());
+		assertFields(copy, 2);
+		assertNull(copy.getPixelsPhysicalSizeX(0));
+		assertNull(copy.getPixelsPhysicalSizeX(1));
+	}
+
+	// -- Helper methods --
+
+	private void populate(final CompactMetadataStore store,
+		final int imageIndex)
+	{
+		store.setImageID("Image:" + imageIndex, imageIndex);
+		store.setPixelsPhysicalSizeX(sizeX, imageIndex);
+		store.setPixelsPhysicalSizeY(sizeY, imageIndex);
+		store.setPixelsPhysicalSizeZ(sizeZ, imageIndex);
+		store.setStageLabelX(stageX, imageIndex);
+		store.setStageLabelY(stageY, imageIndex);
+		store.setStageLabelZ(stageZ, imageIndex);
+		store.setChannelID("Channel:" + imageIndex + ":0", imageIndex, 0);
+		store.setChannelColor(red, imageIndex, 1);
+	}
+
+	private void assertFields(final CompactMetadataStore store,
+		final int imageIndex)
+	{
+		assertSame(sizeX, store.getPixelsPhysicalSizeX(imageIndex));
+		assertSame(sizeY, store.getPixelsPhysicalSizeY(imageIndex));
+		assertSame(sizeZ, store.getPixelsPhysicalSizeZ(imageIndex));
+		assertSame(stageX, store.getStageLabelX(imageIndex));
+		assertSame(stageY, store.getStageLabelY(imageIndex));
+		assertSame(stageZ, store.getStageLabelZ(imageIndex));
+		assertEquals(2, store.getChannelCount(imageIndex));
+		assertNull(store.getChannelColor(imageIndex, 0));
+		assertSame(red, store.getChannelColor(imageIndex, 1));
+	}
+}
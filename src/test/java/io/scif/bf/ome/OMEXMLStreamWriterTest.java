@@ -0,0 +1,141 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.ome;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.scif.SCIFIO;
+import io.scif.ome.services.OMEXMLService;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import loci.formats.MetadataTools;
+import loci.formats.ome.OMEXMLMetadata;
+
+import ome.xml.model.primitives.NonNegativeInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link OMEXMLStreamWriter}.
+ */
+public class OMEXMLStreamWriterTest {
+
+	private SCIFIO scifio;
+
+	private OMEXMLService service;
+
+	@Before
+	public void setUp() {
+		scifio = new SCIFIO();
+		service = scifio.getContext().service(OMEXMLService.class);
+	}
+
+	@After
+	public void tearDown() {
+		scifio.getContext().dispose();
+	}
+
+	/**
+	 * Tests that each series written on its own is a valid document, which
+	 * carries the elements its image references and none of the others.
+	 */
+	@Test
+	public void testWriteSeries() throws Exception {
+		final OMEXMLMetadata meta = service.createOMEXMLMetadata();
+		for (int i = 0; i < 2; i++) {
+			MetadataTools.populateMetadata(meta, i, "series" + i, false, "XYZCT",
+				"uint8", 4, 4, 1, 1, 1, 1);
+			meta.setTiffDataIFD(new NonNegativeInteger(i), i, 0);
+		}
+		meta.setInstrumentID("Instrument:0", 0);
+		meta.setObjectiveID("Objective:0:0", 0, 0);
+		meta.setImageInstrumentRef("Instrument:0", 0);
+		meta.setObjectiveSettingsID("Objective:0:0", 0);
+		meta.setCommentAnnotationID("Annotation:0", 0);
+		meta.setCommentAnnotationValue("first", 0);
+		meta.setImageAnnotationRef("Annotation:0", 0, 0);
+		meta.setExperimenterID("Experimenter:0", 0);
+		meta.setImageExperimenterRef("Experimenter:0", 1);
+		meta.setROIID("ROI:0", 0);
+		meta.setRectangleID("Shape:0:0", 0, 0);
+		meta.setRectangleX(0.0, 0, 0);
+		meta.setRectangleY(0.0, 0, 0);
+		meta.setRectangleWidth(2.0, 0, 0);
+		meta.setRectangleHeight(2.0, 0, 0);
+		meta.setImageROIRef("ROI:0", 1, 0);
+		meta.setDatasetID("Dataset:0", 0);
+		meta.setDatasetImageRef("Image:0", 0, 0);
+		meta.setDatasetImageRef("Image:1", 0, 1);
+
+		final OMEXMLStreamWriter writer = new OMEXMLStreamWriter(meta);
+		assertEquals(2, writer.getSeriesCount());
+
+		final String first = writeSeries(writer, 0);
+		assertTrue(first, service.validateOMEXML(first));
+		final OMEXMLMetadata series0 = service.createOMEXMLMetadata(first);
+		assertEquals(1, series0.getImageCount());
+		assertEquals("series0", series0.getImageName(0));
+		assertEquals(1, series0.getInstrumentCount());
+		assertEquals("Instrument:0", series0.getImageInstrumentRef(0));
+		assertEquals(1, series0.getCommentAnnotationCount());
+		assertEquals("first", series0.getCommentAnnotationValue(0));
+		assertEquals(0, series0.getExperimenterCount());
+		assertEquals(0, series0.getROICount());
+		assertEquals(0, series0.getDatasetCount());
+
+		final String second = writeSeries(writer, 1);
+		assertTrue(second, service.validateOMEXML(second));
+		final OMEXMLMetadata series1 = service.createOMEXMLMetadata(second);
+		assertEquals(1, series1.getImageCount());
+		assertEquals("series1", series1.getImageName(0));
+		assertEquals(1, series1.getExperimenterCount());
+		assertEquals("Experimenter:0", series1.getImageExperimenterRef(0));
+		assertEquals(1, series1.getROICount());
+		assertEquals(1, series1.getImageROIRefCount(0));
+		assertEquals(0, series1.getInstrumentCount());
+		assertEquals(0, series1.getCommentAnnotationCount());
+		assertEquals(0, series1.getDatasetCount());
+	}
+
+	// -- Helper methods --
+
+	private static String writeSeries(final OMEXMLStreamWriter writer,
+		final int series) throws Exception
+	{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writer.writeSeries(series, out);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
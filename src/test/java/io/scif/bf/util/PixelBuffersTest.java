@@ -0,0 +1,191 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package io.scif.bf.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import io.scif.util.FormatTools;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link PixelBuffers}.
+ */
+public class PixelBuffersTest {
+
+	/** Number of samples, spanning several widening chunks. */
+	private static final int COUNT = 10000;
+
+	/** Tests that 8-bit samples are widened respecting signedness. */
+	@Test
+	public void testWidenBytes() {
+		final ByteBuffer src = ByteBuffer.allocate(COUNT);
+		for (int i = 0; i < COUNT; i++) {
+			src.put((byte) i);
+		}
+		src.flip();
+		final short[] shorts = PixelBuffers.toShorts(src, FormatTools.UINT8,
+			null);
+		final int[] ints = PixelBuffers.toInts(src, FormatTools.INT8, null);
+		final float[] floats = PixelBuffers.toFloats(src, FormatTools.UINT8,
+			null);
+		final double[] doubles = PixelBuffers.toDoubles(src, FormatTools.INT8,
+			null);
+		for (int i = 0; i < COUNT; i++) {
+			final byte b = (byte) i;
+			assertEquals(b & 0xff, shorts[i]);
+			assertEquals(b, ints[i]);
+			assertEquals(b & 0xff, floats[i], 0);
+			assertEquals(b, doubles[i], 0);
+		}
+	}
+
+	/** Tests that 16-bit samples are widened in either byte order. */
+	@Test
+	public void testWidenShorts() {
+		for (final boolean little : new boolean[] { false, true }) {
+			final ByteBuffer src = buffer(2, little);
+			for (int i = 0; i < COUNT; i++) {
+				src.putShort((short) (i * 7 - COUNT));
+			}
+			src.flip();
+			final short[] shorts = PixelBuffers.toShorts(src, FormatTools.INT16,
+				null);
+			final int[] signed = PixelBuffers.toInts(src, FormatTools.INT16, null);
+			final int[] unsigned = PixelBuffers.toInts(src, FormatTools.UINT16,
+				null);
+			final float[] floats = PixelBuffers.toFloats(src, FormatTools.UINT16,
+				null);
+			final double[] doubles = PixelBuffers.toDoubles(src, FormatTools.INT16,
+				null);
+			for (int i = 0; i < COUNT; i++) {
+				final short s = (short) (i * 7 - COUNT);
+				assertEquals(s, shorts[i]);
+				assertEquals(s, signed[i]);
+				assertEquals(s & 0xffff, unsigned[i]);
+				assertEquals(s & 0xffff, floats[i], 0);
+				assertEquals(s, doubles[i], 0);
+			}
+		}
+	}
+
+	/** Tests that 32-bit and floating point samples are converted. */
+	@Test
+	public void testWidenInts() {
+		for (final boolean little : new boolean[] { false, true }) {
+			final ByteBuffer ints = buffer(4, little);
+			final ByteBuffer floats = buffer(4, little);
+			final ByteBuffer doubles = buffer(8, little);
+			for (int i = 0; i < COUNT; i++) {
+				ints.putInt(i * 100003 - COUNT);
+				floats.putFloat(i * 0.5f - 3);
+				doubles.putDouble(i * 0.25 - 7);
+			}
+			ints.flip();
+			floats.flip();
+			doubles.flip();
+			final int[] asInts = PixelBuffers.toInts(ints, FormatTools.INT32, null);
+			final double[] unsigned = PixelBuffers.toDoubles(ints,
+				FormatTools.UINT32, null);
+			final double[] widened = PixelBuffers.toDoubles(floats,
+				FormatTools.FLOAT, null);
+			final float[] narrowed = PixelBuffers.toFloats(doubles,
+				FormatTools.DOUBLE, null);
+			for (int i = 0; i < COUNT; i++) {
+				final int v = i * 100003 - COUNT;
+				assertEquals(v, asInts[i]);
+				assertEquals(v & 0xffffffffL, unsigned[i], 0);
+				assertEquals(i * 0.5f - 3, widened[i], 0);
+				assertEquals((float) (i * 0.25 - 7), narrowed[i], 0);
+			}
+		}
+	}
+
+	/** Tests that conversions start at the source position. */
+	@Test
+	public void testPosition() {
+		final ByteBuffer src = buffer(2, true);
+		src.putShort((short) 1).putShort((short) 2).putShort((short) 3);
+		src.flip();
+		src.position(2);
+		final int[] dest = new int[4];
+		assertSame(dest, PixelBuffers.toInts(src, FormatTools.UINT16, dest));
+		assertArrayEquals(new int[] { 2, 3, 0, 0 }, dest);
+		assertEquals(2, src.position());
+	}
+
+	/** Tests that samples are swapped between byte orders. */
+	@Test
+	public void testCopySwapped() {
+		final ByteBuffer src = buffer(2, false);
+		src.putShort((short) 0x0102).putShort((short) 0x0304);
+		src.flip();
+		final byte[] dest = new byte[4];
+		PixelBuffers.copySwapped(src, ByteBuffer.wrap(dest).order(
+			ByteOrder.LITTLE_ENDIAN), 2);
+		assertArrayEquals(new byte[] { 2, 1, 4, 3 }, dest);
+	}
+
+	/** Tests that interleaved samples are transposed to planar ones. */
+	@Test
+	public void testTranspose() {
+		final int pixels = 100;
+		final byte[] src = new byte[pixels * 3 * 2];
+		for (int p = 0; p < pixels; p++) {
+			for (int c = 0; c < 3; c++) {
+				src[(p * 3 + c) * 2] = (byte) p;
+				src[(p * 3 + c) * 2 + 1] = (byte) c;
+			}
+		}
+		final byte[] dest = new byte[src.length];
+		PixelBuffers.transpose(src, dest, pixels, 3, 2);
+		for (int c = 0; c < 3; c++) {
+			for (int p = 0; p < pixels; p++) {
+				assertEquals(p, dest[(c * pixels + p) * 2]);
+				assertEquals(c, dest[(c * pixels + p) * 2 + 1]);
+			}
+		}
+	}
+
+	// -- Helper methods --
+
+	private static ByteBuffer buffer(final int bytesPerSample,
+		final boolean little)
+	{
+		return ByteBuffer.allocate(COUNT * bytesPerSample).order(little
+			? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+	}
+}
@@ -0,0 +1,225 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.wrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+import org.scijava.io.handle.DataHandle;
+import org.scijava.io.handle.DataHandleService;
+import org.scijava.io.location.BytesLocation;
+import org.scijava.io.location.Location;
+
+/**
+ * Tests the reference counting and eviction of {@link HandlePool} and
+ * {@link SharedHandle}.
+ */
+public class HandlePoolTest {
+
+	private Context context;
+
+	private DataHandleService handles;
+
+	private Location[] locations;
+
+	@Before
+	public void setUp() {
+		context = new Context(DataHandleService.class);
+		handles = context.getService(DataHandleService.class);
+		locations = new Location[3];
+		for (int i = 0; i < locations.length; i++) {
+			final byte[] data = new byte[32];
+			for (int j = 0; j < data.length; j++) {
+				data[j] = (byte) (i * data.length + j);
+			}
+			locations[i] = new BytesLocation(data, "pool-" + i);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	/**
+	 * Tests that adapters of one location share one handle, each with its own
+	 * offset, which is closed when the last adapter is.
+	 */
+	@Test
+	public void testReferenceCounting() throws IOException {
+		final HandlePool pool = new HandlePool(handles, 0);
+		final SharedHandle shared = pool.get(locations[0]);
+		assertSame(shared, pool.get(locations[0]));
+		final DataHandleAdapter a = new DataHandleAdapter(shared);
+		final DataHandleAdapter b = new DataHandleAdapter(pool.get(
+			locations[0]));
+
+		// NB: adapters take their reference on first use
+		assertEquals(0, shared.getReferenceCount());
+		a.seek(2);
+		assertEquals(2, a.readByte());
+		assertEquals(0, b.readByte());
+		assertEquals(3, a.readByte());
+		assertEquals(2, shared.getReferenceCount());
+		assertEquals(1, pool.getStatistics().getOpened());
+		assertEquals(1, pool.getStatistics().getOpenCount());
+
+		a.close();
+		assertEquals(1, shared.getReferenceCount());
+		assertEquals(1, pool.getStatistics().getOpenCount());
+		assertEquals(1, b.readByte());
+		b.close();
+		assertEquals(0, shared.getReferenceCount());
+		assertEquals(0, pool.getStatistics().getOpenCount());
+		assertEquals(0, pool.size());
+		assertNull(pool.lookup(locations[0]));
+	}
+
+	/** Tests that an adapter closed unused leaves nothing listed or open. */
+	@Test
+	public void testUnusedAdapter() throws IOException {
+		final HandlePool pool = new HandlePool(handles, 0);
+		new DataHandleAdapter(pool.get(locations[0])).close();
+		assertEquals(0, pool.size());
+		assertEquals(0, pool.getStatistics().getOpened());
+	}
+
+	/** Tests that a location is shared anew once its last adapter closed. */
+	@Test
+	public void testRetainAfterRelease() throws IOException {
+		final HandlePool pool = new HandlePool(handles, 0);
+		final SharedHandle shared = pool.get(locations[0]);
+		final DataHandleAdapter a = new DataHandleAdapter(shared);
+		a.readByte();
+		a.close();
+		final DataHandleAdapter b = new DataHandleAdapter(pool.get(
+			locations[0]));
+		assertEquals(0, b.readByte());
+		assertEquals(1, pool.size());
+		assertEquals(2, pool.getStatistics().getOpened());
+		b.close();
+		assertEquals(0, pool.size());
+	}
+
+	/**
+	 * Tests that the least recently used handles are closed past the bound,
+	 * and reopened at their adapter's offset.
+	 */
+	@Test
+	public void testEviction() throws IOException {
+		final HandlePool pool = new HandlePool(handles, 2);
+		final DataHandleAdapter[] adapters =
+			new DataHandleAdapter[locations.length];
+		for (int i = 0; i < locations.length; i++) {
+			adapters[i] = new DataHandleAdapter(pool.get(locations[i]));
+			adapters[i].seek(10);
+			assertEquals(i * 32 + 10, adapters[i].readByte());
+		}
+		final HandlePoolStatistics stats = pool.getStatistics();
+		assertEquals(2, stats.getOpenCount());
+		assertEquals(1, stats.getEvicted());
+		assertNull(pool.lookup(locations[0]).get());
+		assertEquals(1, pool.lookup(locations[0]).getReferenceCount());
+
+		assertEquals(11, adapters[0].readByte());
+		assertEquals(1, stats.getReopened());
+		assertEquals(2, stats.getOpenCount());
+		assertEquals(2, stats.getEvicted());
+		assertNull(pool.lookup(locations[1]).get());
+
+		for (final DataHandleAdapter adapter : adapters) {
+			adapter.close();
+		}
+		assertEquals(0, stats.getOpenCount());
+		assertEquals(0, pool.size());
+	}
+
+	/** Tests that lowering the bound evicts handles at once. */
+	@Test
+	public void testSetMaxOpen() throws IOException {
+		final HandlePool pool = new HandlePool(handles, 0);
+		final DataHandleAdapter[] adapters =
+			new DataHandleAdapter[locations.length];
+		for (int i = 0; i < locations.length; i++) {
+			adapters[i] = new DataHandleAdapter(pool.get(locations[i]));
+			adapters[i].readByte();
+		}
+		assertEquals(3, pool.getStatistics().getOpenCount());
+		pool.setMaxOpen(1);
+		assertEquals(1, pool.getStatistics().getOpenCount());
+		assertEquals(33, adapters[1].readByte());
+		assertEquals(1, pool.getStatistics().getReopened());
+		for (final DataHandleAdapter adapter : adapters) {
+			adapter.close();
+		}
+	}
+
+	/**
+	 * Tests that a caller's handle is shared by instance, and never closed or
+	 * evicted by the pool.
+	 */
+	@Test
+	public void testOwnedHandle() throws IOException {
+		final HandlePool pool = new HandlePool(handles, 1);
+		final DataHandle<Location> owned = handles.create(locations[0]);
+		final DataHandle<Location> other = handles.create(locations[0]);
+		final SharedHandle shared = pool.get(owned);
+		assertSame(shared, pool.get(owned));
+		assertNotSame(shared, pool.get(other));
+		assertNotSame(shared, pool.get(locations[0]));
+
+		final DataHandleAdapter a = new DataHandleAdapter(shared);
+		final DataHandleAdapter b = new DataHandleAdapter(pool.get(
+			locations[1]));
+		assertEquals(0, a.readByte());
+		assertEquals(32, b.readByte());
+		assertEquals(1, a.readByte());
+		assertEquals(0, pool.getStatistics().getEvicted());
+		assertSame(owned, shared.get());
+
+		a.close();
+		b.close();
+		assertEquals(0, shared.getReferenceCount());
+		assertTrue(owned.exists());
+		owned.seek(5);
+		assertEquals(5, owned.readByte());
+		owned.close();
+		other.close();
+	}
+}
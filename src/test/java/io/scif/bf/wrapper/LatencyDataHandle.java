@@ -0,0 +1,168 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.bf.wrapper;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.scijava.io.handle.AbstractHigherOrderHandle;
+import org.scijava.io.handle.DataHandle;
+import org.scijava.io.location.Location;
+
+/**
+ * Read-only {@link DataHandle} which delays each read of the wrapped handle,
+ * simulating a high-latency source, and counts the reads.
+ */
+public class LatencyDataHandle extends AbstractHigherOrderHandle<Location> {
+
+	private final long latencyMillis;
+
+	private final AtomicInteger reads;
+
+	private final AtomicInteger active;
+
+	private final AtomicInteger maxActive;
+
+	private long offset;
+
+	/**
+	 * @param handle The handle to read from.
+	 * @param latencyMillis Delay of each read, in milliseconds.
+	 */
+	public LatencyDataHandle(final DataHandle<Location> handle,
+		final long latencyMillis)
+	{
+		this(handle, latencyMillis, new AtomicInteger(), new AtomicInteger(),
+			new AtomicInteger());
+	}
+
+	private LatencyDataHandle(final DataHandle<Location> handle,
+		final long latencyMillis, final AtomicInteger reads,
+		final AtomicInteger active, final AtomicInteger maxActive)
+	{
+		super(handle);
+		this.latencyMillis = latencyMillis;
+		this.reads = reads;
+		this.active = active;
+		this.maxActive = maxActive;
+		set(handle.get());
+	}
+
+	/**
+	 * Creates a handle over another handle of the same source, sharing this
+	 * handle's latency and counters.
+	 */
+	public LatencyDataHandle sibling(final DataHandle<Location> handle) {
+		return new LatencyDataHandle(handle, latencyMillis, reads, active,
+			maxActive);
+	}
+
+	/** @return the number of reads, by this handle and its siblings. */
+	public int getReadCount() {
+		return reads.get();
+	}
+
+	/** @return the number of reads currently in progress. */
+	public int getActiveCount() {
+		return active.get();
+	}
+
+	/** @return the largest number of reads which were in progress at once. */
+	public int getMaxActiveCount() {
+		return maxActive.get();
+	}
+
+	// -- DataHandle methods --
+
+	@Override
+	public long offset() throws IOException {
+		return offset;
+	}
+
+	@Override
+	public void seek(final long pos) throws IOException {
+		offset = pos;
+	}
+
+	@Override
+	public void setLength(final long length) throws IOException {
+		throw new IOException("LatencyDataHandle is read-only!");
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len)
+		throws IOException
+	{
+		final int n = active.incrementAndGet();
+		maxActive.accumulateAndGet(n, Math::max);
+		try {
+			reads.incrementAndGet();
+			Thread.sleep(latencyMillis);
+			handle().seek(offset);
+			final int r = handle().read(b, off, len);
+			if (r > 0) offset += r;
+			return r;
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+		finally {
+			active.decrementAndGet();
+		}
+	}
+
+	@Override
+	public byte readByte() throws IOException {
+		final byte[] b = new byte[1];
+		if (read(b, 0, 1) < 1) throw new EOFException();
+		return b[0];
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		throw new IOException("LatencyDataHandle is read-only!");
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len)
+		throws IOException
+	{
+		throw new IOException("LatencyDataHandle is read-only!");
+	}
+
+	// -- AbstractHigherOrderHandle methods --
+
+	@Override
+	protected void cleanup() throws IOException {
+		// NB: nothing to release beyond the wrapped handle.
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * #%L
+ * SCIFIO Bio-Formats compatibility format.
+ * %%
+ * Copyright (C) 2013 - 2022 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package io.scif.bf.wrapper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+import org.scijava.io.handle.DataHandle;
+import org.scijava.io.handle.DataHandleService;
+import org.scijava.io.location.BytesLocation;
+import org.scijava.io.location.Location;
+
+/**
+ * Tests {@link RangeFetchDataHandle} over a {@link LatencyDataHandle}.
+ */
+public class RangeFetchDataHandleTest {
+
+	private static final int BLOCK_SIZE = 1024;
+
+	private static final long LATENCY = 20;
+
+	private Context context;
+
+	private DataHandleService handles;
+
+	private ExecutorService executor;
+
+	private Location location;
+
+	private byte[] data;
+
+	private LatencyDataHandle source;
+
+	private RangeFetchDataHandle handle;
+
+	@Before
+	public void setUp() throws IOException {
+		context = new Context(DataHandleService.class);
+		handles = context.getService(DataHandleService.class);
+		executor = Executors.newCachedThreadPool();
+		data = new byte[256 * BLOCK_SIZE];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i * 31 + i / BLOCK_SIZE);
+		}
+		location = new BytesLocation(data, "range-fetch");
+		source = new LatencyDataHandle(handles.create(location), LATENCY);
+		handle = new RangeFetchDataHandle(source, () -> source.sibling(handles
+			.create(location)), executor, 4, BLOCK_SIZE, 256);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		handle.close();
+		source.close();
+		executor.shutdownNow();
+		context.dispose();
+	}
+
+	/** Tests that the missing blocks of a read are fetched with one request. */
+	@Test
+	public void testCoalescing() throws IOException {
+		assertRange(data, 100, read(100, 8 * BLOCK_SIZE));
+		assertEquals(1, handle.getRequestCount());
+		assertEquals(1, source.getReadCount());
+		assertEquals(9, handle.getBlockMisses());
+	}
+
+	/** Tests that a read spanning several ranges fetches them in parallel. */
+	@Test
+	public void testParallelRanges() throws IOException {
+		assertRange(data, 0, read(0, 64 * BLOCK_SIZE));
+		assertEquals(4, handle.getRequestCount());
+		assertTrue(source.getMaxActiveCount() > 1);
+	}
+
+	/** Tests that blocks read before are served from the cache. */
+	@Test
+	public void testBlockCache() throws IOException {
+		read(0, 4 * BLOCK_SIZE);
+		final int reads = source.getReadCount();
+		assertRange(data, 10, read(10, 2 * BLOCK_SIZE));
+		assertRange(data, 0, read(0, 4 * BLOCK_SIZE));
+		assertEquals(reads, source.getReadCount());
+		assertEquals(1, handle.getRequestCount());
+		assertEquals(7, handle.getBlockHits());
+	}
+
+	/**
+	 * Tests that closing the handle waits for the prefetch of a sequential
+	 * read, so that no fetch uses the wrapped handle afterwards.
+	 */
+	@Test
+	public void testCloseWaitsForFetches() throws IOException {
+		read(0, BLOCK_SIZE);
+		read(BLOCK_SIZE, BLOCK_SIZE);
+		handle.close();
+		assertEquals(0, source.getActiveCount());
+		final int reads = source.getReadCount();
+		try {
+			Thread.sleep(2 * LATENCY);
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		assertEquals(reads, source.getReadCount());
+	}
+
+	// -- Helper methods --
+
+	private byte[] read(final long offset, final int length) throws IOException {
+		final byte[] b = new byte[length];
+		handle.seek(offset);
+		handle.readFully(b);
+		return b;
+	}
+
+	private static void assertRange(final byte[] expected, final int offset,
+		final byte[] actual)
+	{
+		assertArrayEquals(Arrays.copyOfRange(expected, offset, offset +
+			actual.length), actual);
+	}
+}